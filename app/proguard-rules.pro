@@ -8,3 +8,9 @@
 #   http://developer.android.com/guide/developing/tools/proguard.html
 
 -dontobfuscate
+
+# FloatPasteEngine reads the bracketed paste mode of the emulator, which has no public getter
+-keepclassmembers class com.termux.terminal.TerminalEmulator {
+    private static final int DECSET_BIT_BRACKETED_PASTE_MODE;
+    private boolean isDecsetInternalBitSet(int);
+}
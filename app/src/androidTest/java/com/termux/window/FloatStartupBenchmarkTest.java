@@ -0,0 +1,238 @@
+package com.termux.window;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_FLOAT_APP.TERMUX_FLOAT_SERVICE;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Starts and stops {@link TermuxFloatService} repeatedly and checks the median
+ * {@link FloatStartupTimings} of its cold starts and the bytes allocated by them against the
+ * baseline in {@link #BASELINE_ASSET}. The timings are read from the {@code startup_timings} of the
+ * {@link FloatDiagnostics} with {@code dumpsys}, so the service runs unmodified.
+ *
+ * The service is started in the already running app process of the instrumentation, so the process
+ * start is not included, like when the float window is opened again after being closed. The
+ * {@code Termux} app must be installed with its bootstrap, since the preferences are read from its
+ * package and the session runs its login shell.
+ *
+ * Run with {@code ./gradlew connectedDebugAndroidTest}. Pass
+ * {@code -Pandroid.testInstrumentationRunnerArguments.recordBaseline=true} to write the medians to
+ * {@code files/startup_baseline.json} in the external app directory instead, which can be pulled
+ * and checked in as the new baseline for the reference device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FloatStartupBenchmarkTest {
+
+    /** The baseline of the median timings in milliseconds and the allocated bytes, keyed like the {@code startup_timings}. */
+    private static final String BASELINE_ASSET = "startup_baseline.json";
+
+    private static final int WARMUP_STARTS = 2;
+    private static final int MEASURED_STARTS = 10;
+
+    /** A median regresses when it is more than this factor of its baseline... */
+    private static final double REGRESSION_FACTOR = 1.5;
+    /** ...and more than this many milliseconds over it, so that phases of a few ms do not fail on noise. */
+    private static final long REGRESSION_SLACK_MILLIS = 10;
+
+    private static final long START_TIMEOUT_MILLIS = 15_000;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    /** The key of the milestone the service has finished starting at. */
+    private static final String KEY_SESSION_ATTACHED = FloatStartupTimings.MILESTONE_SESSION_ATTACHED + "_ms";
+    private static final String KEY_ALLOCATED_BYTES = "allocated_bytes";
+
+    private static final String LOG_TAG = "FloatStartupBenchmark";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        Assume.assumeTrue("The Termux app bootstrap is not installed",
+            new File(TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH, "login").canExecute());
+
+        // TermuxFloatPermissionActivity is started instead of the window without the permission
+        runShellCommand("appops set " + mContext.getPackageName() + " SYSTEM_ALERT_WINDOW allow");
+        stopService();
+    }
+
+    @Test
+    public void coldStartStaysWithinBaseline() throws Exception {
+        for (int i = 0; i < WARMUP_STARTS; i++)
+            runColdStart();
+
+        Map<String, List<Long>> samples = new LinkedHashMap<>();
+        for (int i = 0; i < MEASURED_STARTS; i++) {
+            JSONObject startupTimings = runColdStart();
+            Iterator<String> keys = startupTimings.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                List<Long> values = samples.get(key);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    samples.put(key, values);
+                }
+                values.add(startupTimings.getLong(key));
+            }
+        }
+
+        JSONObject medians = new JSONObject();
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet())
+            medians.put(entry.getKey(), getMedian(entry.getValue()));
+        Log.i(LOG_TAG, "Median startup timings of " + MEASURED_STARTS + " cold starts on " + Build.MODEL + ": " + medians);
+
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        if (Boolean.parseBoolean(arguments.getString("recordBaseline"))) {
+            writeBaseline(medians);
+            return;
+        }
+
+        JSONObject baseline = readBaseline();
+        List<String> regressions = new ArrayList<>();
+        Iterator<String> keys = baseline.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!medians.has(key)) {
+                regressions.add(key + " was not recorded");
+                continue;
+            }
+            long median = medians.getLong(key);
+            long expected = baseline.getLong(key);
+            // The slack only applies to timings, allocations are not noisy on the scale of milliseconds
+            long slack = KEY_ALLOCATED_BYTES.equals(key) ? 0 : REGRESSION_SLACK_MILLIS;
+            if (median > expected * REGRESSION_FACTOR && median > expected + slack)
+                regressions.add(key + " is " + median + " against a baseline of " + expected);
+        }
+
+        assertTrue("Cold start regressed past the baseline in " + BASELINE_ASSET + ":\n" + TextUtils.join("\n", regressions),
+            regressions.isEmpty());
+    }
+
+    /** Start the service, wait until its session is attached and stop it again. */
+    private JSONObject runColdStart() throws Exception {
+        Intent intent = new Intent(mContext, TermuxFloatService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            mContext.startForegroundService(intent);
+        else
+            mContext.startService(intent);
+
+        JSONObject startupTimings = null;
+        long deadline = SystemClock.uptimeMillis() + START_TIMEOUT_MILLIS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            // The polls before the session is attached add to the allocated bytes, so do not poll too often
+            SystemClock.sleep(POLL_INTERVAL_MILLIS);
+            JSONObject diagnostics = readDiagnostics();
+            if (diagnostics != null && diagnostics.has("startup_timings") &&
+                diagnostics.getJSONObject("startup_timings").has(KEY_SESSION_ATTACHED)) {
+                startupTimings = diagnostics.getJSONObject("startup_timings");
+                break;
+            }
+        }
+
+        stopService();
+        assertNotNull("The session was not attached within " + START_TIMEOUT_MILLIS + "ms", startupTimings);
+        return startupTimings;
+    }
+
+    private void stopService() throws IOException {
+        if (readDiagnostics() == null) return;
+
+        mContext.startService(new Intent(mContext, TermuxFloatService.class).setAction(TERMUX_FLOAT_SERVICE.ACTION_STOP_SERVICE));
+        long deadline = SystemClock.uptimeMillis() + START_TIMEOUT_MILLIS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(POLL_INTERVAL_MILLIS);
+            if (readDiagnostics() == null) return;
+        }
+        fail("The service was not stopped within " + START_TIMEOUT_MILLIS + "ms");
+    }
+
+    /** Read the JSON diagnostics of the service, or {@code null} if it is not running. */
+    private JSONObject readDiagnostics() throws IOException {
+        String output = runShellCommand("dumpsys activity service " + mContext.getPackageName() + "/" +
+            TermuxFloatService.class.getName() + " --json");
+        for (String line : output.split("\n")) {
+            line = line.trim();
+            if (!line.startsWith("{")) continue;
+            try {
+                return new JSONObject(line);
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private JSONObject readBaseline() throws IOException, JSONException {
+        try (InputStream inputStream = InstrumentationRegistry.getInstrumentation().getContext().getAssets().open(BASELINE_ASSET)) {
+            return new JSONObject(readFully(inputStream));
+        }
+    }
+
+    private void writeBaseline(JSONObject medians) throws IOException, JSONException {
+        File baselineFile = new File(mContext.getExternalFilesDir(null), BASELINE_ASSET);
+        try (FileOutputStream outputStream = new FileOutputStream(baselineFile)) {
+            outputStream.write((medians.toString(2) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Log.i(LOG_TAG, "Wrote the baseline to " + baselineFile.getAbsolutePath());
+    }
+
+    private static long getMedian(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static String runShellCommand(String command) throws IOException {
+        ParcelFileDescriptor output = InstrumentationRegistry.getInstrumentation().getUiAutomation().executeShellCommand(command);
+        try (InputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(output)) {
+            return readFully(inputStream);
+        }
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null)
+            builder.append(line).append('\n');
+        return builder.toString();
+    }
+
+}
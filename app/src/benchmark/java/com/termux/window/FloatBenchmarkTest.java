@@ -0,0 +1,227 @@
+package com.termux.window;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the hot paths of the float window that do not need a device and prints their throughput,
+ * so that changes to them can be compared by running
+ * {@code ./gradlew :app:testDebugUnitTest -Pbenchmark --tests com.termux.window.FloatBenchmarkTest -i}
+ * before and after.
+ *
+ * Each benchmark is warmed up before it is measured, and the tests only assert the results, not the
+ * timings, which depend on the machine. The session output path is timed by
+ * {@link FloatOutputReplayBenchmarkTest}.
+ */
+public class FloatBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /** The rows of a compiler log, with mixed case and few distinct chars per row. */
+    private static final String[] COMPILER_LOG_ROWS = {
+        "[INFO] Compiling 412 source files to /home/user/project/build/classes",
+        "src/main/java/com/example/Parser.java:118: warning: [unchecked] unchecked call to add(E)",
+        "        tokens.add(token);",
+        "                  ^",
+        "Note: Some input files use unchecked or unsafe operations.",
+        "BUILD SUCCESSFUL in 12s",
+    };
+
+    /** The rows of UTF-8 heavy output, with chars outside the BMP and wide chars. */
+    private static final String[] UTF8_ROWS = {
+        "\u65E5\u672C\u8A9E\u306E\u30C6\u30AD\u30B9\u30C8 \uD83D\uDE00 caf\u00E9 na\u00EFve",
+        "\u0394\u03B5\u03BB\u03C4\u03AF\u03BF \u0434\u0430\u043D\u043D\u044B\u0445 \uD83D\uDC4D\uD83C\uDFFD",
+    };
+
+    /** Keeps the benchmark results alive so that the timed work is not optimized away. */
+    private static long sBlackhole;
+
+    /** The work of one benchmark round, returning a value that depends on the work done. */
+    private interface Round {
+
+        long run();
+
+    }
+
+    /**
+     * Time {@code round} after warming it up and print the mean time of a round.
+     *
+     * @return Returns the mean time of a round in nanoseconds.
+     */
+    private static long time(String name, Round round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            sBlackhole += round.run();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            sBlackhole += round.run();
+        long roundNanos = Math.max(1, (System.nanoTime() - startTime) / MEASURED_ROUNDS);
+
+        System.out.println(String.format(Locale.ROOT, "%s: %.3f ms per round", name, roundNanos / 1e6));
+        return roundNanos;
+    }
+
+    /** Print the throughput of a round that processed {@code bytesPerRound} bytes of UTF-8 text. */
+    private static void printThroughput(String name, long roundNanos, long bytesPerRound) {
+        System.out.println(String.format(Locale.ROOT, "%s: %.1f MB/s", name,
+            bytesPerRound / 1e6 / (roundNanos / 1e9)));
+    }
+
+    private static String[] buildRows(String[] rowTexts, int count) {
+        String[] rows = new String[count];
+        for (int i = 0; i < count; i++)
+            rows[i] = rowTexts[i % rowTexts.length] + " #" + i;
+        return rows;
+    }
+
+    private static long getUtf8Length(String[] rows) {
+        long length = 0;
+        for (String row : rows)
+            length += row.getBytes(StandardCharsets.UTF_8).length + 1;
+        return length;
+    }
+
+    @Test
+    public void fnKeyMapTranslate() {
+        FloatFnKeyMap fnKeyMap = new FloatFnKeyMap("q:esc,k:UP,j:DOWN,v:none");
+        assertEquals(FloatFnKeyMap.ACTION_WRITE, fnKeyMap.translate('w', null).action);
+        assertEquals(FloatFnKeyMap.ACTION_NONE, fnKeyMap.translate('v', null).action);
+
+        final int translations = 1_000_000;
+        long roundNanos = time("FloatFnKeyMap.translate x" + translations, () -> {
+            long written = 0;
+            for (int i = 0; i < translations; i++) {
+                int codePoint = 'a' + (i % 26);
+                FloatFnKeyMap.Translation translation = fnKeyMap.translate(codePoint, null);
+                if (translation.action == FloatFnKeyMap.ACTION_WRITE)
+                    written += translation.bytes.length;
+            }
+            return written;
+        });
+        System.out.println(String.format(Locale.ROOT, "FloatFnKeyMap.translate: %.1f ns per key",
+            (double) roundNanos / translations));
+
+        time("FloatFnKeyMap compile x1000", () -> {
+            long actions = 0;
+            for (int i = 0; i < 1000; i++)
+                actions += new FloatFnKeyMap("q:esc,k:UP,j:DOWN,v:none,x:0x1b,y:alt+b").translate('q', null).action;
+            return actions;
+        });
+    }
+
+    @Test
+    public void coldTranscriptArchiveAndSearch() {
+        final String[] rows = buildRows(COMPILER_LOG_ROWS, 50_000);
+        final long[] rowMasks = new long[rows.length];
+        for (int i = 0; i < rows.length; i++)
+            rowMasks[i] = FloatTranscriptIndex.getTextMask(rows[i]);
+
+        long archiveNanos = time("FloatColdTranscript.addRow x" + rows.length, () -> {
+            FloatColdTranscript coldTranscript = new FloatColdTranscript(rows.length);
+            for (int i = 0; i < rows.length; i++)
+                coldTranscript.addRow(rows[i], rowMasks[i]);
+            long compressedBytes = coldTranscript.getCompressedBytes();
+            coldTranscript.release();
+            return compressedBytes;
+        });
+        printThroughput("FloatColdTranscript.addRow", archiveNanos, getUtf8Length(rows));
+
+        FloatColdTranscript coldTranscript = new FloatColdTranscript(rows.length);
+        for (int i = 0; i < rows.length; i++)
+            coldTranscript.addRow(rows[i], rowMasks[i]);
+        System.out.println(String.format(Locale.ROOT, "FloatColdTranscript: %d bytes compressed to %d bytes",
+            coldTranscript.getUncompressedBytes(), coldTranscript.getCompressedBytes()));
+
+        String[] matchTexts = new String[FloatTranscriptIndex.MAX_MATCHES];
+        // A query that is in every block, so that all blocks are decompressed until the matches are full
+        long hitQueryMask = FloatTranscriptIndex.getTextMask("unchecked call");
+        assertEquals(matchTexts.length, coldTranscript.search("UNCHECKED CALL", hitQueryMask, matchTexts, 0));
+        time("FloatColdTranscript.search hit", () ->
+            coldTranscript.search("UNCHECKED CALL", hitQueryMask, matchTexts, 0));
+
+        // A query whose chars are in no row, so that no block is decompressed
+        long missQueryMask = FloatTranscriptIndex.getTextMask("~~");
+        long blocksDecompressed = coldTranscript.getBlocksDecompressed();
+        assertEquals(0, coldTranscript.search("~~", missQueryMask, matchTexts, 0));
+        assertEquals(blocksDecompressed, coldTranscript.getBlocksDecompressed());
+        time("FloatColdTranscript.search miss", () ->
+            coldTranscript.search("~~", missQueryMask, matchTexts, 0));
+        coldTranscript.release();
+    }
+
+    @Test
+    public void transcriptIndexSearch() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final int transcriptRows = 10_000;
+            FloatTranscriptIndex index = new FloatTranscriptIndex(transcriptRows, 0, executor);
+            String[] rows = buildRows(COMPILER_LOG_ROWS, transcriptRows);
+            index.appendRows(-transcriptRows, rows);
+            final String[] screenRows = buildRows(UTF8_ROWS, 40);
+
+            FloatTranscriptIndex.SearchResult result = index.searchRows("Warning", screenRows, 0, -transcriptRows);
+            // More rows match than the max matches of a search
+            assertEquals(FloatTranscriptIndex.MAX_MATCHES, result.count);
+            time("FloatTranscriptIndex.searchRows common word", () ->
+                index.searchRows("Warning", screenRows, 0, -transcriptRows).count);
+
+            // Most rows have the chars of the query, so the char bitmasks skip few rows
+            result = index.searchRows("#9999", screenRows, 0, -transcriptRows);
+            assertEquals(1, result.count);
+            time("FloatTranscriptIndex.searchRows rare number", () ->
+                index.searchRows("#9999", screenRows, 0, -transcriptRows).count);
+
+            result = index.searchRows("\uD83D\uDE00", screenRows, 0, -transcriptRows);
+            assertEquals(screenRows.length / UTF8_ROWS.length, result.count);
+            time("FloatTranscriptIndex.searchRows emoji", () ->
+                index.searchRows("\uD83D\uDE00", screenRows, 0, -transcriptRows).count);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void pasteChunking() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 4 * 1024 * 1024) {
+            builder.append(COMPILER_LOG_ROWS[builder.length() % COMPILER_LOG_ROWS.length]).append("\r\n");
+            builder.append(UTF8_ROWS[builder.length() % UTF8_ROWS.length]).append("\r\n");
+        }
+        final String text = builder.toString();
+
+        long chunkNanos = time("FloatPasteEngine.getChunkEnd over " + text.length() + " chars", () -> {
+            long chunks = 0;
+            int start = 0;
+            while (start < text.length()) {
+                int end = FloatPasteEngine.getChunkEnd(text, start);
+                assertTrue(end > start);
+                start = end;
+                chunks++;
+            }
+            return chunks;
+        });
+        long textBytes = text.getBytes(StandardCharsets.UTF_8).length;
+        printThroughput("FloatPasteEngine.getChunkEnd", chunkNanos, textBytes);
+
+        long sanitizeNanos = time("FloatPasteEngine.sanitize over " + text.length() + " chars", () -> {
+            long length = 0;
+            int start = 0;
+            while (start < text.length()) {
+                int end = FloatPasteEngine.getChunkEnd(text, start);
+                length += FloatPasteEngine.sanitize(text.subSequence(start, end)).length();
+                start = end;
+            }
+            return length;
+        });
+        printThroughput("FloatPasteEngine.sanitize", sanitizeNanos, textBytes);
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.termux.window;
+
+import com.termux.shared.termux.terminal.TermuxTerminalSessionClientBase;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalOutput;
+import com.termux.terminal.TerminalSession;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays recorded session output through a {@link TerminalEmulator} and the real
+ * {@link TermuxFloatSessionClient} and {@link FloatRedrawScheduler} of the float window, and prints
+ * the throughput, the text change notifications and redraws per MB and the bytes allocated per MB
+ * of output. Run with
+ * {@code ./gradlew :app:testDebugUnitTest -Pbenchmark --tests com.termux.window.FloatOutputReplayBenchmarkTest -i}.
+ *
+ * The output is appended in reads of {@link #READ_SIZE} bytes with a text change notification after
+ * each, like the pty reader of {@link TerminalSession} does, so no native pty is needed. Frames are
+ * run by the {@link FakeFrameScheduler} whenever a display frame has passed on the wall clock, so
+ * the redraws per MB depend on the throughput of the machine like on a device.
+ *
+ * The fixtures in {@code src/benchmark/resources/replay} were recorded at 80x24 with
+ * {@code TERM=xterm-256color} by running the commands with {@code script -q -E never -c <command> /dev/null}
+ * and gzipping its output:
+ * <ul>
+ *     <li>{@code ls-lR}: {@code ls -lR --color=always /usr/share/doc}.</li>
+ *     <li>{@code gcc-warnings}: {@code gcc -Wall -Wextra -fdiagnostics-color=always} on C files full of warnings.</li>
+ *     <li>{@code utf8-cat}: {@code cat} of a file of CJK, emoji and combining chars.</li>
+ *     <li>{@code vim-scroll}: {@code vim} with syntax highlighting and line numbers scrolled down
+ *     and up with {@code Ctrl+d} and {@code Ctrl+u}.</li>
+ *     <li>{@code less-paging}: {@code less -R} of the UTF-8 file paged down and up.</li>
+ * </ul>
+ */
+public class FloatOutputReplayBenchmarkTest {
+
+    private static final String[] FIXTURES = {"ls-lR", "gcc-warnings", "utf8-cat", "vim-scroll", "less-paging"};
+
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 24;
+    private static final int CELL_WIDTH_PIXELS = 12;
+    private static final int CELL_HEIGHT_PIXELS = 24;
+
+    /** The size of the reads of the pty reader of {@link TerminalSession}. */
+    private static final int READ_SIZE = 4096;
+    /** The interval of the display frames at 60Hz. */
+    private static final long FRAME_INTERVAL_NANOS = 16_666_667L;
+
+    private static final int WARMUP_REPLAYS = 5;
+    private static final int MEASURED_REPLAYS = 20;
+
+    /**
+     * The min throughput of the replay, far below that of any machine the tests run on, so that
+     * only a regression by orders of magnitude, like a redraw per notification, fails.
+     */
+    private static final double MIN_MEGABYTES_PER_SECOND = 1;
+    /**
+     * The max bytes allocated per MB of output once the transcript is full, so that allocating per
+     * char or per notification fails while the strings of escape sequences like titles do not.
+     */
+    private static final long ALLOCATED_BYTES_PER_MEGABYTE_BUDGET = 1024 * 1024;
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    /** Discards what the emulator writes back to the process, like replies to device attribute queries. */
+    private static class DiscardingOutput extends TerminalOutput {
+
+        @Override
+        public void write(byte[] data, int offset, int count) {}
+
+        @Override
+        public void titleChanged(String oldTitle, String newTitle) {}
+
+        @Override
+        public void onCopyTextToClipboard(String text) {}
+
+        @Override
+        public void onPasteTextFromClipboard() {}
+
+        @Override
+        public void onBell() {}
+
+        @Override
+        public void onColorsChanged() {}
+
+    }
+
+    private TerminalSession mSession;
+    private TerminalEmulator mEmulator;
+    private long mRedraws;
+
+    @Test
+    public void replayStaysWithinBudgets() throws IOException {
+        for (String fixture : FIXTURES)
+            replay(fixture, readFixture(fixture));
+    }
+
+    private void replay(String fixture, byte[] output) {
+        // The emulator gets its own client, since the float client reads the cursor style from the
+        // properties of the window, and the session is only compared against the current session
+        mSession = new TerminalSession("/bin/sh", "/", new String[0], new String[0],
+            TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, null);
+        mEmulator = new TerminalEmulator(new DiscardingOutput(), COLUMNS, ROWS, CELL_WIDTH_PIXELS, CELL_HEIGHT_PIXELS,
+            TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, new TermuxTerminalSessionClientBase() {});
+        mRedraws = 0;
+
+        TermuxFloatService service = new TermuxFloatService() {
+            @Override
+            public TerminalSession getCurrentSession() {
+                return mSession;
+            }
+        };
+        TermuxFloatView view = new TermuxFloatView(null, null) {
+            @Override
+            public boolean isVisible() {
+                return true;
+            }
+
+            @Override
+            boolean redrawTerminal() {
+                // Like TerminalView.onScreenUpdated(), which only invalidates the view otherwise
+                mEmulator.clearScrollCounter();
+                mRedraws++;
+                return true;
+            }
+        };
+        FakeFrameScheduler frameScheduler = new FakeFrameScheduler();
+        TermuxFloatSessionClient client = new TermuxFloatSessionClient(service, view, frameScheduler);
+        FloatRedrawScheduler redrawScheduler = client.getRedrawScheduler();
+
+        byte[] buffer = new byte[READ_SIZE];
+        // Fills the transcript, so that its rows are reused when measured
+        for (int i = 0; i < WARMUP_REPLAYS; i++)
+            replayOnce(output, buffer, client, frameScheduler);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long notifications = redrawScheduler.getNotificationsReceived();
+        long framesDrawn = redrawScheduler.getFramesDrawn();
+        long redraws = mRedraws;
+        long frames = 0;
+
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < MEASURED_REPLAYS; i++)
+            frames += replayOnce(output, buffer, client, frameScheduler);
+        long elapsedNanos = Math.max(1, System.nanoTime() - startTime);
+        allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+        notifications = redrawScheduler.getNotificationsReceived() - notifications;
+        framesDrawn = redrawScheduler.getFramesDrawn() - framesDrawn;
+        double megabytes = (double) output.length * MEASURED_REPLAYS / MEGABYTE;
+        double megabytesPerSecond = megabytes / (elapsedNanos / 1e9);
+        long allocatedBytesPerMegabyte = (long) (allocatedBytes / megabytes);
+
+        System.out.println(String.format(Locale.ROOT,
+            "%s: %d bytes, %.1f MB/s, %.1f notifications/MB, %.1f redraws/MB, %d bytes allocated/MB",
+            fixture, output.length, megabytesPerSecond, notifications / megabytes, framesDrawn / megabytes,
+            allocatedBytesPerMegabyte));
+
+        assertEquals(fixture + ": every read notifies once",
+            (long) MEASURED_REPLAYS * ((output.length + READ_SIZE - 1) / READ_SIZE), notifications);
+        assertEquals(fixture + ": every drawn frame redraws the view", framesDrawn, mRedraws - redraws);
+        assertTrue(fixture + ": drew " + framesDrawn + " times in " + frames + " frames", framesDrawn <= frames);
+        assertTrue(fixture + ": replayed at " + megabytesPerSecond + " MB/s", megabytesPerSecond >= MIN_MEGABYTES_PER_SECOND);
+        assertTrue(fixture + ": allocated " + allocatedBytesPerMegabyte + " bytes/MB",
+            allocatedBytesPerMegabyte <= ALLOCATED_BYTES_PER_MEGABYTE_BUDGET);
+    }
+
+    /**
+     * Replay {@code output} once.
+     *
+     * @return Returns the number of frames run.
+     */
+    private long replayOnce(byte[] output, byte[] buffer, TermuxFloatSessionClient client, FakeFrameScheduler frameScheduler) {
+        long frames = 0;
+        long nextFrameNanos = System.nanoTime() + FRAME_INTERVAL_NANOS;
+        for (int offset = 0; offset < output.length; offset += READ_SIZE) {
+            int length = Math.min(READ_SIZE, output.length - offset);
+            System.arraycopy(output, offset, buffer, 0, length);
+            mEmulator.append(buffer, length);
+            client.onTextChanged(mSession);
+
+            long now = System.nanoTime();
+            if (now >= nextFrameNanos) {
+                frameScheduler.runFrame();
+                frames++;
+                nextFrameNanos = now + FRAME_INTERVAL_NANOS;
+            }
+        }
+
+        // The last output is drawn on the next frame
+        frameScheduler.runFrame();
+        return frames + 1;
+    }
+
+    private static byte[] readFixture(String fixture) throws IOException {
+        InputStream resource = FloatOutputReplayBenchmarkTest.class.getResourceAsStream("/replay/" + fixture + ".gz");
+        assertNotNull("Missing fixture " + fixture, resource);
+        try (InputStream inputStream = new GZIPInputStream(resource)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[READ_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, read);
+            return outputStream.toByteArray();
+        }
+    }
+
+}
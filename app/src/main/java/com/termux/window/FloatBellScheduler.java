@@ -0,0 +1,226 @@
+package com.termux.window;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
+import com.termux.shared.termux.terminal.io.BellHandler;
+
+/**
+ * Rings the terminal bell, collapsing bells into a min interval.
+ *
+ * The first bell after the interval has passed rings immediately. A bell received within the
+ * interval is collapsed into a single bell rung once the interval has passed, and any further bells
+ * received before that are dropped. So a program spamming {@code \a} rings the bell at most once
+ * per interval.
+ *
+ * The bell {@link SoundPool} is created and the sound loaded on a background thread. A beep requested
+ * before the sound has loaded is played as soon as the load completes.
+ */
+public class FloatBellScheduler {
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRingRunnable = this::ringPendingBell;
+
+    /** The bell sound pool, guarded by {@code this}. */
+    private SoundPool mBellSoundPool;
+    private int mBellSoundId;
+    /** If the sound of {@link #mBellSoundPool} has loaded, guarded by {@code this}. */
+    private boolean mBellSoundLoaded;
+    /** If a beep should be played once the sound has loaded, guarded by {@code this}. */
+    private boolean mPlayOnLoad;
+    /** If the sound pool is being created in the background, guarded by {@code this}. */
+    private boolean mBellSoundPoolLoading;
+    /** The sound pool being created whose sound loaded before it was published, guarded by {@code this}. */
+    private SoundPool mLoadedBeforePublishPool;
+    /** Incremented on release so that a sound pool still being created is released, guarded by {@code this}. */
+    private int mBellSoundPoolGeneration;
+
+    /** The behaviour of the collapsed bell waiting for the interval to pass, or -1 if none. */
+    private int mPendingBellBehaviour = -1;
+    private long mLastRingTime;
+
+    private long mBellsReceived;
+    private long mBellsRung;
+    private long mBellsCollapsed;
+    private long mBellsDropped;
+
+    private static final String LOG_TAG = "FloatBellScheduler";
+
+    public FloatBellScheduler(@NonNull Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Handle a bell. Must be called on the main thread.
+     *
+     * @param bellBehaviour The {@code bell-character} behaviour.
+     * @param minIntervalMillis The min interval between two bells.
+     */
+    public void onBell(int bellBehaviour, long minIntervalMillis) {
+        mBellsReceived++;
+        if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_IGNORE) return;
+
+        if (mPendingBellBehaviour != -1) {
+            mBellsDropped++;
+            return;
+        }
+
+        long remainingMillis = mLastRingTime + minIntervalMillis - SystemClock.uptimeMillis();
+        if (mLastRingTime != 0 && remainingMillis > 0) {
+            mBellsCollapsed++;
+            mPendingBellBehaviour = bellBehaviour;
+            mHandler.postDelayed(mRingRunnable, remainingMillis);
+            return;
+        }
+
+        ring(bellBehaviour);
+    }
+
+    private void ringPendingBell() {
+        int bellBehaviour = mPendingBellBehaviour;
+        mPendingBellBehaviour = -1;
+        if (bellBehaviour != -1)
+            ring(bellBehaviour);
+    }
+
+    private void ring(int bellBehaviour) {
+        mLastRingTime = SystemClock.uptimeMillis();
+        mBellsRung++;
+
+        if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_VIBRATE) {
+            BellHandler.getInstance(mContext).doBell();
+        } else if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_BEEP) {
+            synchronized (this) {
+                if (mBellSoundPool != null && mBellSoundLoaded) {
+                    mBellSoundPool.play(mBellSoundId, 1.f, 1.f, 1, 0, 1.f);
+                    return;
+                }
+                mPlayOnLoad = true;
+            }
+            loadBellSoundPool();
+        }
+    }
+
+    /** Cancel a collapsed bell waiting for the interval to pass. */
+    public void cancel() {
+        mHandler.removeCallbacks(mRingRunnable);
+        mPendingBellBehaviour = -1;
+    }
+
+    /**
+     * Create the bell {@link SoundPool} and load the sound in the background, if not already done,
+     * so that it is ready before the first beep.
+     */
+    public void loadBellSoundPool() {
+        final int generation;
+        synchronized (this) {
+            if (mBellSoundPool != null || mBellSoundPoolLoading) return;
+            mBellSoundPoolLoading = true;
+            generation = mBellSoundPoolGeneration;
+        }
+
+        // Loads are rare, so a short lived thread is used instead of keeping a worker alive
+        new Thread(() -> {
+            // The thread has no looper, so the load complete listener is called on the main thread
+            SoundPool soundPool = new SoundPool.Builder().setMaxStreams(1).setAudioAttributes(
+                new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION).build()).build();
+            soundPool.setOnLoadCompleteListener((pool, sampleId, status) -> onBellSoundLoaded(pool, status));
+
+            int soundId = 0;
+            try {
+                soundId = soundPool.load(mContext, com.termux.shared.R.raw.bell, 1);
+            } catch (Exception e) {
+                // Catch java.lang.RuntimeException: Unable to resume activity {com.termux/com.termux.app.TermuxActivity}: android.content.res.Resources$NotFoundException: File res/raw/bell.ogg from drawable resource ID
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load bell sound pool", e);
+            }
+
+            synchronized (this) {
+                mBellSoundPoolLoading = false;
+                if (generation != mBellSoundPoolGeneration) {
+                    // Released while loading
+                    soundPool.release();
+                    return;
+                }
+                mBellSoundPool = soundPool;
+                mBellSoundId = soundId;
+                // The load may have completed before the pool was published
+                if (mLoadedBeforePublishPool == soundPool) {
+                    mLoadedBeforePublishPool = null;
+                    markBellSoundLoaded();
+                }
+            }
+        }, "FloatBellSoundPool").start();
+    }
+
+    private synchronized void onBellSoundLoaded(SoundPool soundPool, int status) {
+        if (status != 0) {
+            Logger.logError(LOG_TAG, "Failed to load bell sound with status " + status);
+            return;
+        }
+
+        if (soundPool == mBellSoundPool)
+            markBellSoundLoaded();
+        else if (mBellSoundPoolLoading)
+            mLoadedBeforePublishPool = soundPool;
+    }
+
+    /** Mark the sound as loaded and play a beep requested while loading. Must be called while holding {@code this}. */
+    private void markBellSoundLoaded() {
+        mBellSoundLoaded = true;
+        if (mPlayOnLoad) {
+            mPlayOnLoad = false;
+            mBellSoundPool.play(mBellSoundId, 1.f, 1.f, 1, 0, 1.f);
+        }
+    }
+
+    /**
+     * Release the bell {@link SoundPool}. It is loaded again on the next beep.
+     *
+     * @return Returns {@code true} if it was created and has been released.
+     */
+    public synchronized boolean releaseBellSoundPool() {
+        mPlayOnLoad = false;
+        mBellSoundPoolGeneration++;
+        mLoadedBeforePublishPool = null;
+        if (mBellSoundPool != null) {
+            mBellSoundPool.release();
+            mBellSoundPool = null;
+            mBellSoundLoaded = false;
+            return true;
+        }
+        return false;
+    }
+
+
+
+    /** Get the number of bells received, including the ignored ones. */
+    public long getBellsReceived() {
+        return mBellsReceived;
+    }
+
+    /** Get the number of bells actually rung. */
+    public long getBellsRung() {
+        return mBellsRung;
+    }
+
+    /** Get the number of bells delayed to the end of the min interval. */
+    public long getBellsCollapsed() {
+        return mBellsCollapsed;
+    }
+
+    /** Get the number of bells dropped because a collapsed bell was already waiting. */
+    public long getBellsDropped() {
+        return mBellsDropped;
+    }
+
+}
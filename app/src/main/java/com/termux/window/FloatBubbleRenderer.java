@@ -0,0 +1,160 @@
+package com.termux.window;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TextStyle;
+import com.termux.terminal.WcWidth;
+
+/**
+ * Renders a low resolution thumbnail of the visible screen rows of a {@link TerminalEmulator} for
+ * the minimized bubble.
+ *
+ * Each terminal cell is drawn as a single pixel in the foreground color if it contains a visible
+ * character, otherwise in the background color, so a thumbnail costs one pass over the screen cells
+ * and no text rendering. Renders are throttled to {@link #MIN_RENDER_INTERVAL_MILLIS} and the same
+ * {@link Bitmap} and pixel buffer are reused between renders as long as the screen size does not change.
+ */
+public class FloatBubbleRenderer {
+
+    /** The min interval between two thumbnail renders, which caps the rate to 2 fps. */
+    public static final long MIN_RENDER_INTERVAL_MILLIS = 500;
+
+    /** The client notified when a new thumbnail has been rendered. */
+    public interface RendererClient {
+
+        /** Get the emulator to render, or {@code null} if none. */
+        @Nullable TerminalEmulator getEmulator();
+
+        /** Called on the main thread after {@code thumbnail} has been rendered. */
+        void onThumbnailRendered(Bitmap thumbnail);
+
+    }
+
+    private final RendererClient mClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRenderRunnable = this::render;
+
+    private Bitmap mBitmap;
+    private int[] mPixels;
+
+    private boolean mRenderPending;
+    private long mLastRenderTime;
+    private long mRenderCount;
+
+    public FloatBubbleRenderer(RendererClient client) {
+        mClient = client;
+    }
+
+    /** Request a thumbnail render. Requests received before the throttle interval has passed are collapsed. */
+    public void requestRender() {
+        if (mRenderPending) return;
+        mRenderPending = true;
+
+        long delay = mLastRenderTime + MIN_RENDER_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mRenderRunnable, Math.max(0, delay));
+    }
+
+    /** Cancel any pending render, like when the window is restored. */
+    public void cancel() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mRenderPending = false;
+    }
+
+    /**
+     * Cancel any pending render and release the thumbnail bitmap.
+     *
+     * @return Returns {@code true} if a bitmap was allocated and has been released.
+     */
+    public boolean release() {
+        cancel();
+        mPixels = null;
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void render() {
+        mRenderPending = false;
+        mLastRenderTime = SystemClock.uptimeMillis();
+
+        TerminalEmulator emulator = mClient.getEmulator();
+        if (emulator == null) return;
+
+        final int columns = emulator.mColumns;
+        final int rows = emulator.mRows;
+        if (columns <= 0 || rows <= 0) return;
+
+        if (mBitmap == null || mBitmap.getWidth() != columns || mBitmap.getHeight() != rows) {
+            if (mBitmap != null) mBitmap.recycle();
+            mBitmap = Bitmap.createBitmap(columns, rows, Bitmap.Config.ARGB_8888);
+            mPixels = new int[columns * rows];
+        }
+
+        final int[] palette = emulator.mColors.mCurrentColors;
+        final TerminalBuffer screen = emulator.getScreen();
+        for (int y = 0; y < rows; y++) {
+            TerminalRow row = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(y));
+            renderRow(row, columns, palette, y * columns);
+        }
+
+        mBitmap.setPixels(mPixels, 0, columns, 0, 0, columns, rows);
+        mRenderCount++;
+        mClient.onThumbnailRendered(mBitmap);
+    }
+
+    private void renderRow(TerminalRow row, int columns, int[] palette, int offset) {
+        final char[] text = row.mText;
+        final int charsUsed = row.getSpaceUsed();
+
+        int column = 0;
+        int charIndex = 0;
+        while (column < columns) {
+            int codePoint = ' ';
+            int charsForCodePoint = 1;
+            if (charIndex < charsUsed) {
+                char c = text[charIndex];
+                if (Character.isHighSurrogate(c) && charIndex + 1 < charsUsed) {
+                    codePoint = Character.toCodePoint(c, text[charIndex + 1]);
+                    charsForCodePoint = 2;
+                } else {
+                    codePoint = c;
+                }
+            }
+            charIndex += charsForCodePoint;
+
+            int width = WcWidth.width(codePoint);
+            // Combining characters do not take a column
+            if (width <= 0) continue;
+
+            int color = getCellColor(row.getStyle(column), codePoint != ' ', palette);
+            for (int i = 0; i < width && column < columns; i++)
+                mPixels[offset + column++] = color;
+        }
+    }
+
+    private static int getCellColor(long style, boolean visible, int[] palette) {
+        int effect = TextStyle.decodeEffect(style);
+        boolean inverse = (effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0;
+        boolean invisible = (effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) != 0;
+
+        int color = (visible && !invisible) != inverse ? TextStyle.decodeForeColor(style) : TextStyle.decodeBackColor(style);
+        // Colors are either indexes into the palette or true colors with all alpha bits set
+        return (color & 0xff000000) == 0xff000000 ? color : palette[color];
+    }
+
+    public long getRenderCount() {
+        return mRenderCount;
+    }
+
+}
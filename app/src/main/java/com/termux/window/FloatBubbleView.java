@@ -0,0 +1,181 @@
+package com.termux.window;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.termux.shared.view.ViewUtils;
+import com.termux.view.TerminalView;
+
+/**
+ * The content of the minimized float window bubble.
+ *
+ * Instead of keeping the full {@link TerminalView} rendering the emulator clipped to the bubble,
+ * this view only draws a cheap activity indicator: the number of output lines received since the
+ * window was minimized, a flag for bell and session exit events and a short pulse whenever output
+ * arrives. The values are fed from the counters of {@link TermuxFloatSessionClient}. Behind the
+ * indicator, a dimmed thumbnail rendered by {@link FloatBubbleRenderer} is drawn.
+ */
+public class FloatBubbleView extends View {
+
+    private static final long PULSE_DURATION_MILLIS = 600;
+
+    private static final int BELL_FLAG_COLOR = 0xFFFFC107;
+    private static final int EXIT_FLAG_COLOR = 0xFFF44336;
+
+    /** The alpha of the thumbnail, so that the indicator stays readable on top of it. */
+    private static final int THUMBNAIL_ALPHA = 0x99;
+    /** The height to width ratio of a terminal cell used to scale the one pixel per cell thumbnail. */
+    private static final float THUMBNAIL_CELL_ASPECT_RATIO = 2f;
+
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mFlagPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mPulsePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mThumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mThumbnailRect = new RectF();
+
+    private final GestureDetector mGestureDetector;
+
+    private TermuxFloatView mTermuxFloatView;
+
+    private Bitmap mThumbnail;
+
+    private String mUnreadText = "";
+    private boolean mBellFlag;
+    private boolean mExitFlag;
+
+    /** The {@link SystemClock#uptimeMillis()} at which the last pulse started, or 0 if none. */
+    private long mPulseStartTime;
+
+    public FloatBubbleView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        mTextPaint.setTextSize(ViewUtils.dpToPx(context, 14));
+
+        mThumbnailPaint.setAlpha(THUMBNAIL_ALPHA);
+
+        mPulsePaint.setColor(Color.WHITE);
+        mPulsePaint.setStyle(Paint.Style.STROKE);
+        mPulsePaint.setStrokeWidth(ViewUtils.dpToPx(context, 2));
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                // The TerminalView is gone while minimized, so handle moving the bubble here
+                if (mTermuxFloatView != null)
+                    mTermuxFloatView.onWindowLongPress(e);
+            }
+        });
+    }
+
+    public void setTermuxFloatView(TermuxFloatView termuxFloatView) {
+        mTermuxFloatView = termuxFloatView;
+    }
+
+    /**
+     * Update the activity indicator.
+     *
+     * @param unreadLines The number of output lines received since the window was minimized.
+     * @param bellFlag If a bell was received since the window was minimized.
+     * @param exitFlag If a session exited since the window was minimized.
+     * @param pulse If a pulse should be shown for newly arrived output.
+     */
+    public void setActivity(int unreadLines, boolean bellFlag, boolean exitFlag, boolean pulse) {
+        String unreadText = unreadLines <= 0 ? "" : (unreadLines > 999 ? "999+" : String.valueOf(unreadLines));
+        boolean changed = !unreadText.equals(mUnreadText) || bellFlag != mBellFlag || exitFlag != mExitFlag;
+        mUnreadText = unreadText;
+        mBellFlag = bellFlag;
+        mExitFlag = exitFlag;
+
+        // Do not restart a running pulse, so that a flood of output does not redraw every frame forever
+        if (pulse && !isPulsing()) {
+            mPulseStartTime = SystemClock.uptimeMillis();
+            changed = true;
+        }
+
+        if (changed)
+            invalidate();
+    }
+
+    /** Set the thumbnail to draw behind the indicator, or {@code null} to not draw one. */
+    public void setThumbnail(Bitmap thumbnail) {
+        mThumbnail = thumbnail;
+        invalidate();
+    }
+
+    /** Clear the activity indicator, like when the window is restored. */
+    public void clearActivity() {
+        setActivity(0, false, false, false);
+        mPulseStartTime = 0;
+    }
+
+    private boolean isPulsing() {
+        return mPulseStartTime != 0 && SystemClock.uptimeMillis() - mPulseStartTime < PULSE_DURATION_MILLIS;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float centerX = getWidth() / 2f;
+        float centerY = getHeight() / 2f;
+        float radius = Math.min(centerX, centerY);
+
+        if (mThumbnail != null && !mThumbnail.isRecycled()) {
+            // Fit the thumbnail scaled to the cell aspect ratio into the bubble
+            float thumbnailWidth = mThumbnail.getWidth();
+            float thumbnailHeight = mThumbnail.getHeight() * THUMBNAIL_CELL_ASPECT_RATIO;
+            float scale = Math.min(getWidth() / thumbnailWidth, getHeight() / thumbnailHeight);
+            mThumbnailRect.set(centerX - thumbnailWidth * scale / 2, centerY - thumbnailHeight * scale / 2,
+                centerX + thumbnailWidth * scale / 2, centerY + thumbnailHeight * scale / 2);
+            canvas.drawBitmap(mThumbnail, null, mThumbnailRect, mThumbnailPaint);
+        }
+
+        if (mPulseStartTime != 0) {
+            long elapsed = SystemClock.uptimeMillis() - mPulseStartTime;
+            if (elapsed < PULSE_DURATION_MILLIS) {
+                float progress = (float) elapsed / PULSE_DURATION_MILLIS;
+                mPulsePaint.setAlpha((int) (255 * (1 - progress)));
+                canvas.drawCircle(centerX, centerY, radius * (0.5f + 0.4f * progress), mPulsePaint);
+                postInvalidateOnAnimation();
+            } else {
+                mPulseStartTime = 0;
+            }
+        }
+
+        if (!mUnreadText.isEmpty())
+            canvas.drawText(mUnreadText, centerX, centerY - (mTextPaint.descent() + mTextPaint.ascent()) / 2, mTextPaint);
+
+        float flagRadius = radius / 7;
+        if (mBellFlag) {
+            mFlagPaint.setColor(BELL_FLAG_COLOR);
+            canvas.drawCircle(centerX + radius / 2, centerY - radius / 2, flagRadius, mFlagPaint);
+        }
+        if (mExitFlag) {
+            mFlagPaint.setColor(EXIT_FLAG_COLOR);
+            canvas.drawCircle(centerX - radius / 2, centerY - radius / 2, flagRadius, mFlagPaint);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.termux.window;
+
+import android.content.ClipData;
+import android.content.ClipDescription;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies text to the clipboard on a worker thread.
+ *
+ * Text of up to the max inline chars is put on the clipboard as is. Larger text is spilled to a
+ * file in the app cache directory and only a content uri served by {@link FloatClipboardProvider}
+ * is put on the clipboard, so that huge copies do not exceed the binder transaction limit.
+ *
+ * Copies are done in order on a single thread and a copy is skipped if a newer one was already
+ * requested, since it would be replaced on the clipboard immediately anyways.
+ */
+public class FloatClipboardCopier {
+
+    private static final String SPILL_FILE_PREFIX = "copy-";
+    private static final String SPILL_FILE_SUFFIX = ".txt";
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FloatClipboardCopy"));
+
+    /** The generation of the last requested copy. */
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private final AtomicLong mCopiesInline = new AtomicLong();
+    private final AtomicLong mCopiesSpilled = new AtomicLong();
+    private final AtomicLong mCopiesSkipped = new AtomicLong();
+
+    private static final String LOG_TAG = "FloatClipboardCopier";
+
+    public FloatClipboardCopier(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Copy {@code text} to the clipboard in the background.
+     *
+     * @param text The text to copy.
+     * @param maxInlineChars The max number of chars to put on the clipboard directly, larger text
+     *                       is spilled to a file.
+     */
+    public void copy(@NonNull String text, int maxInlineChars) {
+        long generation = mGeneration.incrementAndGet();
+        mExecutor.execute(() -> {
+            if (generation != mGeneration.get()) {
+                mCopiesSkipped.incrementAndGet();
+                return;
+            }
+
+            try {
+                ClipData clipData;
+                if (text.length() <= maxInlineChars) {
+                    clipData = new ClipData(null, new String[]{ClipDescription.MIMETYPE_TEXT_PLAIN}, new ClipData.Item(text));
+                    mCopiesInline.incrementAndGet();
+                } else {
+                    Uri uri = spill(text, generation);
+                    if (uri == null) return;
+                    clipData = new ClipData(null, new String[]{ClipDescription.MIMETYPE_TEXT_PLAIN}, new ClipData.Item(uri));
+                    mCopiesSpilled.incrementAndGet();
+                    Logger.logDebug(LOG_TAG, "Spilled copy of " + text.length() + " chars to " + uri);
+                }
+
+                ClipboardManager clipboard = (ClipboardManager) mContext.getSystemService(Context.CLIPBOARD_SERVICE);
+                clipboard.setPrimaryClip(clipData);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to copy text to clipboard", e);
+            }
+        });
+    }
+
+    /**
+     * Write {@code text} to a new spill file, delete the older spill files and return its uri.
+     *
+     * @return Returns the uri of the spill file, or {@code null} if the spill directory could not be created.
+     */
+    @Nullable
+    private Uri spill(@NonNull String text, long generation) throws IOException {
+        File directory = FloatClipboardProvider.getSpillDirectory(mContext);
+        Error error = FileUtils.createDirectoryFile("clipboard spill directory", directory.getAbsolutePath());
+        if (error != null) {
+            Logger.logErrorExtended(LOG_TAG, error.getErrorLogString());
+            return null;
+        }
+
+        File file = new File(directory, SPILL_FILE_PREFIX + generation + "-" + System.currentTimeMillis() + SPILL_FILE_SUFFIX);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+
+        // The previous copy is no longer on the clipboard once this one is set
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File oldFile : files) {
+                if (!oldFile.equals(file) && oldFile.getName().startsWith(SPILL_FILE_PREFIX))
+                    oldFile.delete();
+            }
+        }
+
+        return FloatClipboardProvider.getUriForFile(mContext, file);
+    }
+
+    /** Stop the worker thread after pending copies are done. */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+
+
+    public long getCopiesInline() {
+        return mCopiesInline.get();
+    }
+
+    public long getCopiesSpilled() {
+        return mCopiesSpilled.get();
+    }
+
+    public long getCopiesSkipped() {
+        return mCopiesSkipped.get();
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.termux.window;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Serves the text of large clipboard copies spilled to files by {@link FloatClipboardCopier}, so
+ * that only a content uri has to be put on the clipboard. The provider is not exported, read access
+ * is granted by the clipboard to the app that pastes the uri.
+ */
+public class FloatClipboardProvider extends ContentProvider {
+
+    /** The directory in the app cache directory where the spilled copies are stored. */
+    public static final String SPILL_DIRECTORY_NAME = "clipboard";
+
+    public static final String MIME_TYPE = "text/plain";
+
+    /** Get the authority of the provider. */
+    public static String getAuthority(@NonNull Context context) {
+        return context.getPackageName() + ".clipboard";
+    }
+
+    /** Get the directory where the spilled copies are stored. */
+    public static File getSpillDirectory(@NonNull Context context) {
+        return new File(context.getCacheDir(), SPILL_DIRECTORY_NAME);
+    }
+
+    /** Get the content uri for a spilled copy file. */
+    public static Uri getUriForFile(@NonNull Context context, @NonNull File file) {
+        return new Uri.Builder().scheme("content").authority(getAuthority(context))
+            .appendPath(file.getName()).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    private File getFileForUri(@NonNull Uri uri) {
+        Context context = getContext();
+        String name = uri.getLastPathSegment();
+        // Only serve files directly inside the spill directory
+        if (context == null || name == null || name.contains("/") || name.startsWith(".")) return null;
+
+        File file = new File(getSpillDirectory(context), name);
+        return file.isFile() ? file : null;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("Only read access is supported for " + uri);
+
+        File file = getFileForUri(uri);
+        if (file == null)
+            throw new FileNotFoundException("No clipboard file for " + uri);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        File file = getFileForUri(uri);
+        if (file == null) return null;
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, 1);
+        cursor.addRow(new Object[]{file.getName(), file.length()});
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+}
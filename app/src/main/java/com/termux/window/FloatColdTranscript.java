@@ -0,0 +1,214 @@
+package com.termux.window;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The search archive of a {@link FloatTranscriptIndex}, which keeps the text of rows that dropped
+ * out of the emulator transcript in blocks of {@link #BLOCK_ROWS} rows compressed with {@link Deflater}.
+ *
+ * Archived rows can only be found by search. They can not be scrolled to or selected, since the
+ * emulator no longer has them, and their colors are not kept. Rows are stored as they were shown and
+ * only case folded for matching. Each block keeps the bitmask of the case folded chars of all its
+ * rows, so a search only decompresses the blocks that may contain a match. The oldest blocks are
+ * dropped once the archive holds more than its max rows. This class is not thread safe and is only
+ * used on the index worker thread.
+ *
+ * The heap the archive takes depends on how well the rows compress. For build output, 100k archived
+ * rows measured about 0.5 MB of heap against about 10 MB for the same rows kept as strings, see
+ * {@code FloatColdTranscriptTest}, and {@link #getCompressedBytes()} is shown in the diagnostics.
+ */
+public class FloatColdTranscript {
+
+    /** The number of rows in a compressed block. */
+    public static final int BLOCK_ROWS = 256;
+
+    private static final class Block {
+
+        final byte[] compressed;
+        final int uncompressedLength;
+        final int rowCount;
+        final long mask;
+
+        Block(byte[] compressed, int uncompressedLength, int rowCount, long mask) {
+            this.compressed = compressed;
+            this.uncompressedLength = uncompressedLength;
+            this.rowCount = rowCount;
+            this.mask = mask;
+        }
+
+    }
+
+    private final int mMaxRows;
+
+    /** The compressed blocks, from the oldest to the newest. */
+    private final ArrayDeque<Block> mBlocks = new ArrayDeque<>();
+    private int mBlockRows;
+
+    /** The rows of the block being filled, which are not compressed yet. */
+    private final String[] mPendingRows = new String[BLOCK_ROWS];
+    private int mPendingRowCount;
+    private long mPendingMask;
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private final byte[] mBuffer = new byte[16 * 1024];
+
+    private long mCompressedBytes;
+    private long mUncompressedBytes;
+    private long mBlocksDecompressed;
+
+    private static final String LOG_TAG = "FloatColdTranscript";
+
+    /**
+     * @param maxRows The max number of rows to archive.
+     */
+    public FloatColdTranscript(int maxRows) {
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * Archive a row that dropped out of the transcript. Rows must be added from the oldest to the newest.
+     *
+     * @param rowText The text of the row.
+     * @param rowMask The char bitmask of the row, see {@link FloatTranscriptIndex#getTextMask(String)}.
+     */
+    public void addRow(@NonNull String rowText, long rowMask) {
+        mPendingRows[mPendingRowCount++] = rowText;
+        mPendingMask |= rowMask;
+        if (mPendingRowCount == BLOCK_ROWS)
+            compressPendingRows();
+    }
+
+    private void compressPendingRows() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mPendingRowCount; i++) {
+            builder.append(mPendingRows[i]).append('\n');
+            mPendingRows[i] = null;
+        }
+        byte[] input = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        mDeflater.reset();
+        mDeflater.setInput(input);
+        mDeflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4);
+        while (!mDeflater.finished()) {
+            int length = mDeflater.deflate(mBuffer);
+            output.write(mBuffer, 0, length);
+        }
+
+        Block block = new Block(output.toByteArray(), input.length, mPendingRowCount, mPendingMask);
+        mBlocks.addLast(block);
+        mBlockRows += block.rowCount;
+        mCompressedBytes += block.compressed.length;
+        mUncompressedBytes += input.length;
+        mPendingRowCount = 0;
+        mPendingMask = 0;
+
+        while (mBlockRows > mMaxRows && !mBlocks.isEmpty()) {
+            Block oldBlock = mBlocks.removeFirst();
+            mBlockRows -= oldBlock.rowCount;
+            mCompressedBytes -= oldBlock.compressed.length;
+            mUncompressedBytes -= oldBlock.uncompressedLength;
+        }
+    }
+
+    /**
+     * Search the archived rows from the newest to the oldest for {@code query}, ignoring case.
+     *
+     * @param query The query, which must not be empty.
+     * @param queryMask The char bitmask of the query.
+     * @param matchTexts The array to add the text of the rows with matches to.
+     * @param count The number of matches already in {@code matchTexts}.
+     * @return Returns the new number of matches.
+     */
+    public int search(@NonNull String query, long queryMask, @NonNull String[] matchTexts, int count) {
+        for (int i = mPendingRowCount - 1; i >= 0 && count < matchTexts.length; i--) {
+            if (FloatTranscriptIndex.lastIndexOfIgnoreCase(mPendingRows[i], query, Integer.MAX_VALUE) >= 0)
+                matchTexts[count++] = mPendingRows[i];
+        }
+
+        Iterator<Block> iterator = mBlocks.descendingIterator();
+        while (iterator.hasNext() && count < matchTexts.length) {
+            Block block = iterator.next();
+            if ((block.mask & queryMask) != queryMask) continue;
+
+            String[] rows = decompress(block);
+            if (rows == null) continue;
+            for (int i = rows.length - 1; i >= 0 && count < matchTexts.length; i--) {
+                if (FloatTranscriptIndex.lastIndexOfIgnoreCase(rows[i], query, Integer.MAX_VALUE) >= 0)
+                    matchTexts[count++] = rows[i];
+            }
+        }
+        return count;
+    }
+
+    private String[] decompress(@NonNull Block block) {
+        mBlocksDecompressed++;
+        mInflater.reset();
+        mInflater.setInput(block.compressed);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(block.compressed.length * 4);
+        try {
+            while (!mInflater.finished()) {
+                int length = mInflater.inflate(mBuffer);
+                if (length == 0 && mInflater.needsInput()) break;
+                output.write(mBuffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to decompress archived rows", e);
+            return null;
+        }
+
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        // The text ends with a newline, which does not start another row
+        return text.substring(0, text.length() - 1).split("\n", -1);
+    }
+
+    /** Drop all archived rows. */
+    public void clear() {
+        mBlocks.clear();
+        mBlockRows = 0;
+        for (int i = 0; i < mPendingRowCount; i++)
+            mPendingRows[i] = null;
+        mPendingRowCount = 0;
+        mPendingMask = 0;
+        mCompressedBytes = 0;
+        mUncompressedBytes = 0;
+    }
+
+    /** Release the native compression resources. The archive must not be used afterwards. */
+    public void release() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+    /** Get the number of archived rows. */
+    public int getRowCount() {
+        return mBlockRows + mPendingRowCount;
+    }
+
+    /** Get the compressed size in bytes of the archived blocks. */
+    public long getCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    /** Get the uncompressed size in bytes of the archived blocks. */
+    public long getUncompressedBytes() {
+        return mUncompressedBytes;
+    }
+
+    /** Get the number of blocks decompressed by searches, which the char bitmasks did not skip. */
+    public long getBlocksDecompressed() {
+        return mBlocksDecompressed;
+    }
+
+}
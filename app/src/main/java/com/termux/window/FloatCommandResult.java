@@ -0,0 +1,115 @@
+package com.termux.window;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
+
+import java.util.regex.Pattern;
+
+/**
+ * Sends the result of a command run with {@link TermuxFloatService#ACTION_RUN_COMMAND} to the
+ * {@link PendingIntent} passed with it.
+ *
+ * The result uses the same {@link TERMUX_SERVICE#EXTRA_PLUGIN_RESULT_BUNDLE} bundle as the
+ * {@code RUN_COMMAND} intent of the {@code Termux} app, so callers can handle both the same way.
+ * The command runs in a terminal, so stdout and stderr are not separate and the trailing output of
+ * the terminal is sent as stdout.
+ */
+public class FloatCommandResult {
+
+    /** The max number of trailing output chars sent, which keeps the result well below the binder transaction limit. */
+    public static final int MAX_OUTPUT_CHARS = 64 * 1024;
+
+    /**
+     * The line {@link TerminalSession} writes to the terminal once its process exited, which is not
+     * output of the command.
+     */
+    private static final Pattern PROCESS_COMPLETED_TRAILER = Pattern.compile("\\s*\\[Process completed(?: \\((?:code|signal) -?\\d+\\))? - press Enter]\\s*$");
+
+    private static final String LOG_TAG = "FloatCommandResult";
+
+    private FloatCommandResult() {}
+
+    /**
+     * Send the result of the finished {@code terminalSession}, or an error result if it is still
+     * running, like when its tab was closed before the command finished.
+     */
+    public static void send(@NonNull Context context, @NonNull PendingIntent pendingIntent,
+                            @Nullable TerminalSession terminalSession) {
+        if (terminalSession == null || terminalSession.isRunning()) {
+            sendError(context, pendingIntent, context.getString(R.string.error_run_command_not_finished));
+            return;
+        }
+
+        send(context, pendingIntent, getTrailingOutput(terminalSession), terminalSession.getExitStatus(),
+            Activity.RESULT_OK, null);
+    }
+
+    /** Send an error result, like when the command could not be started. */
+    public static void sendError(@NonNull Context context, @NonNull PendingIntent pendingIntent, @NonNull String errmsg) {
+        send(context, pendingIntent, "", null, Activity.RESULT_CANCELED, errmsg);
+    }
+
+    private static void send(@NonNull Context context, @NonNull PendingIntent pendingIntent, @NonNull String stdout,
+                             @Nullable Integer exitCode, int err, @Nullable String errmsg) {
+        Bundle resultBundle = new Bundle();
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT, stdout);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR, "");
+        if (exitCode != null)
+            resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE, exitCode);
+        resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR, err);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, errmsg != null ? errmsg : "");
+
+        Intent resultIntent = new Intent();
+        resultIntent.putExtra(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE, resultBundle);
+
+        try {
+            pendingIntent.send(context, Activity.RESULT_OK, resultIntent);
+            Logger.logDebug(LOG_TAG, "Sent run command result with exit code " + exitCode + " and " + stdout.length() + " output chars");
+        } catch (PendingIntent.CanceledException e) {
+            // The caller no longer wants the result
+            Logger.logDebug(LOG_TAG, "The run command result pending intent was cancelled");
+        }
+    }
+
+    /** Get the last {@link #MAX_OUTPUT_CHARS} chars of the transcript and screen of {@code terminalSession}. */
+    @NonNull
+    private static String getTrailingOutput(@NonNull TerminalSession terminalSession) {
+        TerminalEmulator emulator = terminalSession.getEmulator();
+        if (emulator == null) return "";
+
+        String output = stripProcessCompletedTrailer(emulator.getScreen().getTranscriptText());
+        if (output.length() > MAX_OUTPUT_CHARS) {
+            int start = output.length() - MAX_OUTPUT_CHARS;
+            // Do not start with the low half of a surrogate pair
+            if (Character.isLowSurrogate(output.charAt(start))) start++;
+            output = output.substring(start);
+        }
+        return output;
+    }
+
+    /**
+     * Strip the trailing empty rows and the line {@link TerminalSession} writes once its process
+     * exited from {@code output}.
+     */
+    @NonNull
+    static String stripProcessCompletedTrailer(@NonNull String output) {
+        output = PROCESS_COMPLETED_TRAILER.matcher(output).replaceFirst("");
+        // The rows below the last output are empty
+        int end = output.length();
+        while (end > 0 && Character.isWhitespace(output.charAt(end - 1)))
+            end--;
+        return output.substring(0, end);
+    }
+
+}
@@ -0,0 +1,301 @@
+package com.termux.window;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collects the state and counters of a running float window for {@link TermuxFloatService#dump},
+ * so that {@code dumpsys activity service com.termux.window/.TermuxFloatService} can be used to
+ * inspect it, with {@code --json} for a machine readable variant.
+ *
+ * The state is only changed on the main thread, so it is collected there, while {@code dump()}
+ * is called on a binder thread.
+ */
+public class FloatDiagnostics {
+
+    /** The max time to wait for the main thread to collect the diagnostics. */
+    private static final long COLLECT_TIMEOUT_MILLIS = 5000;
+
+    private static final String LOG_TAG = "FloatDiagnostics";
+
+    private FloatDiagnostics() {}
+
+    /**
+     * Collect the diagnostics of {@code service} on the main thread and wait for them.
+     *
+     * @return Returns the diagnostics, or {@code null} if the main thread did not collect them in time.
+     */
+    @Nullable
+    public static JSONObject collectOnMainThread(@NonNull TermuxFloatService service) {
+        if (Looper.myLooper() == Looper.getMainLooper())
+            return collect(service);
+
+        AtomicReference<JSONObject> result = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(() -> {
+            result.set(collect(service));
+            latch.countDown();
+        });
+
+        try {
+            if (!latch.await(COLLECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return result.get();
+    }
+
+    /** Collect the diagnostics of {@code service}. Must be called on the main thread. */
+    @NonNull
+    public static JSONObject collect(@NonNull TermuxFloatService service) {
+        JSONObject diagnostics = new JSONObject();
+        try {
+            TermuxFloatView floatView = service.getFloatingWindow();
+            TermuxFloatSessionClient sessionClient = floatView != null ? floatView.getTermuxFloatSessionClient() : null;
+
+            JSONObject serviceJson = new JSONObject();
+            serviceJson.put("window_visible", floatView != null && floatView.isVisible());
+            serviceJson.put("window_minimized", floatView != null && floatView.getFloatingBubbleManager() != null && floatView.isMinimized());
+            serviceJson.put("session_tabs", service.getSessionTabs().size());
+            serviceJson.put("current_session_index", service.getCurrentSessionIndex());
+            diagnostics.put("service", serviceJson);
+
+            diagnostics.put("sessions", collectSessions(service));
+
+            if (sessionClient != null) {
+                FloatRedrawScheduler redrawScheduler = sessionClient.getRedrawScheduler();
+                JSONObject redraw = new JSONObject();
+                // The session output is not seen as bytes, so the text change notifications stand in for it
+                redraw.put("output_notifications", redrawScheduler.getNotificationsReceived());
+                redraw.put("frames_drawn", redrawScheduler.getFramesDrawn());
+                redraw.put("frames_deferred", redrawScheduler.getFramesDeferred());
+                redraw.put("frames_throttled", redrawScheduler.getFramesThrottled());
+                redraw.put("draws_over_budget", redrawScheduler.getDrawsOverBudget());
+                redraw.put("last_draw_us", redrawScheduler.getLastDrawNanos() / 1000L);
+                redraw.put("paused", redrawScheduler.isPaused());
+                redraw.put("min_redraw_interval_ms", redrawScheduler.getMinRedrawIntervalNanos() / 1_000_000L);
+                redraw.put("last_input_echo_latency_ms", sessionClient.getLastInputEchoLatencyNanos() < 0 ? -1 :
+                    sessionClient.getLastInputEchoLatencyNanos() / 1_000_000L);
+                diagnostics.put("redraw", redraw);
+
+                FloatBellScheduler bellScheduler = sessionClient.getBellScheduler();
+                JSONObject bell = new JSONObject();
+                bell.put("received", bellScheduler.getBellsReceived());
+                bell.put("rung", bellScheduler.getBellsRung());
+                bell.put("collapsed", bellScheduler.getBellsCollapsed());
+                bell.put("dropped", bellScheduler.getBellsDropped());
+                diagnostics.put("bell", bell);
+
+                FloatPasteEngine pasteEngine = sessionClient.getPasteEngine();
+                JSONObject paste = new JSONObject();
+                paste.put("pasting", pasteEngine.isPasting());
+                paste.put("started", pasteEngine.getPastesStarted());
+                paste.put("cancelled", pasteEngine.getPastesCancelled());
+                paste.put("refused", pasteEngine.getPastesRefused());
+                paste.put("chunks_written", pasteEngine.getChunksWritten());
+                diagnostics.put("paste", paste);
+
+                FloatStylingCache stylingCache = sessionClient.getStylingCache();
+                JSONObject styling = new JSONObject();
+                styling.put("hits", stylingCache.getHitCount());
+                styling.put("misses", stylingCache.getMissCount());
+                styling.put("last_load_ms", stylingCache.getLastLoadTimeMillis());
+                styling.put("total_load_ms", stylingCache.getTotalLoadTimeMillis());
+                diagnostics.put("styling_cache", styling);
+            }
+
+            if (floatView != null)
+                diagnostics.put("window", collectWindow(floatView));
+
+            FloatClipboardCopier clipboardCopier = service.getClipboardCopierIfCreated();
+            if (clipboardCopier != null) {
+                JSONObject clipboard = new JSONObject();
+                clipboard.put("copies_inline", clipboardCopier.getCopiesInline());
+                clipboard.put("copies_spilled", clipboardCopier.getCopiesSpilled());
+                clipboard.put("copies_skipped", clipboardCopier.getCopiesSkipped());
+                diagnostics.put("clipboard", clipboard);
+            }
+
+            FloatMemoryTrimmer memoryTrimmer = service.getMemoryTrimmer();
+            JSONObject memory = new JSONObject();
+            Runtime runtime = Runtime.getRuntime();
+            memory.put("heap_used_bytes", runtime.totalMemory() - runtime.freeMemory());
+            memory.put("heap_max_bytes", runtime.maxMemory());
+            memory.put("trim_count", memoryTrimmer.getTrimCount());
+            memory.put("last_trim_level", memoryTrimmer.getLastTrimLevel());
+            memory.put("bell_sound_pool_releases", memoryTrimmer.getBellSoundPoolReleases());
+            memory.put("bubble_thumbnail_releases", memoryTrimmer.getBubbleThumbnailReleases());
+            memory.put("transcript_index_releases", memoryTrimmer.getTranscriptIndexReleases());
+            memory.put("transcript_archive_releases", memoryTrimmer.getTranscriptArchiveReleases());
+            diagnostics.put("memory", memory);
+
+            FloatSessionSnapshot sessionSnapshot = service.getSessionSnapshot();
+            if (sessionSnapshot != null) {
+                JSONObject snapshot = new JSONObject();
+                snapshot.put("enabled", sessionSnapshot.isEnabled());
+                snapshot.put("full_writes", sessionSnapshot.getFullWriteCount());
+                snapshot.put("appends", sessionSnapshot.getAppendCount());
+                snapshot.put("backfill_slices", sessionSnapshot.getBackfillSlices());
+                snapshot.put("compactions", sessionSnapshot.getCompactionCount());
+                snapshot.put("bytes_written", sessionSnapshot.getBytesWritten());
+                snapshot.put("write_failures", sessionSnapshot.getWriteFailures());
+                snapshot.put("restored_rows", sessionSnapshot.getRestoredRows());
+                snapshot.put("last_restore_ms", sessionSnapshot.getLastRestoreMillis());
+                diagnostics.put("session_snapshot", snapshot);
+            }
+
+            FloatSessionRecorder sessionRecorder = service.getSessionRecorder();
+            if (sessionRecorder != null) {
+                JSONObject recorder = new JSONObject();
+                recorder.put("file", sessionRecorder.getFile().getAbsolutePath());
+                recorder.put("events_queued", sessionRecorder.getEventsQueued());
+                recorder.put("events_dropped", sessionRecorder.getEventsDropped());
+                recorder.put("chars_dropped", sessionRecorder.getCharsDropped());
+                recorder.put("events_written", sessionRecorder.getEventsWritten());
+                recorder.put("chars_written", sessionRecorder.getCharsWritten());
+                recorder.put("batches_written", sessionRecorder.getBatchesWritten());
+                diagnostics.put("session_recorder", recorder);
+            }
+
+            JSONObject startupTimings = new JSONObject();
+            for (Map.Entry<String, Long> entry : service.getStartupTimings().getTimings().entrySet())
+                startupTimings.put(entry.getKey() + "_ms", entry.getValue());
+            startupTimings.put("allocated_bytes", service.getStartupTimings().getAllocatedBytes());
+            diagnostics.put("startup_timings", startupTimings);
+        } catch (JSONException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to collect diagnostics", e);
+        }
+        return diagnostics;
+    }
+
+    @NonNull
+    private static JSONArray collectSessions(@NonNull TermuxFloatService service) throws JSONException {
+        JSONArray sessions = new JSONArray();
+        for (int i = 0; i < service.getSessionTabs().size(); i++) {
+            TermuxFloatSessionTab sessionTab = service.getSessionTabs().get(i);
+            JSONObject session = new JSONObject();
+            session.put("index", i);
+            session.put("spawned", sessionTab.isSpawned());
+
+            TerminalSession terminalSession = sessionTab.getTerminalSession();
+            if (terminalSession != null) {
+                session.put("pid", terminalSession.getPid());
+                session.put("running", terminalSession.isRunning());
+                if (!terminalSession.isRunning())
+                    session.put("exit_status", terminalSession.getExitStatus());
+                session.put("title", terminalSession.getTitle() != null ? terminalSession.getTitle() : "");
+
+                TerminalEmulator emulator = terminalSession.getEmulator();
+                if (emulator != null) {
+                    session.put("columns", emulator.mColumns);
+                    session.put("rows", emulator.mRows);
+                    session.put("transcript_rows_in_use", emulator.getScreen().getActiveTranscriptRows());
+                }
+            }
+
+            FloatTranscriptIndex transcriptIndex = sessionTab.getTranscriptIndex();
+            if (transcriptIndex != null) {
+                JSONObject index = new JSONObject();
+                index.put("rows_indexed", transcriptIndex.getRowsIndexed());
+                index.put("rebuilds", transcriptIndex.getRebuildCount());
+                index.put("last_search_us", transcriptIndex.getLastSearchNanos() / 1000);
+                FloatColdTranscript coldTranscript = transcriptIndex.getColdTranscript();
+                if (coldTranscript != null) {
+                    index.put("archived_rows", coldTranscript.getRowCount());
+                    index.put("archive_compressed_bytes", coldTranscript.getCompressedBytes());
+                    index.put("archive_uncompressed_bytes", coldTranscript.getUncompressedBytes());
+                    index.put("archive_blocks_decompressed", coldTranscript.getBlocksDecompressed());
+                }
+                session.put("transcript_index", index);
+            }
+
+            sessions.put(session);
+        }
+        return sessions;
+    }
+
+    @NonNull
+    private static JSONObject collectWindow(@NonNull TermuxFloatView floatView) throws JSONException {
+        JSONObject window = new JSONObject();
+
+        FloatWindowGeometry geometry = floatView.getGeometry();
+        if (geometry != null) {
+            window.put("x", geometry.getX());
+            window.put("y", geometry.getY());
+            window.put("width", geometry.getWidth());
+            window.put("height", geometry.getHeight());
+            window.put("geometry_updates", geometry.getUpdateCount());
+            window.put("geometry_preference_writes", geometry.getPreferenceWriteCount());
+        }
+
+        FloatWindowLayoutUpdater layoutUpdater = floatView.getWindowLayoutUpdater();
+        window.put("relayout_requests", layoutUpdater.getRequestCount());
+        window.put("relayouts", layoutUpdater.getRelayoutCount());
+        window.put("last_gesture_relayouts", layoutUpdater.getLastGestureRelayoutCount());
+
+        FloatWindowGestures windowGestures = floatView.getWindowGestures();
+        window.put("gestures", windowGestures.getGestureCount());
+        window.put("last_gesture_preference_writes", windowGestures.getLastGesturePreferenceWriteCount());
+        window.put("last_gesture_soft_keyboard_requests", windowGestures.getLastGestureSoftKeyboardRequestCount());
+        window.put("soft_keyboard_requests", windowGestures.getSoftKeyboardRequestCount());
+
+        FloatingBubbleManager bubbleManager = floatView.getFloatingBubbleManager();
+        if (bubbleManager != null && bubbleManager.getBubbleRenderer() != null)
+            window.put("bubble_renders", bubbleManager.getBubbleRenderer().getRenderCount());
+
+        return window;
+    }
+
+    /** Format {@code diagnostics} as indented {@code key: value} lines for humans. */
+    @NonNull
+    public static String format(@NonNull JSONObject diagnostics) {
+        StringBuilder builder = new StringBuilder();
+        formatObject(builder, diagnostics, "");
+        return builder.toString();
+    }
+
+    private static void formatObject(@NonNull StringBuilder builder, @NonNull JSONObject object, @NonNull String indent) {
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = object.opt(key);
+            if (value instanceof JSONObject) {
+                builder.append(indent).append(key).append(":\n");
+                formatObject(builder, (JSONObject) value, indent + "  ");
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                builder.append(indent).append(key).append(":\n");
+                for (int i = 0; i < array.length(); i++) {
+                    Object element = array.opt(i);
+                    if (element instanceof JSONObject) {
+                        builder.append(indent).append("  [").append(i).append("]\n");
+                        formatObject(builder, (JSONObject) element, indent + "    ");
+                    } else {
+                        builder.append(indent).append("  [").append(i).append("] ").append(element).append('\n');
+                    }
+                }
+            } else {
+                builder.append(indent).append(key).append(": ").append(value).append('\n');
+            }
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.termux.window;
+
+import android.view.KeyEvent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.KeyHandler;
+import com.termux.terminal.TerminalEmulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The key map of the volume up "Fn" key layer, compiled to a lookup table indexed by the lower case
+ * ASCII code point of the pressed key.
+ *
+ * The byte sequences to write to the session are encoded when the map is compiled, once for each
+ * combination of the emulator cursor keys and keypad application modes, into immutable
+ * {@link Translation} results, so translating a key does not allocate and the map can be shared
+ * between threads once compiled.
+ *
+ * The map is compiled from the {@link #DEFAULT_FN_KEYS} and the user mappings of the
+ * {@code fn-keys} property, which override the defaults. A mapping is in the format
+ * {@code <key>:<target>} and mappings are separated with commas. The key is a single ASCII
+ * character and the target is one of:
+ * - An android key code name without the {@code KEYCODE_} prefix, like {@code DPAD_UP} or {@code F1}.
+ * - One of the aliases {@code up}, {@code down}, {@code left}, {@code right}, {@code pgup},
+ *   {@code pgdn} or {@code esc}.
+ * - A single character or a {@code 0x} prefixed code point to input.
+ * - {@code alt+<character>} to input a character with alt.
+ * - {@code volume} to show the volume control.
+ * - {@code none} to remove the default mapping of the key.
+ */
+public class FloatFnKeyMap {
+
+    /** The default mappings, which match the Fn key layer of the Termux app. */
+    public static final String DEFAULT_FN_KEYS = "w:up,a:left,s:down,d:right,p:pgup,n:pgdn," +
+        "t:TAB,i:INSERT,h:~,u:_,l:|," +
+        "1:F1,2:F2,3:F3,4:F4,5:F5,6:F6,7:F7,8:F8,9:F9,0:F10," +
+        "e:esc,.:0x1c,b:alt+b,f:alt+f,x:alt+x,v:volume";
+
+    /** The {@link Translation#action} of keys that are not mapped. */
+    public static final int ACTION_NONE = 0;
+    /** The {@link Translation#action} of keys mapped to a byte sequence. */
+    public static final int ACTION_WRITE = 1;
+    /** The {@link Translation#action} of keys mapped to the volume control. */
+    public static final int ACTION_VOLUME = 2;
+
+    /** The result of {@link #translate(int, TerminalEmulator)}, which is compiled once and never changes. */
+    public static final class Translation {
+
+        /** The translation of keys that are not mapped. */
+        public static final Translation NONE = new Translation(ACTION_NONE, null);
+        /** The translation of keys mapped to the volume control. */
+        public static final Translation VOLUME = new Translation(ACTION_VOLUME, null);
+
+        /** The {@link #ACTION_NONE}, {@link #ACTION_WRITE} or {@link #ACTION_VOLUME} action. */
+        public final int action;
+        /** The bytes to write for {@link #ACTION_WRITE}, which must not be modified, or {@code null}. */
+        @Nullable public final byte[] bytes;
+
+        Translation(int action, @Nullable byte[] bytes) {
+            this.action = action;
+            this.bytes = bytes;
+        }
+
+    }
+
+    private static final int TABLE_SIZE = 128;
+    private static final int MODE_CURSOR_APPLICATION = 1;
+    private static final int MODE_KEYPAD_APPLICATION = 1 << 1;
+    private static final int MODES_COUNT = 4;
+
+    /** The translation for each key and emulator mode, or {@code null} for keys that are not mapped. */
+    private final Translation[][] mTranslations = new Translation[TABLE_SIZE][];
+
+    private static final String LOG_TAG = "FloatFnKeyMap";
+
+    /**
+     * Compile the key map from the {@link #DEFAULT_FN_KEYS} and the {@code userFnKeys} mappings.
+     *
+     * @param userFnKeys The user mappings, or {@code null} for only the defaults.
+     */
+    public FloatFnKeyMap(@Nullable String userFnKeys) {
+        compile(DEFAULT_FN_KEYS);
+        if (userFnKeys != null && !userFnKeys.trim().isEmpty())
+            compile(userFnKeys);
+    }
+
+    /**
+     * Translate a code point pressed with the Fn key. Does not allocate.
+     *
+     * @param codePoint The code point pressed.
+     * @param emulator The emulator to get the application modes from.
+     * @return Returns the translation of the key, which is {@link Translation#NONE} if it is not mapped.
+     */
+    @NonNull
+    public Translation translate(int codePoint, @Nullable TerminalEmulator emulator) {
+        int key = Character.toLowerCase(codePoint);
+        if (key < 0 || key >= TABLE_SIZE || mTranslations[key] == null) return Translation.NONE;
+
+        int mode = 0;
+        if (emulator != null) {
+            if (emulator.isCursorKeysApplicationMode()) mode |= MODE_CURSOR_APPLICATION;
+            if (emulator.isKeypadApplicationMode()) mode |= MODE_KEYPAD_APPLICATION;
+        }
+        return mTranslations[key][mode];
+    }
+
+    private void compile(@NonNull String fnKeys) {
+        for (String mapping : fnKeys.split(",")) {
+            mapping = mapping.trim();
+            if (mapping.isEmpty()) continue;
+
+            // The separator is searched from index 1 so that ':' can be mapped, but ',' can never be
+            // a key since it separates the mappings
+            int separatorIndex = mapping.indexOf(':', 1);
+            if (separatorIndex != 1 || mapping.length() < 3) {
+                Logger.logWarn(LOG_TAG, "Ignoring invalid fn key mapping \"" + mapping + "\"");
+                continue;
+            }
+
+            int key = Character.toLowerCase(mapping.charAt(0));
+            String target = mapping.substring(2).trim();
+            if (key >= TABLE_SIZE || !compileTarget(key, target))
+                Logger.logWarn(LOG_TAG, "Ignoring invalid fn key mapping \"" + mapping + "\"");
+        }
+    }
+
+    private boolean compileTarget(int key, @NonNull String target) {
+        String lowerTarget = target.toLowerCase(Locale.ROOT);
+        switch (lowerTarget) {
+            case "none":
+                mTranslations[key] = null;
+                return true;
+            case "volume":
+                mTranslations[key] = new Translation[MODES_COUNT];
+                Arrays.fill(mTranslations[key], Translation.VOLUME);
+                return true;
+            case "up": return compileKeyCode(key, KeyEvent.KEYCODE_DPAD_UP);
+            case "down": return compileKeyCode(key, KeyEvent.KEYCODE_DPAD_DOWN);
+            case "left": return compileKeyCode(key, KeyEvent.KEYCODE_DPAD_LEFT);
+            case "right": return compileKeyCode(key, KeyEvent.KEYCODE_DPAD_RIGHT);
+            case "pgup": return compileKeyCode(key, KeyEvent.KEYCODE_PAGE_UP);
+            case "pgdn": return compileKeyCode(key, KeyEvent.KEYCODE_PAGE_DOWN);
+            case "esc": return compileCodePoint(key, 27, false);
+        }
+
+        if (lowerTarget.startsWith("alt+") && target.length() == 5)
+            return compileCodePoint(key, target.charAt(4), true);
+        if (target.codePointCount(0, target.length()) == 1)
+            return compileCodePoint(key, target.codePointAt(0), false);
+        if (lowerTarget.startsWith("0x")) {
+            try {
+                return compileCodePoint(key, Integer.parseInt(target.substring(2), 16), false);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        int keyCode = KeyEvent.keyCodeFromString("KEYCODE_" + target.toUpperCase(Locale.ROOT));
+        if (keyCode == KeyEvent.KEYCODE_UNKNOWN) return false;
+        return compileKeyCode(key, keyCode);
+    }
+
+    private boolean compileKeyCode(int key, int keyCode) {
+        Translation[] translations = new Translation[MODES_COUNT];
+        for (int mode = 0; mode < MODES_COUNT; mode++) {
+            String code = KeyHandler.getCode(keyCode, 0, (mode & MODE_CURSOR_APPLICATION) != 0,
+                (mode & MODE_KEYPAD_APPLICATION) != 0);
+            if (code == null) return false;
+            translations[mode] = new Translation(ACTION_WRITE, code.getBytes(StandardCharsets.UTF_8));
+        }
+
+        mTranslations[key] = translations;
+        return true;
+    }
+
+    private boolean compileCodePoint(int key, int codePoint, boolean altDown) {
+        if (!Character.isValidCodePoint(codePoint)) return false;
+
+        String code = (altDown ? "\033" : "") + new String(Character.toChars(codePoint));
+        mTranslations[key] = new Translation[MODES_COUNT];
+        Arrays.fill(mTranslations[key], new Translation(ACTION_WRITE, code.getBytes(StandardCharsets.UTF_8)));
+        return true;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.termux.window;
+
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Posts the frame callbacks of {@link FloatRedrawScheduler} and {@link FloatWindowLayoutUpdater},
+ * which is done with {@link Choreographer} outside of tests.
+ */
+public interface FloatFrameScheduler {
+
+    void postFrameCallback(Choreographer.FrameCallback callback);
+
+    void postFrameCallbackDelayed(Choreographer.FrameCallback callback, long delayMillis);
+
+    void removeFrameCallback(Choreographer.FrameCallback callback);
+
+    /** Get the {@link FloatFrameScheduler} of the {@link Choreographer} of the calling thread. */
+    @NonNull
+    static FloatFrameScheduler forChoreographer() {
+        Choreographer choreographer = Choreographer.getInstance();
+        return new FloatFrameScheduler() {
+            @Override
+            public void postFrameCallback(Choreographer.FrameCallback callback) {
+                choreographer.postFrameCallback(callback);
+            }
+
+            @Override
+            public void postFrameCallbackDelayed(Choreographer.FrameCallback callback, long delayMillis) {
+                choreographer.postFrameCallbackDelayed(callback, delayMillis);
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                choreographer.removeFrameCallback(callback);
+            }
+        };
+    }
+
+}
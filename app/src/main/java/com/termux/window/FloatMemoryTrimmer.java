@@ -0,0 +1,162 @@
+package com.termux.window;
+
+import android.content.ComponentCallbacks2;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+/**
+ * Releases the caches and render resources of the float window in graduated steps when
+ * {@link TermuxFloatService#onTrimMemory(int)} reports memory pressure, so that the overlay and its
+ * shells are less likely to be killed. Everything released is recreated on demand, except the
+ * archived rows of step 3.
+ *
+ * The steps are, from the lowest trim level:
+ * 1. {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_MODERATE}: The bell {@link android.media.SoundPool}
+ *    and the bubble thumbnail.
+ * 2. {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}: The search indexes of the sessions that are
+ *    not current, which are rebuilt from the transcript when search is next used. Indexes with an
+ *    archive are kept, since the archived rows are no longer in the transcript.
+ * 3. {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}: The compressed archives of rows that
+ *    dropped out of the transcripts, which are lost, and then the search indexes of the sessions
+ *    that are not current.
+ *
+ * The colors and font cache is not released, since it only holds the typeface the terminal view
+ * already uses, and reloading it would reset the colors the programs in the sessions have set.
+ *
+ * The levels at or above {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} do not apply to the
+ * foreground float service, except {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE}, which is
+ * handled like {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}, as is {@link #onLowMemory()}.
+ */
+public class FloatMemoryTrimmer {
+
+    private final TermuxFloatService mService;
+
+    private long mTrimCount;
+    private int mLastTrimLevel = -1;
+
+    private long mBellSoundPoolReleases;
+    private long mBubbleThumbnailReleases;
+    private long mTranscriptIndexReleases;
+    private long mTranscriptArchiveReleases;
+
+    private static final String LOG_TAG = "FloatMemoryTrimmer";
+
+    public FloatMemoryTrimmer(@NonNull TermuxFloatService service) {
+        mService = service;
+    }
+
+    /** Should be called from {@link TermuxFloatService#onTrimMemory(int)}. Must be called on the main thread. */
+    public void onTrimMemory(int level) {
+        int step;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            step = 3;
+        else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            step = 2;
+        else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            step = 1;
+        else
+            return;
+
+        mTrimCount++;
+        mLastTrimLevel = level;
+        Logger.logInfo(LOG_TAG, "Trimming memory for level " + level + " up to step " + step);
+        trim(step);
+    }
+
+    /** Should be called from {@link TermuxFloatService#onLowMemory()}. Must be called on the main thread. */
+    public void onLowMemory() {
+        mTrimCount++;
+        mLastTrimLevel = ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+        Logger.logInfo(LOG_TAG, "Trimming memory for low memory");
+        trim(3);
+    }
+
+    private void trim(int step) {
+        TermuxFloatView floatView = mService.getFloatingWindow();
+        TermuxFloatSessionClient sessionClient = floatView != null ? floatView.getTermuxFloatSessionClient() : null;
+
+        if (step >= 1) {
+            if (sessionClient != null && sessionClient.releaseBellSoundPool()) {
+                mBellSoundPoolReleases++;
+                Logger.logDebug(LOG_TAG, "Released the bell sound pool");
+            }
+
+            FloatingBubbleManager bubbleManager = floatView != null ? floatView.getFloatingBubbleManager() : null;
+            if (bubbleManager != null && bubbleManager.releaseThumbnail()) {
+                mBubbleThumbnailReleases++;
+                Logger.logDebug(LOG_TAG, "Released the bubble thumbnail");
+            }
+        }
+
+        if (step >= 2) {
+            // Archives must not be lost before step 3
+            releaseBackgroundTranscriptIndexes(false);
+        }
+
+        if (step >= 3) {
+            int released = 0;
+            for (TermuxFloatSessionTab sessionTab : mService.getSessionTabs()) {
+                if (sessionTab.getTranscriptIndex() != null && sessionTab.getTranscriptIndex().clearArchive())
+                    released++;
+            }
+            if (released > 0) {
+                mTranscriptArchiveReleases += released;
+                Logger.logDebug(LOG_TAG, "Released the transcript archives of " + released + " sessions");
+            }
+
+            releaseBackgroundTranscriptIndexes(true);
+        }
+    }
+
+    /**
+     * Release the search indexes of the sessions that are not current.
+     *
+     * @param withArchive If indexes with an archive should be released as well.
+     */
+    private void releaseBackgroundTranscriptIndexes(boolean withArchive) {
+        int currentSessionIndex = mService.getCurrentSessionIndex();
+        int released = 0;
+        for (int i = 0; i < mService.getSessionTabs().size(); i++) {
+            TermuxFloatSessionTab sessionTab = mService.getSessionTabs().get(i);
+            FloatTranscriptIndex index = sessionTab.getTranscriptIndex();
+            if (i == currentSessionIndex || index == null) continue;
+            if (!withArchive && index.getColdTranscript() != null) continue;
+            index.release();
+            sessionTab.setTranscriptIndex(null);
+            released++;
+        }
+        if (released > 0) {
+            mTranscriptIndexReleases += released;
+            Logger.logDebug(LOG_TAG, "Released the search indexes of " + released + " background sessions");
+        }
+    }
+
+
+
+    public long getTrimCount() {
+        return mTrimCount;
+    }
+
+    public int getLastTrimLevel() {
+        return mLastTrimLevel;
+    }
+
+    public long getBellSoundPoolReleases() {
+        return mBellSoundPoolReleases;
+    }
+
+    public long getBubbleThumbnailReleases() {
+        return mBubbleThumbnailReleases;
+    }
+
+    public long getTranscriptIndexReleases() {
+        return mTranscriptIndexReleases;
+    }
+
+    public long getTranscriptArchiveReleases() {
+        return mTranscriptArchiveReleases;
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.termux.window;
+
+import android.content.ClipData;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Pastes clipboard contents into a {@link TerminalSession} in bounded chunks on a worker thread.
+ *
+ * Small pastes are written on the main thread with {@link TerminalEmulator#paste(String)} like
+ * before. Large pastes are coerced to text and written {@link #CHUNK_CHARS} at a time with
+ * {@link TerminalSession#write(String)}, which blocks while the session input queue is full, so the
+ * paste is throttled to the rate at which the process drains its input instead of buffering the
+ * whole clipboard. Each chunk is sanitized like {@link TerminalEmulator#paste(String)} does. Chunk
+ * boundaries never split a {@code \r\n} pair, which would otherwise be converted to two carriage
+ * returns, or a surrogate pair.
+ *
+ * The bracketed paste mode of the emulator is read once on the main thread when the paste starts,
+ * since only the main thread may access the emulator. If it is enabled, the whole paste is written
+ * as a single bracketed paste, with the end marker written even if the paste is cancelled. The
+ * emulator has no public getter for the mode, so if it can not be read, a large paste that contains
+ * line endings is refused instead of being written unbracketed, where each line would be run as a
+ * command.
+ *
+ * Only one paste runs at a time, on a single worker thread. Starting a new paste or calling
+ * {@link #cancel()} stops the running paste after its current chunk, and a new paste is only started
+ * once the running one has finished writing. Keyboard input must not be written while a paste is
+ * running, see {@link #isPasting()}, but a chunk write blocks for as long as the process does not
+ * read its input, so once a cancel has been requested, see {@link #isCancelRequested()}, input must
+ * be written again so that the user can still interrupt the process.
+ */
+public class FloatPasteEngine {
+
+    /** The max number of chars of a paste written on the main thread, and of a chunk written on the worker thread. */
+    public static final int CHUNK_CHARS = 4096;
+
+    /** The min number of chars of a paste for which progress is reported. */
+    public static final int PROGRESS_THRESHOLD_CHARS = 64 * 1024;
+
+    /** The min interval between two progress reports. */
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+
+    private static final String BRACKETED_PASTE_START = "\033[200~";
+    private static final String BRACKETED_PASTE_END = "\033[201~";
+
+    /** The escape and C1 control chars, which {@link TerminalEmulator#paste(String)} removes. */
+    private static final Pattern UNSAFE_CHARS = Pattern.compile("(\u001B|[\u0080-\u009F])");
+    /** The line endings, which {@link TerminalEmulator#paste(String)} converts to carriage returns. */
+    private static final Pattern LINE_ENDINGS = Pattern.compile("\r?\n");
+
+    /** The bracketed paste mode is disabled. */
+    private static final int BRACKETED_PASTE_MODE_DISABLED = 0;
+    /** The bracketed paste mode is enabled. */
+    private static final int BRACKETED_PASTE_MODE_ENABLED = 1;
+    /** The bracketed paste mode could not be read from the emulator. */
+    private static final int BRACKETED_PASTE_MODE_UNKNOWN = 2;
+
+    /** The emulator method that checks a DECSET flag, or {@code null} if not yet looked up or not found. */
+    private static Method sIsDecsetBitSetMethod;
+    private static int sBracketedPasteModeBit;
+    private static boolean sBracketedPasteModeLookedUp;
+
+    /** The client notified of the progress of large pastes on the main thread. */
+    public interface PasteClient {
+
+        /** Called when {@code pastedChars} of {@code totalChars} of a large paste have been written. */
+        void onPasteProgress(long pastedChars, long totalChars);
+
+        /** Called when a paste for which progress was reported has finished or was cancelled. */
+        void onPasteFinished(boolean cancelled);
+
+        /**
+         * Called when a paste with line endings was refused since the bracketed paste mode of the
+         * emulator could not be read.
+         */
+        void onPasteRefused();
+
+    }
+
+    private final Context mContext;
+    private final PasteClient mClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FloatPaste"));
+
+    /** The currently running paste, which may already be cancelled, or {@code null} if none. */
+    private PasteJob mCurrentJob;
+
+    /** The session and clip data of the paste to start once the running one has finished, or {@code null}. */
+    private TerminalSession mPendingSession;
+    private ClipData mPendingClipData;
+
+    private long mPastesStarted;
+    private long mPastesCancelled;
+    private long mPastesRefused;
+    private long mChunksWritten;
+
+    private static final String LOG_TAG = "FloatPasteEngine";
+
+    public FloatPasteEngine(@NonNull Context context, @NonNull PasteClient client) {
+        mContext = context;
+        mClient = client;
+    }
+
+    /**
+     * Paste the first item of {@code clipData} into {@code session}. Must be called on the main thread.
+     * If a paste is running, it is cancelled and this paste is started once it has finished writing.
+     */
+    public void paste(@NonNull TerminalSession session, @NonNull ClipData clipData) {
+        if (clipData.getItemCount() == 0) return;
+
+        if (mCurrentJob != null) {
+            cancel();
+            mPendingSession = session;
+            mPendingClipData = clipData;
+            return;
+        }
+
+        TerminalEmulator emulator = session.getEmulator();
+        if (emulator == null) return;
+        mPastesStarted++;
+
+        ClipData.Item item = clipData.getItemAt(0);
+        CharSequence text = item.getText();
+        if (text != null && text.length() <= CHUNK_CHARS) {
+            if (text.length() > 0) emulator.paste(text.toString());
+            return;
+        }
+
+        // Coercing an uri or intent item to text may read a stream, so do that on the worker too
+        PasteJob job = new PasteJob(session, item, getBracketedPasteMode(emulator));
+        mCurrentJob = job;
+        mExecutor.execute(job);
+    }
+
+    /** Cancel the running paste and the one waiting for it, if any. The running paste stops after its current chunk. */
+    public void cancel() {
+        mPendingSession = null;
+        mPendingClipData = null;
+        if (mCurrentJob != null)
+            mCurrentJob.mCancelled = true;
+    }
+
+    /**
+     * Stop the worker thread, like when the float window is closed. A chunk write that is blocked
+     * returns once the session is closed. The engine must not be used afterwards.
+     */
+    public void release() {
+        cancel();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Check if a paste is currently being written, including a cancelled one that has not written
+     * its current chunk and bracketed paste end marker yet. Keyboard input written to the session
+     * meanwhile would end up inside the paste.
+     */
+    public boolean isPasting() {
+        return mCurrentJob != null;
+    }
+
+    /** Check if the running paste has been requested to be cancelled but has not finished writing yet. */
+    public boolean isCancelRequested() {
+        return mCurrentJob != null && mCurrentJob.mCancelled;
+    }
+
+    /**
+     * Get the bracketed paste mode of {@code emulator}. Must be called on the main thread. The
+     * emulator has no public getter for the mode, so its own DECSET flag check is called. If that is
+     * not possible, {@link #BRACKETED_PASTE_MODE_UNKNOWN} is returned, so that the caller fails closed.
+     */
+    private static int getBracketedPasteMode(@NonNull TerminalEmulator emulator) {
+        if (!sBracketedPasteModeLookedUp) {
+            sBracketedPasteModeLookedUp = true;
+            try {
+                Field bitField = TerminalEmulator.class.getDeclaredField("DECSET_BIT_BRACKETED_PASTE_MODE");
+                bitField.setAccessible(true);
+                sBracketedPasteModeBit = bitField.getInt(null);
+                Method method = TerminalEmulator.class.getDeclaredMethod("isDecsetInternalBitSet", int.class);
+                method.setAccessible(true);
+                sIsDecsetBitSetMethod = method;
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to find the bracketed paste mode of the emulator", e);
+            }
+        }
+        if (sIsDecsetBitSetMethod == null) return BRACKETED_PASTE_MODE_UNKNOWN;
+
+        try {
+            return (boolean) sIsDecsetBitSetMethod.invoke(emulator, sBracketedPasteModeBit) ?
+                BRACKETED_PASTE_MODE_ENABLED : BRACKETED_PASTE_MODE_DISABLED;
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get the bracketed paste mode of the emulator", e);
+            return BRACKETED_PASTE_MODE_UNKNOWN;
+        }
+    }
+
+    /** Check if {@code text} contains a line ending, which would run a command if not pasted bracketed. */
+    static boolean hasLineEnding(@NonNull CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the escape and C1 control chars from {@code text}, so that it cannot end a bracketed
+     * paste or run terminal commands, and convert its line endings to carriage returns, like
+     * {@link TerminalEmulator#paste(String)} does.
+     */
+    @NonNull
+    static String sanitize(@NonNull CharSequence text) {
+        String sanitized = UNSAFE_CHARS.matcher(text).replaceAll("");
+        return LINE_ENDINGS.matcher(sanitized).replaceAll("\r");
+    }
+
+    /**
+     * Get the end index of the chunk starting at {@code start}, adjusted so that the chunk does not
+     * end between the chars of a {@code \r\n} or surrogate pair.
+     */
+    static int getChunkEnd(@NonNull CharSequence text, int start) {
+        int length = text.length();
+        int end = Math.min(start + CHUNK_CHARS, length);
+        if (end == length) return end;
+
+        if (Character.isHighSurrogate(text.charAt(end - 1)) && Character.isLowSurrogate(text.charAt(end)))
+            end--;
+        else if (text.charAt(end - 1) == '\r' && text.charAt(end) == '\n')
+            end++;
+        return end;
+    }
+
+    private void onJobProgress(PasteJob job, long pastedChars, long totalChars) {
+        mHandler.post(() -> {
+            if (job == mCurrentJob && !job.mCancelled)
+                mClient.onPasteProgress(pastedChars, totalChars);
+        });
+    }
+
+    private void onJobFinished(PasteJob job, boolean reportedProgress, int chunksWritten, boolean refused) {
+        mHandler.post(() -> {
+            mChunksWritten += chunksWritten;
+            if (job.mCancelled) mPastesCancelled++;
+            mCurrentJob = null;
+            if (reportedProgress)
+                mClient.onPasteFinished(job.mCancelled);
+            if (refused) {
+                mPastesRefused++;
+                mClient.onPasteRefused();
+            }
+
+            if (mPendingSession != null) {
+                TerminalSession session = mPendingSession;
+                ClipData clipData = mPendingClipData;
+                mPendingSession = null;
+                mPendingClipData = null;
+                paste(session, clipData);
+            }
+        });
+    }
+
+
+
+    private class PasteJob implements Runnable {
+
+        private final TerminalSession mSession;
+        private final ClipData.Item mItem;
+        /** The bracketed paste mode when the paste was started. */
+        private final int mBracketedPasteMode;
+
+        private volatile boolean mCancelled;
+
+        PasteJob(TerminalSession session, ClipData.Item item, int bracketedPasteMode) {
+            mSession = session;
+            mItem = item;
+            mBracketedPasteMode = bracketedPasteMode;
+        }
+
+        @Override
+        public void run() {
+            boolean reportedProgress = false;
+            int chunksWritten = 0;
+            boolean startWritten = false;
+            boolean refused = false;
+
+            try {
+                CharSequence text = mItem.coerceToText(mContext);
+                int length = text == null ? 0 : text.length();
+                boolean reportProgress = length >= PROGRESS_THRESHOLD_CHARS;
+                long lastProgressTime = 0;
+
+                if (mBracketedPasteMode == BRACKETED_PASTE_MODE_UNKNOWN && length > 0 && hasLineEnding(text)) {
+                    Logger.logError(LOG_TAG, "Refusing to paste " + length + " chars with line endings since the bracketed paste mode is unknown");
+                    refused = true;
+                    length = 0;
+                }
+
+                if (mBracketedPasteMode == BRACKETED_PASTE_MODE_ENABLED && length > 0 && !mCancelled) {
+                    mSession.write(BRACKETED_PASTE_START);
+                    startWritten = true;
+                }
+
+                int start = 0;
+                while (start < length && !mCancelled && mSession.isRunning()) {
+                    int end = getChunkEnd(text, start);
+                    // Blocks while the session input queue is full
+                    mSession.write(sanitize(text.subSequence(start, end)));
+                    chunksWritten++;
+                    start = end;
+
+                    long currentTime = SystemClock.uptimeMillis();
+                    if (reportProgress && currentTime - lastProgressTime >= PROGRESS_INTERVAL_MILLIS) {
+                        lastProgressTime = currentTime;
+                        reportedProgress = true;
+                        onJobProgress(this, start, length);
+                    }
+                }
+
+                if (start < length) {
+                    mCancelled = true;
+                    Logger.logDebug(LOG_TAG, "Paste stopped after " + start + " of " + length + " chars");
+                }
+            } catch (Exception e) {
+                mCancelled = true;
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to paste clipboard contents", e);
+            } finally {
+                // Close the bracketed paste even if it was cancelled, so later input is not part of it
+                if (startWritten)
+                    mSession.write(BRACKETED_PASTE_END);
+            }
+
+            onJobFinished(this, reportedProgress, chunksWritten, refused);
+        }
+
+    }
+
+
+
+    public long getPastesStarted() {
+        return mPastesStarted;
+    }
+
+    public long getPastesCancelled() {
+        return mPastesCancelled;
+    }
+
+    public long getPastesRefused() {
+        return mPastesRefused;
+    }
+
+    public long getChunksWritten() {
+        return mChunksWritten;
+    }
+
+}
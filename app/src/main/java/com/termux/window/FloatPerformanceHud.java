@@ -0,0 +1,119 @@
+package com.termux.window;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Shows the redraw and output rates, the frames skipped, the input to echo latency and the heap
+ * usage of the float window in the window controls, updated once per second.
+ *
+ * The rates are computed from the counters that {@link FloatRedrawScheduler} always keeps, so the
+ * HUD only costs something while it is shown. The input to echo latency is the time from a key
+ * being sent to the session until its next text change, and is only tracked by
+ * {@link TermuxFloatSessionClient} while the HUD is shown. The session output is never seen as
+ * bytes by the session client, so its rate is shown as text change notifications per second.
+ */
+public class FloatPerformanceHud {
+
+    private static final long UPDATE_INTERVAL_MILLIS = 1000;
+
+    private final TermuxFloatView mView;
+    private final TextView mHudView;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdateRunnable = this::update;
+
+    private boolean mShown;
+
+    private long mLastUpdateTime;
+    private long mLastFramesDrawn;
+    private long mLastNotificationsReceived;
+    private long mLastFramesSkipped;
+
+    public FloatPerformanceHud(@NonNull TermuxFloatView view, @NonNull TextView hudView) {
+        mView = view;
+        mHudView = hudView;
+    }
+
+    public void toggle() {
+        if (mShown) {
+            hide();
+        } else {
+            show();
+        }
+    }
+
+    public void show() {
+        if (mShown) return;
+        mShown = true;
+
+        FloatRedrawScheduler redrawScheduler = mView.getTermuxFloatSessionClient().getRedrawScheduler();
+        mLastUpdateTime = SystemClock.uptimeMillis();
+        mLastFramesDrawn = redrawScheduler.getFramesDrawn();
+        mLastNotificationsReceived = redrawScheduler.getNotificationsReceived();
+        mLastFramesSkipped = getFramesSkipped(redrawScheduler);
+        mView.getTermuxFloatSessionClient().setInputLatencyTracking(true);
+
+        mHudView.setText(R.string.performance_hud_waiting);
+        mHudView.setVisibility(View.VISIBLE);
+        mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MILLIS);
+    }
+
+    public void hide() {
+        if (!mShown) return;
+        mShown = false;
+
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mView.getTermuxFloatSessionClient().setInputLatencyTracking(false);
+        mHudView.setVisibility(View.GONE);
+    }
+
+    public boolean isShown() {
+        return mShown;
+    }
+
+    private void update() {
+        if (!mShown) return;
+
+        TermuxFloatSessionClient sessionClient = mView.getTermuxFloatSessionClient();
+        FloatRedrawScheduler redrawScheduler = sessionClient.getRedrawScheduler();
+        long now = SystemClock.uptimeMillis();
+        long elapsed = Math.max(now - mLastUpdateTime, 1);
+
+        long framesDrawn = redrawScheduler.getFramesDrawn();
+        long notificationsReceived = redrawScheduler.getNotificationsReceived();
+        long framesSkipped = getFramesSkipped(redrawScheduler);
+
+        long fps = (framesDrawn - mLastFramesDrawn) * 1000 / elapsed;
+        long updatesPerSecond = (notificationsReceived - mLastNotificationsReceived) * 1000 / elapsed;
+        // Notifications that did not get a redraw of their own were coalesced into one
+        long coalesced = Math.max(0, (notificationsReceived - mLastNotificationsReceived) - (framesDrawn - mLastFramesDrawn));
+        long skipped = framesSkipped - mLastFramesSkipped;
+
+        long latencyNanos = sessionClient.getLastInputEchoLatencyNanos();
+        String latency = latencyNanos < 0 ? "-" : (latencyNanos / 1_000_000L) + "ms";
+
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        long heapMaxMb = runtime.maxMemory() / (1024 * 1024);
+
+        mHudView.setText(mView.getContext().getString(R.string.performance_hud, fps, updatesPerSecond,
+            coalesced, skipped, latency, heapUsedMb, heapMaxMb));
+
+        mLastUpdateTime = now;
+        mLastFramesDrawn = framesDrawn;
+        mLastNotificationsReceived = notificationsReceived;
+        mLastFramesSkipped = framesSkipped;
+        mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MILLIS);
+    }
+
+    /** Get the number of frames deferred for exceeding the frame budget or throttled by the refresh policy. */
+    private static long getFramesSkipped(@NonNull FloatRedrawScheduler redrawScheduler) {
+        return redrawScheduler.getFramesDeferred() + redrawScheduler.getFramesThrottled();
+    }
+
+}
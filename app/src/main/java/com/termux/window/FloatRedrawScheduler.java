@@ -0,0 +1,205 @@
+package com.termux.window;
+
+import android.view.Choreographer;
+
+import com.termux.terminal.TerminalSession;
+import com.termux.view.TerminalView;
+
+/**
+ * Coalesces the {@link TerminalSession} text change notifications received by
+ * {@link TermuxFloatSessionClient#onTextChanged(TerminalSession)} so that
+ * {@link TerminalView#onScreenUpdated()} is called at most once per display frame.
+ *
+ * Redraws are aligned to vsync with the {@link FloatFrameScheduler}, which is {@link Choreographer}
+ * outside of tests. {@link TerminalView#onScreenUpdated()} only invalidates the view, so the time
+ * the window draw then takes on the main thread is measured by {@link TermuxFloatView} and reported
+ * with {@link #onDrawMeasured(long)}. If it exceeded the frame budget, then the next redraw is
+ * deferred by one frame so that touch input is not starved when the session is flooded with output.
+ *
+ * The refresh policy set with {@link #setRefreshPolicy(boolean, long)} can additionally cap the
+ * redraw rate, like while the window is not focused, or pause redraws, like while the window is
+ * gone. A catch-up redraw is always done when the policy changes.
+ */
+public class FloatRedrawScheduler implements Choreographer.FrameCallback {
+
+    /** The default max time a single window draw may take before the next redraw is deferred by a frame. */
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 8_000_000L;
+
+    /** The target that is redrawn, which is {@link TermuxFloatView} outside of tests. */
+    public interface RedrawTarget {
+
+        /**
+         * Redraw the terminal if it can currently be drawn.
+         *
+         * @return Returns {@code true} if the terminal was redrawn.
+         */
+        boolean redraw();
+
+    }
+
+    private final RedrawTarget mTarget;
+    private final FloatFrameScheduler mFrameScheduler;
+    private final long mFrameBudgetNanos;
+
+    /** If a frame callback is currently posted. */
+    private boolean mFrameScheduled;
+    /** If the last measured draw exceeded {@link #mFrameBudgetNanos} and the next frame must be skipped. */
+    private boolean mDeferNextFrame;
+    /** If the next frame must redraw regardless of {@link #mMinRedrawIntervalNanos}. */
+    private boolean mForceNextFrame;
+
+    /** If redraws are paused. */
+    private boolean mPaused;
+    /** The min time between two redraws, or 0 to redraw on every frame. */
+    private long mMinRedrawIntervalNanos;
+    /** The frame time of the last redraw. */
+    private long mLastRedrawFrameTimeNanos;
+
+    private long mNotificationsReceived;
+    private long mFramesDrawn;
+    private long mFramesDeferred;
+    private long mFramesThrottled;
+    private long mDrawsOverBudget;
+    private long mLastDrawNanos;
+
+    public FloatRedrawScheduler(RedrawTarget target) {
+        this(target, FloatFrameScheduler.forChoreographer(), DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    public FloatRedrawScheduler(RedrawTarget target, FloatFrameScheduler frameScheduler, long frameBudgetNanos) {
+        mTarget = target;
+        mFrameScheduler = frameScheduler;
+        mFrameBudgetNanos = frameBudgetNanos;
+    }
+
+    /**
+     * Request a redraw of the {@link TerminalView} on the next frame. Multiple requests received
+     * before the frame is drawn are collapsed into a single redraw. Must be called on the main thread.
+     */
+    public void requestRedraw() {
+        mNotificationsReceived++;
+        if (mPaused) return;
+
+        scheduleFrame();
+    }
+
+    /**
+     * Set the refresh policy. If the policy changed and redraws are not paused, a catch-up redraw
+     * is scheduled for the next frame.
+     *
+     * @param paused If redraws should be paused.
+     * @param minRedrawIntervalNanos The min time between two redraws, or 0 to redraw on every frame.
+     */
+    public void setRefreshPolicy(boolean paused, long minRedrawIntervalNanos) {
+        if (paused == mPaused && minRedrawIntervalNanos == mMinRedrawIntervalNanos) return;
+
+        mPaused = paused;
+        mMinRedrawIntervalNanos = minRedrawIntervalNanos;
+
+        if (mPaused) {
+            cancel();
+        } else {
+            mForceNextFrame = true;
+            if (mFrameScheduled) {
+                // A throttled frame may be posted with a delay, so post again for the next frame
+                mFrameScheduler.removeFrameCallback(this);
+                mFrameScheduled = false;
+            }
+            scheduleFrame();
+        }
+    }
+
+    private void scheduleFrame() {
+        if (mFrameScheduled) return;
+
+        mFrameScheduled = true;
+        mFrameScheduler.postFrameCallback(this);
+    }
+
+    /** Cancel any pending redraw, like when the view is detached from window. */
+    public void cancel() {
+        if (mFrameScheduled) {
+            mFrameScheduler.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+        mDeferNextFrame = false;
+        mForceNextFrame = false;
+    }
+
+    /**
+     * Should be called with the time the last window draw took on the main thread. If it exceeded
+     * the frame budget, the next redraw is deferred by one frame.
+     */
+    public void onDrawMeasured(long drawNanos) {
+        mLastDrawNanos = drawNanos;
+        mDeferNextFrame = drawNanos > mFrameBudgetNanos;
+        if (mDeferNextFrame) mDrawsOverBudget++;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mDeferNextFrame) {
+            mDeferNextFrame = false;
+            mFramesDeferred++;
+            mFrameScheduler.postFrameCallback(this);
+            return;
+        }
+
+        if (!mForceNextFrame && mMinRedrawIntervalNanos > 0) {
+            long remainingNanos = mLastRedrawFrameTimeNanos + mMinRedrawIntervalNanos - frameTimeNanos;
+            if (remainingNanos > 0) {
+                mFramesThrottled++;
+                mFrameScheduler.postFrameCallbackDelayed(this, remainingNanos / 1_000_000L);
+                return;
+            }
+        }
+
+        mFrameScheduled = false;
+        mForceNextFrame = false;
+        if (mPaused || !mTarget.redraw()) return;
+
+        mFramesDrawn++;
+        mLastRedrawFrameTimeNanos = frameTimeNanos;
+    }
+
+
+
+    /** Get the number of redraw requests received. */
+    public long getNotificationsReceived() {
+        return mNotificationsReceived;
+    }
+
+    /** Get the number of frames in which the {@link TerminalView} was actually redrawn. */
+    public long getFramesDrawn() {
+        return mFramesDrawn;
+    }
+
+    /** Get the number of frames skipped because the previous window draw exceeded the frame budget. */
+    public long getFramesDeferred() {
+        return mFramesDeferred;
+    }
+
+    /** Get the number of times a redraw was delayed by the min redraw interval of the refresh policy. */
+    public long getFramesThrottled() {
+        return mFramesThrottled;
+    }
+
+    /** Get the number of window draws that exceeded the frame budget. */
+    public long getDrawsOverBudget() {
+        return mDrawsOverBudget;
+    }
+
+    /** Get the time the last window draw took on the main thread. */
+    public long getLastDrawNanos() {
+        return mLastDrawNanos;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public long getMinRedrawIntervalNanos() {
+        return mMinRedrawIntervalNanos;
+    }
+
+}
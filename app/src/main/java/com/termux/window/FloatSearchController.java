@@ -0,0 +1,342 @@
+package com.termux.window;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.terminal.TerminalEmulator;
+import com.termux.view.TerminalView;
+import com.termux.window.settings.properties.TermuxFloatAppSharedProperties;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Handles the search bar of the float window, which searches the transcript of the current session
+ * with a {@link FloatTranscriptIndex}, scrolls the {@link TerminalView} to the matches and
+ * highlights them.
+ *
+ * Each session tab has its own index, which is only created when search is first opened for it, or
+ * when the session starts if the {@code transcript-archive-rows} property enables the archive of
+ * rows that dropped out of the transcript. The highlight is drawn by a drawable in
+ * the {@link TerminalView} overlay, so it follows the view as it scrolls and redraws, and it is
+ * removed while search is closed.
+ */
+public class FloatSearchController {
+
+    private static final int HIGHLIGHT_COLOR = 0x66FFEB3B;
+    private static final int CURRENT_HIGHLIGHT_COLOR = 0xAAFF9800;
+
+    private final TermuxFloatView mTermuxFloatView;
+
+    private final ViewGroup mSearchBar;
+    private final EditText mSearchInput;
+    private final TextView mSearchMatchCount;
+    private final TextView mSearchArchivedRow;
+
+    private final SearchHighlight mHighlight = new SearchHighlight();
+
+    /** Keeps the bounds of {@link #mHighlight} the size of the {@link TerminalView} while search is open. */
+    private final View.OnLayoutChangeListener mHighlightBoundsUpdater =
+        (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+            mHighlight.setBounds(0, 0, right - left, bottom - top);
+
+    /** The single thread executor shared by the indexes of all sessions, created on first use. */
+    private ExecutorService mIndexExecutor;
+
+    /** The index the last search was done with. */
+    private FloatTranscriptIndex mIndex;
+
+    /** The result of the last search, or {@code null} if none. */
+    private FloatTranscriptIndex.SearchResult mResult;
+    /** The index in {@link #mResult} of the current match. */
+    private int mCurrentMatch;
+
+    private boolean mSearchOpen;
+
+    /** If the archive is enabled by the properties, or {@code null} if not read yet. */
+    private Boolean mArchiveEnabled;
+
+    public FloatSearchController(TermuxFloatView termuxFloatView) {
+        mTermuxFloatView = termuxFloatView;
+
+        mSearchBar = termuxFloatView.findViewById(R.id.search_bar);
+        mSearchInput = termuxFloatView.findViewById(R.id.search_input);
+        mSearchMatchCount = termuxFloatView.findViewById(R.id.search_match_count);
+        mSearchArchivedRow = termuxFloatView.findViewById(R.id.search_archived_row);
+
+        mSearchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search();
+            }
+        });
+        mSearchInput.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_SEARCH ||
+                (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER && event.getAction() == KeyEvent.ACTION_DOWN)) {
+                moveToMatch(1);
+                return true;
+            }
+            return false;
+        });
+
+        Button previousButton = termuxFloatView.findViewById(R.id.search_previous_button);
+        previousButton.setOnClickListener(v -> moveToMatch(1));
+
+        Button nextButton = termuxFloatView.findViewById(R.id.search_next_button);
+        nextButton.setOnClickListener(v -> moveToMatch(-1));
+
+        Button closeButton = termuxFloatView.findViewById(R.id.search_close_button);
+        closeButton.setOnClickListener(v -> closeSearch());
+    }
+
+    public void toggleSearch() {
+        if (mSearchOpen) {
+            closeSearch();
+        } else {
+            openSearch();
+        }
+    }
+
+    public void openSearch() {
+        if (mSearchOpen) return;
+        mSearchOpen = true;
+
+        TerminalView terminalView = mTermuxFloatView.getTerminalView();
+        mHighlight.setBounds(0, 0, terminalView.getWidth(), terminalView.getHeight());
+        terminalView.addOnLayoutChangeListener(mHighlightBoundsUpdater);
+        terminalView.getOverlay().add(mHighlight);
+
+        mSearchBar.setVisibility(View.VISIBLE);
+        focusSearchInput();
+        search();
+    }
+
+    public void closeSearch() {
+        if (!mSearchOpen) return;
+        mSearchOpen = false;
+
+        mResult = null;
+        mSearchBar.setVisibility(View.GONE);
+        mSearchArchivedRow.setVisibility(View.GONE);
+
+        TerminalView terminalView = mTermuxFloatView.getTerminalView();
+        terminalView.getOverlay().remove(mHighlight);
+        terminalView.removeOnLayoutChangeListener(mHighlightBoundsUpdater);
+        terminalView.requestFocus();
+        mTermuxFloatView.showTouchKeyboard();
+    }
+
+    /** Focus the search input and show the soft keyboard for it. */
+    void focusSearchInput() {
+        mSearchInput.post(mSearchInput::requestFocus);
+        mTermuxFloatView.showSoftKeyboard(mSearchInput);
+    }
+
+    public boolean isSearchOpen() {
+        return mSearchOpen;
+    }
+
+    public View getSearchBar() {
+        return mSearchBar;
+    }
+
+    /**
+     * Should be called right before the scroll counter of the current emulator is cleared, so that
+     * the rows scrolled into the transcript are indexed.
+     */
+    public void onBeforeScrollCounterCleared(@Nullable TerminalEmulator emulator) {
+        if (emulator == null) return;
+        if (mArchiveEnabled == null)
+            mArchiveEnabled = mTermuxFloatView.getProperties().getTranscriptArchiveRows() > 0;
+        FloatTranscriptIndex index = getCurrentIndex(mArchiveEnabled);
+        if (index == null) return;
+        index.update(emulator);
+        index.onScrollCounterCleared();
+    }
+
+    /** Should be called when the properties are reloaded. Indexes already created are not changed. */
+    public void onPropertiesReloaded() {
+        mArchiveEnabled = null;
+    }
+
+    /** Should be called when the current session changes. */
+    public void onSessionChanged() {
+        if (mSearchOpen)
+            search();
+    }
+
+    /** Release the index worker after the pending tasks are done, like when the window is closed. */
+    public void release() {
+        TermuxFloatService service = mTermuxFloatView.getService();
+        if (service != null) {
+            for (TermuxFloatSessionTab sessionTab : service.getSessionTabs()) {
+                if (sessionTab.getTranscriptIndex() != null) {
+                    sessionTab.getTranscriptIndex().release();
+                    sessionTab.setTranscriptIndex(null);
+                }
+            }
+        }
+
+        if (mIndexExecutor != null)
+            mIndexExecutor.shutdown();
+        mIndexExecutor = null;
+        mIndex = null;
+    }
+
+    /**
+     * Get the index of the current session tab.
+     *
+     * @param create If the index should be created if the tab does not have one yet.
+     * @return Returns the index, or {@code null} if none.
+     */
+    @Nullable
+    private FloatTranscriptIndex getCurrentIndex(boolean create) {
+        TermuxFloatService service = mTermuxFloatView.getService();
+        if (service == null) return null;
+        int currentSessionIndex = service.getCurrentSessionIndex();
+        if (currentSessionIndex < 0 || currentSessionIndex >= service.getSessionTabs().size()) return null;
+
+        TermuxFloatSessionTab sessionTab = service.getSessionTabs().get(currentSessionIndex);
+        FloatTranscriptIndex index = sessionTab.getTranscriptIndex();
+        if (index == null && create) {
+            if (mIndexExecutor == null)
+                mIndexExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FloatTranscriptIndex"));
+            TermuxFloatAppSharedProperties properties = mTermuxFloatView.getProperties();
+            index = new FloatTranscriptIndex(properties.getTerminalTranscriptRows(), properties.getTranscriptArchiveRows(), mIndexExecutor);
+            sessionTab.setTranscriptIndex(index);
+        }
+        return index;
+    }
+
+    private void search() {
+        TerminalEmulator emulator = getEmulator();
+        mIndex = getCurrentIndex(true);
+        if (mIndex == null || emulator == null) return;
+
+        String query = mSearchInput.getText().toString();
+        mIndex.search(emulator, query, result -> {
+            // Ignore results of queries that were already replaced
+            if (!mSearchOpen || !result.query.equals(mSearchInput.getText().toString())) return;
+            mResult = result;
+            mCurrentMatch = 0;
+            updateMatchCount();
+            scrollToCurrentMatch();
+        });
+    }
+
+    /**
+     * Move to the next match in {@code direction}, where {@code 1} is towards older rows and
+     * {@code -1} is towards newer rows.
+     */
+    private void moveToMatch(int direction) {
+        if (mResult == null || mResult.getTotalCount() == 0) return;
+        mCurrentMatch = (mCurrentMatch + direction + mResult.getTotalCount()) % mResult.getTotalCount();
+        updateMatchCount();
+        scrollToCurrentMatch();
+    }
+
+    private void updateMatchCount() {
+        if (mResult == null || mResult.query.isEmpty()) {
+            mSearchMatchCount.setText("");
+        } else {
+            mSearchMatchCount.setText(mTermuxFloatView.getContext().getString(R.string.search_match_count,
+                mResult.getTotalCount() == 0 ? 0 : mCurrentMatch + 1, mResult.getTotalCount()));
+        }
+    }
+
+    private void scrollToCurrentMatch() {
+        TerminalView terminalView = mTermuxFloatView.getTerminalView();
+        TerminalEmulator emulator = getEmulator();
+
+        // Archived rows are no longer in the emulator, so only show their text
+        if (mResult != null && mCurrentMatch >= mResult.count && mCurrentMatch < mResult.getTotalCount()) {
+            mSearchArchivedRow.setText(mResult.archivedTexts[mCurrentMatch - mResult.count]);
+            mSearchArchivedRow.setVisibility(View.VISIBLE);
+            terminalView.invalidate();
+            return;
+        }
+        mSearchArchivedRow.setVisibility(View.GONE);
+
+        if (mResult != null && mCurrentMatch < mResult.count && emulator != null && mIndex != null) {
+            int externalRow = mIndex.getExternalRow(emulator, mResult.rows[mCurrentMatch]);
+            if (externalRow != Integer.MIN_VALUE) {
+                int topRow = terminalView.getTopRow();
+                // Only scroll if the match is not already visible, keeping it centered otherwise. The
+                // top row must stay within the transcript, or the renderer fails on the next draw.
+                if (externalRow < topRow || externalRow >= topRow + emulator.mRows)
+                    terminalView.setTopRow(Math.max(-emulator.getScreen().getActiveTranscriptRows(),
+                        Math.min(0, externalRow - emulator.mRows / 2)));
+            }
+        }
+        terminalView.invalidate();
+    }
+
+    @Nullable
+    private TerminalEmulator getEmulator() {
+        TerminalView terminalView = mTermuxFloatView.getTerminalView();
+        return terminalView == null ? null : terminalView.mEmulator;
+    }
+
+
+
+    /** Draws the highlights of the visible matches over the {@link TerminalView}. */
+    private class SearchHighlight extends Drawable {
+
+        private final Paint mPaint = new Paint();
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            FloatTranscriptIndex.SearchResult result = mResult;
+            TerminalEmulator emulator = getEmulator();
+            if (result == null || result.count == 0 || emulator == null || mIndex == null) return;
+
+            TerminalView terminalView = mTermuxFloatView.getTerminalView();
+            int topRow = terminalView.getTopRow();
+
+            for (int i = 0; i < result.count; i++) {
+                int externalRow = mIndex.getExternalRow(emulator, result.rows[i]);
+                if (externalRow == Integer.MIN_VALUE || externalRow < topRow || externalRow >= topRow + emulator.mRows)
+                    continue;
+
+                mPaint.setColor(i == mCurrentMatch ? CURRENT_HIGHLIGHT_COLOR : HIGHLIGHT_COLOR);
+                int column = result.columns[i];
+                canvas.drawRect(terminalView.getPointX(column), terminalView.getPointY(externalRow),
+                    terminalView.getPointX(column + result.widths[i]), terminalView.getPointY(externalRow + 1), mPaint);
+            }
+        }
+
+        @Override
+        public void setAlpha(int alpha) {}
+
+        @Override
+        public void setColorFilter(@Nullable ColorFilter colorFilter) {}
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.termux.window;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalEmulator;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records what the float window shows into an asciicast v2 file, optionally gzip compressed.
+ *
+ * The session client never sees the raw output bytes of a session, since they are read and
+ * processed by {@link com.termux.terminal.TerminalSession} itself, so the recording is
+ * reconstructed from the emulator once per redraw, right before its scroll counter is cleared. The
+ * rows that scrolled into the transcript are written to the top of the screen and scrolled off,
+ * so that they end up in the scrollback of the player, followed by the screen rows that changed
+ * since the last event and the cursor position. Only the text is recorded, not the colors.
+ *
+ * Events are captured on the main thread and handed to a writer thread through a bounded queue,
+ * which writes them in batches. Capturing never waits for the writer. If the queue is full, the
+ * event is dropped and counted, and the next event repaints the whole screen so that the recording
+ * recovers from the gap.
+ */
+public class FloatSessionRecorder {
+
+    /** The max number of events waiting to be written. */
+    private static final int QUEUE_CAPACITY = 512;
+    /** The max number of chars of the events waiting to be written. */
+    private static final int MAX_QUEUED_CHARS = 1024 * 1024;
+
+    private static final class Event {
+
+        final long timeNanos;
+        /** The asciicast event type, {@code "o"} for output or {@code "r"} for a resize. */
+        final String type;
+        final String data;
+
+        Event(long timeNanos, String type, String data) {
+            this.timeNanos = timeNanos;
+            this.type = type;
+            this.data = data;
+        }
+
+    }
+
+    private final File mFile;
+    private final boolean mCompress;
+
+    private final BlockingQueue<Event> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger mQueuedChars = new AtomicInteger();
+    private Thread mWriterThread;
+
+    private long mStartTimeNanos;
+
+    /** The emulator the last event was captured from, or {@code null} if the next event must repaint the screen. */
+    private TerminalEmulator mEmulator;
+    private int mColumns;
+    private int mRows;
+    /** The screen rows as the player shows them after the last event. */
+    private String[] mScreenRows;
+    private int mCursorRow;
+    private int mCursorColumn;
+
+    private boolean mStopped;
+    /** If the writer thread should close the file once the queued events are written. */
+    private volatile boolean mStopRequested;
+    /** If the writer thread failed to create the file. */
+    private volatile boolean mWriterFailed;
+
+    private long mEventsQueued;
+    private long mEventsDropped;
+    private long mCharsDropped;
+    private volatile long mEventsWritten;
+    private volatile long mCharsWritten;
+    private volatile long mBatchesWritten;
+
+    private static final String LOG_TAG = "FloatSessionRecorder";
+
+    /**
+     * @param directory The directory to create the recording file in.
+     * @param compress If the file should be gzip compressed.
+     */
+    public FloatSessionRecorder(@NonNull File directory, boolean compress) {
+        String name = "float-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()) + ".cast";
+        mFile = new File(directory, compress ? name + ".gz" : name);
+        mCompress = compress;
+    }
+
+    /** Start the writer thread, which creates the file with the size of the first captured screen. */
+    private void start(@NonNull TerminalEmulator emulator) {
+        final int columns = emulator.mColumns;
+        final int rows = emulator.mRows;
+        mStartTimeNanos = System.nanoTime();
+        mColumns = columns;
+        mRows = rows;
+        mWriterThread = new Thread(() -> {
+            Writer writer = createWriter(columns, rows);
+            if (writer != null)
+                runWriter(writer);
+            else
+                mWriterFailed = true;
+        }, "FloatSessionRecorder");
+        mWriterThread.start();
+    }
+
+    /** Create the file and write the asciicast header. */
+    @Nullable
+    private Writer createWriter(int columns, int rows) {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create recordings directory \"" + directory + "\"");
+            return null;
+        }
+
+        try {
+            OutputStream output = new FileOutputStream(mFile);
+            if (mCompress)
+                output = new GZIPOutputStream(output, 64 * 1024);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+
+            JSONObject header = new JSONObject();
+            header.put("version", 2);
+            header.put("width", columns);
+            header.put("height", rows);
+            header.put("timestamp", System.currentTimeMillis() / 1000);
+            header.put("title", "Termux:Float");
+            writer.write(header.toString());
+            writer.write('\n');
+            Logger.logInfo(LOG_TAG, "Recording to \"" + mFile + "\"");
+            return writer;
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create recording \"" + mFile + "\"", e);
+            return null;
+        }
+    }
+
+    /**
+     * Capture the changes to {@code emulator} since the last event. Must be called on the main
+     * thread right before its scroll counter is cleared.
+     */
+    public void onBeforeScrollCounterCleared(@Nullable TerminalEmulator emulator) {
+        if (emulator == null || mStopped) return;
+        if (mWriterFailed) {
+            mStopped = true;
+            return;
+        }
+        if (mWriterThread == null)
+            start(emulator);
+
+        long timeNanos = System.nanoTime();
+        StringBuilder builder = new StringBuilder();
+
+        if (emulator.mColumns != mColumns || emulator.mRows != mRows) {
+            mColumns = emulator.mColumns;
+            mRows = emulator.mRows;
+            mEmulator = null;
+            if (!offer(new Event(timeNanos, "r", mColumns + "x" + mRows))) {
+                // Send the resize again with the next event
+                mColumns = 0;
+                return;
+            }
+        }
+
+        if (emulator != mEmulator || mScreenRows == null) {
+            // Repaint the whole screen, like for a new emulator or after a dropped event
+            mEmulator = emulator;
+            mScreenRows = new String[mRows];
+            builder.append("\033[H\033[2J");
+        } else if (emulator.getScrollCounter() > 0) {
+            appendScrolledRows(builder, emulator, Math.min(emulator.getScrollCounter(), emulator.getScreen().getActiveTranscriptRows()));
+        }
+
+        for (int row = 0; row < mRows; row++) {
+            String rowText = getRowText(emulator, row);
+            if (rowText.equals(mScreenRows[row])) continue;
+            mScreenRows[row] = rowText;
+            builder.append("\033[").append(row + 1).append(";1H\033[2K").append(rowText);
+            mCursorRow = -1;
+        }
+
+        int cursorRow = emulator.getCursorRow();
+        int cursorColumn = emulator.getCursorCol();
+        if (cursorRow != mCursorRow || cursorColumn != mCursorColumn) {
+            builder.append("\033[").append(cursorRow + 1).append(';').append(cursorColumn + 1).append('H');
+            mCursorRow = cursorRow;
+            mCursorColumn = cursorColumn;
+        }
+
+        if (builder.length() > 0 && !offer(new Event(timeNanos, "o", builder.toString()))) {
+            // The player screen now differs from mScreenRows, so repaint it with the next event
+            mEmulator = null;
+        }
+    }
+
+    /**
+     * Write the {@code count} rows that scrolled into the transcript to the top of the screen in
+     * chunks of the screen height and scroll each chunk off, so that the player moves them to its
+     * scrollback in order.
+     */
+    private void appendScrolledRows(@NonNull StringBuilder builder, @NonNull TerminalEmulator emulator, int count) {
+        int start = -count;
+        while (start < 0) {
+            int chunk = Math.min(-start, mRows);
+            for (int i = 0; i < chunk; i++) {
+                builder.append("\033[").append(i + 1).append(";1H\033[2K").append(getRowText(emulator, start + i));
+            }
+            builder.append("\033[").append(mRows).append(";1H");
+            for (int i = 0; i < chunk; i++)
+                builder.append('\n');
+
+            // The rows below the scrolled off rows moved up and the rows at the bottom are empty
+            System.arraycopy(mScreenRows, chunk, mScreenRows, 0, mRows - chunk);
+            for (int i = mRows - chunk; i < mRows; i++)
+                mScreenRows[i] = "";
+            start += chunk;
+        }
+        mCursorRow = -1;
+    }
+
+    @NonNull
+    private static String getRowText(@NonNull TerminalEmulator emulator, int externalRow) {
+        return emulator.getScreen().getSelectedText(0, externalRow, emulator.mColumns, externalRow);
+    }
+
+    /** Queue {@code event} without waiting, or drop it if the writer fell behind. */
+    private boolean offer(@NonNull Event event) {
+        int chars = event.data.length();
+        if (mQueuedChars.get() + chars > MAX_QUEUED_CHARS || !mQueue.offer(event)) {
+            mEventsDropped++;
+            mCharsDropped += chars;
+            return false;
+        }
+        mQueuedChars.addAndGet(chars);
+        mEventsQueued++;
+        return true;
+    }
+
+    private void runWriter(@NonNull Writer writer) {
+        List<Event> batch = new ArrayList<>();
+        try {
+            while (true) {
+                try {
+                    Event first = mQueue.poll(1, TimeUnit.SECONDS);
+                    if (first != null) batch.add(first);
+                } catch (InterruptedException e) {
+                    // Interrupted by stop(), the events still queued are written below
+                }
+                mQueue.drainTo(batch);
+
+                if (batch.isEmpty()) {
+                    // Events are only queued before the stop is requested
+                    if (mStopRequested) break;
+                    continue;
+                }
+
+                long bytes = 0;
+                for (Event event : batch) {
+                    mQueuedChars.addAndGet(-event.data.length());
+                    String line = "[" + String.format(Locale.ROOT, "%.6f", (event.timeNanos - mStartTimeNanos) / 1e9) +
+                        ", \"" + event.type + "\", " + JSONObject.quote(event.data) + "]\n";
+                    writer.write(line);
+                    bytes += line.length();
+                    mEventsWritten++;
+                }
+                batch.clear();
+                writer.flush();
+                mCharsWritten += bytes;
+                mBatchesWritten++;
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write recording \"" + mFile + "\"", e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close recording \"" + mFile + "\"", e);
+            }
+            // Nothing reads the queue anymore
+            mQueue.clear();
+        }
+    }
+
+    /** Stop recording. The events already queued are written before the file is closed. */
+    public void stop() {
+        if (mStopped) return;
+        mStopped = true;
+        if (mWriterThread == null) return;
+
+        // The writer closes the file once it has written the queued events
+        mStopRequested = true;
+        mWriterThread.interrupt();
+        Logger.logInfo(LOG_TAG, "Stopped recording to \"" + mFile + "\", " + mEventsDropped + " events dropped");
+    }
+
+
+
+    @NonNull
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getEventsQueued() {
+        return mEventsQueued;
+    }
+
+    /** Get the number of events dropped because the writer fell behind. */
+    public long getEventsDropped() {
+        return mEventsDropped;
+    }
+
+    public long getCharsDropped() {
+        return mCharsDropped;
+    }
+
+    public long getEventsWritten() {
+        return mEventsWritten;
+    }
+
+    /** Get the number of chars written, before compression. */
+    public long getCharsWritten() {
+        return mCharsWritten;
+    }
+
+    public long getBatchesWritten() {
+        return mBatchesWritten;
+    }
+
+}
@@ -0,0 +1,548 @@
+package com.termux.window;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalEmulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Periodically snapshots the transcript and screen text of the current session to a file, so that
+ * the previous screen can be shown right away when the service is started again after it was
+ * killed, even though a new shell is started underneath.
+ *
+ * Each snapshot only appends the rows that scrolled into the transcript since the previous one and
+ * the screen rows, if anything changed. When the emulator changes, is resized or its transcript is
+ * cleared, the file is rewritten with only the screen rows, and the rows that were already in the
+ * transcript are then copied from the emulator in slices of {@link #BACKFILL_SLICE_ROWS} on later
+ * main thread messages and appended as records of older rows, so the main thread never copies the
+ * whole transcript at once. Once enough was appended, the file is compacted on the worker thread by
+ * reading it back and rewriting only the rows that fit in the transcript, which bounds its size.
+ * Rewrites go to a temp file that is renamed over the snapshot, and a record cut off by a kill
+ * during an append is ignored when the file is read.
+ *
+ * The text is captured on the main thread and written on a worker thread. On restart the file is
+ * memory mapped and read by {@link FloatStartupPipeline} in the background, and the rows are fed
+ * to the emulator of the first session as soon as it is created. Only the text is kept, not the
+ * colors. The window geometry is already kept in preferences by {@link FloatWindowGeometry}.
+ */
+public class FloatSessionSnapshot {
+
+    /** The rows read from a snapshot file. */
+    public static class RestoredState {
+
+        /** The transcript rows, from the oldest to the newest. */
+        public final String[] transcriptRows;
+        /** The screen rows, from the top to the bottom. */
+        public final String[] screenRows;
+        /** The time in milliseconds it took to read the file. */
+        public final long loadMillis;
+
+        RestoredState(String[] transcriptRows, String[] screenRows, long loadMillis) {
+            this.transcriptRows = transcriptRows;
+            this.screenRows = screenRows;
+            this.loadMillis = loadMillis;
+        }
+
+    }
+
+    /** Get the emulator of the current session to snapshot. */
+    public interface EmulatorProvider {
+
+        @Nullable
+        TerminalEmulator getEmulator();
+
+    }
+
+    private static final String SNAPSHOT_FILE_NAME = "float-session-snapshot.bin";
+
+    private static final int MAGIC = 0x54465353; // "TFSS"
+    private static final int VERSION = 1;
+
+    /** A record of rows that scrolled into the transcript. */
+    private static final byte RECORD_ROWS = 1;
+    /** A record of the screen rows, which replaces the previous one. */
+    private static final byte RECORD_SCREEN = 2;
+    /** A record of rows that were already in the transcript before all rows of the previous records. */
+    private static final byte RECORD_OLDER_ROWS = 3;
+
+    /** The max number of appends after which the file is compacted. */
+    private static final int MAX_APPENDS_BETWEEN_COMPACTIONS = 100;
+
+    /** The max number of transcript rows copied from the emulator per main thread message. */
+    private static final int BACKFILL_SLICE_ROWS = 500;
+
+    private final File mFile;
+    private final int mIntervalMillis;
+    /** The max number of transcript rows, from the {@code terminal-transcript-rows} property. */
+    private final int mMaxRows;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FloatSessionSnapshot"));
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSnapshotRunnable = this::onSnapshotTimer;
+
+    @NonNull private final EmulatorProvider mEmulatorProvider;
+
+    /** The emulator the file was last written for, or {@code null} if the next snapshot must rewrite the file. */
+    private TerminalEmulator mEmulator;
+    private int mColumns;
+    private int mRows;
+    private int mLastActiveTranscriptRows;
+    /** The rows scrolled since the last snapshot whose scroll counter has already been cleared. */
+    private int mPendingScrolledRows;
+    /** The value of the emulator scroll counter already counted by the last snapshot. */
+    private int mConsumedScrollCount;
+    /** The rows scrolled into the transcript between the last rewrite and the last snapshot. */
+    private int mScrolledRowsSinceRewrite;
+    private String[] mLastScreenRows;
+    private int mRowsSinceCompaction;
+    private int mAppendsSinceCompaction;
+
+    /** The number of transcript rows present at the last rewrite that still need to be copied, counted from the newest. */
+    private int mBackfillRowsTotal;
+    /** The number of those rows already copied. */
+    private int mBackfillRowsDone;
+    private final Runnable mBackfillRunnable = this::backfillSlice;
+
+    /** The state to feed to the emulator of the first session, or {@code null} if none. */
+    @Nullable private RestoredState mRestoredState;
+
+    private boolean mDiscarded;
+
+    private long mFullWriteCount;
+    private long mAppendCount;
+    private long mBackfillSlices;
+    private volatile long mCompactionCount;
+    private volatile long mBytesWritten;
+    private volatile long mWriteFailures;
+    private long mRestoredRows;
+    private long mLastRestoreMillis;
+
+    private static final String LOG_TAG = "FloatSessionSnapshot";
+
+    /**
+     * @param intervalSeconds The interval between two snapshots, or {@code 0} to disable them.
+     * @param transcriptRows The {@code terminal-transcript-rows} the emulators are created with.
+     * @param emulatorProvider The provider of the emulator to snapshot.
+     */
+    public FloatSessionSnapshot(@NonNull Context context, int intervalSeconds, int transcriptRows,
+                                @NonNull EmulatorProvider emulatorProvider) {
+        mFile = getSnapshotFile(context);
+        mIntervalMillis = intervalSeconds * 1000;
+        mMaxRows = transcriptRows;
+        mEmulatorProvider = emulatorProvider;
+    }
+
+    @NonNull
+    private static File getSnapshotFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /** Check if snapshots are enabled by the {@code session-snapshot-interval} property. */
+    public boolean isEnabled() {
+        return mIntervalMillis > 0;
+    }
+
+    /** Start taking snapshots, or delete a snapshot left from when they were enabled if they are disabled. */
+    public void start() {
+        if (!isEnabled()) {
+            mExecutor.execute(this::deleteFile);
+            return;
+        }
+        mHandler.removeCallbacks(mSnapshotRunnable);
+        mHandler.postDelayed(mSnapshotRunnable, mIntervalMillis);
+    }
+
+    private void onSnapshotTimer() {
+        snapshot();
+        if (!mDiscarded)
+            mHandler.postDelayed(mSnapshotRunnable, mIntervalMillis);
+    }
+
+    /**
+     * Should be called on the main thread right before the scroll counter of the emulator of the
+     * current session is cleared, so that the rows scrolled since the last snapshot are appended.
+     */
+    public void onBeforeScrollCounterCleared(@Nullable TerminalEmulator emulator) {
+        if (emulator == null || emulator != mEmulator) return;
+        mPendingScrolledRows += emulator.getScrollCounter() - mConsumedScrollCount;
+        mConsumedScrollCount = 0;
+    }
+
+    /** Get the rows scrolled into the transcript of {@code emulator} since the last snapshot. */
+    private int getScrolledRows(@NonNull TerminalEmulator emulator) {
+        return mPendingScrolledRows + emulator.getScrollCounter() - mConsumedScrollCount;
+    }
+
+    /** Snapshot the emulator of the current session now. Must be called on the main thread. */
+    public void snapshot() {
+        TerminalEmulator emulator = mEmulatorProvider.getEmulator();
+        if (!isEnabled() || mDiscarded || emulator == null) return;
+
+        int activeTranscriptRows = emulator.getScreen().getActiveTranscriptRows();
+        String[] screenRows = getRowTexts(emulator, 0, emulator.mRows);
+
+        if (emulator != mEmulator || emulator.mColumns != mColumns || emulator.mRows != mRows ||
+            activeTranscriptRows < mLastActiveTranscriptRows) {
+            // The rows already in the transcript are copied in slices afterwards
+            mEmulator = emulator;
+            mColumns = emulator.mColumns;
+            mRows = emulator.mRows;
+            mLastActiveTranscriptRows = activeTranscriptRows;
+            mPendingScrolledRows = 0;
+            mConsumedScrollCount = emulator.getScrollCounter();
+            mScrolledRowsSinceRewrite = 0;
+            mLastScreenRows = screenRows;
+            mRowsSinceCompaction = 0;
+            mAppendsSinceCompaction = 0;
+            mBackfillRowsTotal = activeTranscriptRows;
+            mBackfillRowsDone = 0;
+            mFullWriteCount++;
+
+            mExecutor.execute(() -> writeFull(new String[0], screenRows));
+            mHandler.removeCallbacks(mBackfillRunnable);
+            if (mBackfillRowsTotal > 0)
+                mHandler.post(mBackfillRunnable);
+            return;
+        }
+
+        int scrolled = getScrolledRows(emulator);
+        if (scrolled <= 0 && Arrays.equals(screenRows, mLastScreenRows)) return;
+
+        int newRowCount = Math.min(Math.max(scrolled, 0), activeTranscriptRows);
+        String[] newRows = getRowTexts(emulator, -newRowCount, newRowCount);
+        mPendingScrolledRows = 0;
+        mConsumedScrollCount = emulator.getScrollCounter();
+        mScrolledRowsSinceRewrite += Math.max(scrolled, 0);
+        mLastActiveTranscriptRows = activeTranscriptRows;
+        mLastScreenRows = screenRows;
+        mRowsSinceCompaction += newRowCount;
+        mAppendsSinceCompaction++;
+        mAppendCount++;
+
+        mExecutor.execute(() -> writeAppend(newRows, screenRows));
+        compactIfNeeded();
+    }
+
+    /**
+     * Copy the next {@link #BACKFILL_SLICE_ROWS} of the rows that were already in the transcript at
+     * the last rewrite, from the newest to the oldest, and append them as a record of older rows.
+     * The rows have moved up by the rows scrolled into the transcript since, and the ones that have
+     * dropped out of it meanwhile are not copied anymore.
+     */
+    private void backfillSlice() {
+        TerminalEmulator emulator = mEmulatorProvider.getEmulator();
+        if (mDiscarded || emulator == null || emulator != mEmulator || emulator.mColumns != mColumns ||
+            emulator.mRows != mRows) {
+            // The next snapshot rewrites the file
+            return;
+        }
+
+        int offset = mScrolledRowsSinceRewrite + getScrolledRows(emulator);
+        int activeTranscriptRows = emulator.getScreen().getActiveTranscriptRows();
+        mBackfillRowsTotal = Math.min(mBackfillRowsTotal, Math.max(activeTranscriptRows - offset, 0));
+        int count = Math.min(BACKFILL_SLICE_ROWS, mBackfillRowsTotal - mBackfillRowsDone);
+        if (count <= 0) return;
+
+        // The oldest row of the slice is the (mBackfillRowsDone + count)th row above the rows scrolled in since
+        String[] olderRows = getRowTexts(emulator, -(mBackfillRowsDone + count) - offset, count);
+        mBackfillRowsDone += count;
+        mRowsSinceCompaction += count;
+        mBackfillSlices++;
+
+        mExecutor.execute(() -> writeOlderRows(olderRows));
+        compactIfNeeded();
+        if (mBackfillRowsDone < mBackfillRowsTotal)
+            mHandler.post(mBackfillRunnable);
+    }
+
+    /** Compact the file on the worker thread once enough was appended since the last rewrite. */
+    private void compactIfNeeded() {
+        if (mRowsSinceCompaction < mMaxRows && mAppendsSinceCompaction < MAX_APPENDS_BETWEEN_COMPACTIONS) return;
+        mRowsSinceCompaction = 0;
+        mAppendsSinceCompaction = 0;
+        mExecutor.execute(this::compact);
+    }
+
+    @NonNull
+    private static String[] getRowTexts(@NonNull TerminalEmulator emulator, int firstExternalRow, int count) {
+        String[] rowTexts = new String[count];
+        for (int i = 0; i < count; i++) {
+            int externalRow = firstExternalRow + i;
+            rowTexts[i] = emulator.getScreen().getSelectedText(0, externalRow, emulator.mColumns, externalRow);
+        }
+        return rowTexts;
+    }
+
+
+
+    private void writeFull(@NonNull String[] transcriptRows, @NonNull String[] screenRows) {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            writeRecord(output, RECORD_ROWS, transcriptRows);
+            writeRecord(output, RECORD_SCREEN, screenRows);
+            output.flush();
+            mBytesWritten += output.size();
+        } catch (IOException e) {
+            onWriteFailed("Failed to write session snapshot", e);
+            return;
+        }
+
+        if (!tempFile.renameTo(mFile))
+            onWriteFailed("Failed to rename session snapshot to \"" + mFile + "\"", null);
+    }
+
+    private void writeAppend(@NonNull String[] newRows, @NonNull String[] screenRows) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)))) {
+            if (newRows.length > 0)
+                writeRecord(output, RECORD_ROWS, newRows);
+            writeRecord(output, RECORD_SCREEN, screenRows);
+            output.flush();
+            mBytesWritten += output.size();
+        } catch (IOException e) {
+            onWriteFailed("Failed to append to session snapshot", e);
+        }
+    }
+
+    private void writeOlderRows(@NonNull String[] olderRows) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)))) {
+            writeRecord(output, RECORD_OLDER_ROWS, olderRows);
+            output.flush();
+            mBytesWritten += output.size();
+        } catch (IOException e) {
+            onWriteFailed("Failed to append to session snapshot", e);
+        }
+    }
+
+    /** Rewrite the file with only the rows that fit in the transcript. Must be called on the worker thread. */
+    private void compact() {
+        RestoredState state = read(mFile);
+        if (state == null) {
+            onWriteFailed("Failed to read session snapshot to compact it", null);
+            return;
+        }
+
+        String[] transcriptRows = state.transcriptRows;
+        if (transcriptRows.length > mMaxRows)
+            transcriptRows = Arrays.copyOfRange(transcriptRows, transcriptRows.length - mMaxRows, transcriptRows.length);
+        writeFull(transcriptRows, state.screenRows);
+        mCompactionCount++;
+    }
+
+    private static void writeRecord(@NonNull DataOutputStream output, byte type, @NonNull String[] rows) throws IOException {
+        output.writeByte(type);
+        output.writeInt(rows.length);
+        for (String row : rows) {
+            byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private void onWriteFailed(@NonNull String message, @Nullable Exception e) {
+        mWriteFailures++;
+        if (e != null)
+            Logger.logStackTraceWithMessage(LOG_TAG, message, e);
+        else
+            Logger.logError(LOG_TAG, message);
+        // The file may now be incomplete, so the next snapshot must rewrite it
+        mHandler.post(() -> mEmulator = null);
+    }
+
+    private void deleteFile() {
+        if (mFile.exists() && !mFile.delete())
+            Logger.logError(LOG_TAG, "Failed to delete session snapshot \"" + mFile + "\"");
+    }
+
+
+
+    /**
+     * Read the snapshot file left by a previous service instance by memory mapping it. Should be
+     * called on a background thread.
+     *
+     * @return Returns the restored state, or {@code null} if there is no valid snapshot.
+     */
+    @Nullable
+    public static RestoredState load(@NonNull Context context) {
+        File file = getSnapshotFile(context);
+        if (!file.isFile()) return null;
+        return read(file);
+    }
+
+    @Nullable
+    private static RestoredState read(@NonNull File file) {
+        long startTime = System.currentTimeMillis();
+        List<String> transcriptRows = new ArrayList<>();
+        String[] screenRows = null;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Logger.logError(LOG_TAG, "Ignoring invalid session snapshot \"" + file + "\"");
+                return null;
+            }
+
+            try {
+                while (buffer.hasRemaining()) {
+                    byte type = buffer.get();
+                    String[] rows = readRows(buffer);
+                    if (type == RECORD_ROWS)
+                        transcriptRows.addAll(Arrays.asList(rows));
+                    else if (type == RECORD_OLDER_ROWS)
+                        transcriptRows.addAll(0, Arrays.asList(rows));
+                    else if (type == RECORD_SCREEN)
+                        screenRows = rows;
+                    else
+                        break;
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                // The last record was cut off by a kill during an append, the records before it are complete
+                Logger.logDebug(LOG_TAG, "Ignoring incomplete record at the end of the session snapshot");
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read session snapshot", e);
+            return null;
+        }
+
+        if (screenRows == null) return null;
+        return new RestoredState(transcriptRows.toArray(new String[0]), screenRows,
+            System.currentTimeMillis() - startTime);
+    }
+
+    @NonNull
+    private static String[] readRows(@NonNull MappedByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0) throw new IllegalStateException("Invalid row count " + count);
+        String[] rows = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            rows[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return rows;
+    }
+
+    /** Set the state to feed to the emulator of the first session once it is created. */
+    public void setRestoredState(@Nullable RestoredState restoredState) {
+        mRestoredState = restoredState;
+    }
+
+    /**
+     * Feed the restored rows to {@code emulator}, if any are still pending, so that the previous
+     * screen is shown above the output of the new shell. Must be called on the main thread right
+     * after the emulator was created, before the shell output is processed.
+     */
+    public void restoreInto(@NonNull TerminalEmulator emulator) {
+        RestoredState restoredState = mRestoredState;
+        if (restoredState == null) return;
+        mRestoredState = null;
+
+        long startTime = System.currentTimeMillis();
+
+        // Trailing empty screen rows are not restored, so that the new prompt follows the last output
+        int screenRowCount = restoredState.screenRows.length;
+        while (screenRowCount > 0 && restoredState.screenRows[screenRowCount - 1].trim().isEmpty())
+            screenRowCount--;
+
+        // Rows that would drop out of the transcript anyways are not fed
+        int transcriptRowCount = Math.min(restoredState.transcriptRows.length, Math.max(mMaxRows - screenRowCount, 0));
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = restoredState.transcriptRows.length - transcriptRowCount; i < restoredState.transcriptRows.length; i++)
+            builder.append(restoredState.transcriptRows[i]).append("\r\n");
+        for (int i = 0; i < screenRowCount; i++)
+            builder.append(restoredState.screenRows[i]).append("\r\n");
+
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        emulator.append(bytes, bytes.length);
+
+        mRestoredRows += transcriptRowCount + screenRowCount;
+        mLastRestoreMillis = restoredState.loadMillis + System.currentTimeMillis() - startTime;
+        Logger.logDebug(LOG_TAG, "Restored " + (transcriptRowCount + screenRowCount) + " rows from the session snapshot in " + mLastRestoreMillis + "ms");
+    }
+
+    /** Take a last snapshot and stop taking snapshots, like when the service is destroyed. */
+    public void stop() {
+        if (mDiscarded) return;
+        mHandler.removeCallbacks(mSnapshotRunnable);
+        mHandler.removeCallbacks(mBackfillRunnable);
+        snapshot();
+        mDiscarded = true;
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stop taking snapshots and delete the snapshot, like when the user exits the float window or
+     * the last session finished, so that the next start is a fresh one.
+     */
+    public void discard() {
+        if (mDiscarded) return;
+        mHandler.removeCallbacks(mSnapshotRunnable);
+        mHandler.removeCallbacks(mBackfillRunnable);
+        mDiscarded = true;
+        mRestoredState = null;
+        mExecutor.execute(this::deleteFile);
+        mExecutor.shutdown();
+    }
+
+
+
+    public long getFullWriteCount() {
+        return mFullWriteCount;
+    }
+
+    public long getAppendCount() {
+        return mAppendCount;
+    }
+
+    public long getBackfillSlices() {
+        return mBackfillSlices;
+    }
+
+    public long getCompactionCount() {
+        return mCompactionCount;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public long getWriteFailures() {
+        return mWriteFailures;
+    }
+
+    public long getRestoredRows() {
+        return mRestoredRows;
+    }
+
+    /** Get the time in milliseconds it took to read and feed the last restored snapshot. */
+    public long getLastRestoreMillis() {
+        return mLastRestoreMillis;
+    }
+
+}
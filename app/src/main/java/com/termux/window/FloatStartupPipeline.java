@@ -0,0 +1,122 @@
+package com.termux.window;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
+import com.termux.window.settings.properties.TermuxFloatAppSharedProperties;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prepares the float window dependencies that do not need the main thread in parallel on
+ * background threads, while the window is inflated and shown on the main thread.
+ *
+ * The {@link TermuxFloatAppSharedProperties} are loaded from disk on one thread and the
+ * {@link TermuxShellEnvironment} is built and its environment primed on another, while a
+ * {@link FloatSessionSnapshot} left by a previous service instance is read on a third. Once all are
+ * ready, the callback passed to {@link #whenReady(Runnable)} is run on the main thread.
+ * The session itself must still be created on the main thread since the
+ * {@link com.termux.terminal.TerminalSession} binds to the looper of the thread it is created on.
+ */
+public class FloatStartupPipeline {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(3);
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private final Future<TermuxFloatAppSharedProperties> mPropertiesFuture;
+    private final Future<TermuxShellEnvironment> mShellEnvironmentFuture;
+    private final Future<FloatSessionSnapshot.RestoredState> mSnapshotFuture;
+
+    private static final String LOG_TAG = "FloatStartupPipeline";
+
+    /** Create the pipeline and immediately start the background stages. */
+    public FloatStartupPipeline(@NonNull Context context, @NonNull FloatStartupTimings timings) {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+        mPropertiesFuture = mExecutor.submit(() -> {
+            long startTime = SystemClock.uptimeMillis();
+            TermuxFloatAppSharedProperties properties = new TermuxFloatAppSharedProperties(appContext);
+            timings.record(FloatStartupTimings.PHASE_PROPERTIES_LOAD, startTime);
+            return properties;
+        });
+
+        mShellEnvironmentFuture = mExecutor.submit(() -> {
+            long startTime = SystemClock.uptimeMillis();
+            TermuxShellEnvironment shellEnvironment = new TermuxShellEnvironment();
+            try {
+                // Prime the cached app environment, which requires package manager lookups
+                shellEnvironment.getEnvironment(appContext, false);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to prime shell environment", e);
+            }
+            timings.record(FloatStartupTimings.PHASE_SHELL_ENVIRONMENT, startTime);
+            return shellEnvironment;
+        });
+
+        mSnapshotFuture = mExecutor.submit(() -> {
+            long startTime = SystemClock.uptimeMillis();
+            FloatSessionSnapshot.RestoredState restoredState = FloatSessionSnapshot.load(appContext);
+            timings.record(FloatStartupTimings.PHASE_SNAPSHOT_LOAD, startTime);
+            return restoredState;
+        });
+    }
+
+    /** Get the future for the properties, which may be waited on if needed before {@link #whenReady(Runnable)}. */
+    @NonNull
+    public Future<TermuxFloatAppSharedProperties> getPropertiesFuture() {
+        return mPropertiesFuture;
+    }
+
+    /**
+     * Get the prepared {@link TermuxShellEnvironment}. This waits for the stage to finish, so should
+     * only be called from the {@link #whenReady(Runnable)} callback.
+     */
+    @NonNull
+    public TermuxShellEnvironment getShellEnvironment() {
+        try {
+            return mShellEnvironmentFuture.get();
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get prepared shell environment", e);
+            return new TermuxShellEnvironment();
+        }
+    }
+
+    /**
+     * Get the state read from the session snapshot, or {@code null} if there was none. This waits
+     * for the stage to finish, so should only be called from the {@link #whenReady(Runnable)} callback.
+     */
+    @Nullable
+    public FloatSessionSnapshot.RestoredState getRestoredSnapshot() {
+        try {
+            return mSnapshotFuture.get();
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get session snapshot", e);
+            return null;
+        }
+    }
+
+    /** Run {@code callback} on the main thread once all background stages have finished. */
+    public void whenReady(@NonNull Runnable callback) {
+        mExecutor.execute(() -> {
+            try {
+                mPropertiesFuture.get();
+                mShellEnvironmentFuture.get();
+                mSnapshotFuture.get();
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Background startup stage failed", e);
+            }
+            mMainThreadHandler.post(callback);
+        });
+        mExecutor.shutdown();
+    }
+
+}
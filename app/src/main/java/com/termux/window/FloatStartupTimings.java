@@ -0,0 +1,103 @@
+package com.termux.window;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings of the phases of the float window cold start, in milliseconds. Phases may be recorded
+ * from multiple threads.
+ *
+ * The bytes allocated by the process during the cold start are recorded as well, from
+ * {@link #start()} until the last milestone.
+ */
+public class FloatStartupTimings {
+
+    public static final String PHASE_SERVICE_CREATE = "service_create";
+    public static final String PHASE_INFLATE = "inflate";
+    public static final String PHASE_PROPERTIES_LOAD = "properties_load";
+    public static final String PHASE_PREFERENCES_BUILD = "preferences_build";
+    public static final String PHASE_SHELL_ENVIRONMENT = "shell_environment";
+    public static final String PHASE_SNAPSHOT_LOAD = "snapshot_load";
+    public static final String PHASE_LAUNCH_FLOATING_WINDOW = "launch_floating_window";
+    public static final String PHASE_SESSION_CREATE = "session_create";
+
+    /** The time from the start until onStartCommand() began initializing the window. */
+    public static final String MILESTONE_START_COMMAND = "start_command";
+    /** The time from the start until the window was added to the window manager. */
+    public static final String MILESTONE_WINDOW_SHOWN = "window_shown";
+    /** The time from the start until the session was attached to the terminal view. */
+    public static final String MILESTONE_SESSION_ATTACHED = "session_attached";
+
+    private final Map<String, Long> mTimings = new LinkedHashMap<>();
+
+    private long mStartTime;
+
+    /** The bytes allocated by the process when the cold start started, or -1 if not known. */
+    private long mStartAllocatedBytes = -1;
+    private long mAllocatedBytes = -1;
+
+    /** Reset the timings and set the start time of the cold start to now. */
+    public synchronized void start() {
+        mTimings.clear();
+        mStartTime = SystemClock.uptimeMillis();
+        mStartAllocatedBytes = getProcessAllocatedBytes();
+        mAllocatedBytes = -1;
+    }
+
+    /** Record the duration of {@code phase} that started at {@code phaseStartTime}, from {@link SystemClock#uptimeMillis()}. */
+    public synchronized void record(@NonNull String phase, long phaseStartTime) {
+        mTimings.put(phase, SystemClock.uptimeMillis() - phaseStartTime);
+    }
+
+    /** Record the time elapsed since {@link #start()} as {@code milestone}. */
+    public synchronized void mark(@NonNull String milestone) {
+        mTimings.put(milestone, SystemClock.uptimeMillis() - mStartTime);
+        long allocatedBytes = getProcessAllocatedBytes();
+        if (mStartAllocatedBytes >= 0 && allocatedBytes >= 0)
+            mAllocatedBytes = allocatedBytes - mStartAllocatedBytes;
+    }
+
+    /** Get the bytes allocated by all threads of the process so far, or -1 if not known. */
+    private static long getProcessAllocatedBytes() {
+        String allocatedBytes = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        if (allocatedBytes == null) return -1;
+        try {
+            return Long.parseLong(allocatedBytes);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Get a copy of the recorded timings in the order they were recorded. */
+    @NonNull
+    public synchronized Map<String, Long> getTimings() {
+        return new LinkedHashMap<>(mTimings);
+    }
+
+    /**
+     * Get the bytes allocated by the process from {@link #start()} until the last milestone, or -1
+     * if not known.
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : mTimings.entrySet()) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(entry.getKey()).append("=").append(entry.getValue()).append("ms");
+        }
+        if (mAllocatedBytes >= 0)
+            builder.append(", allocated=").append(mAllocatedBytes / 1024).append("KiB");
+        return builder.toString();
+    }
+
+}
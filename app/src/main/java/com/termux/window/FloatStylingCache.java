@@ -0,0 +1,194 @@
+package com.termux.window;
+
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache for the parsed colors properties and the loaded typeface of the terminal.
+ *
+ * Entries are keyed by file path, size and modification time. If neither file changed since the
+ * last load, nothing is parsed or loaded. Otherwise the changed files are loaded on a background
+ * thread and the result is delivered to the {@link StylingClient} on the main thread.
+ */
+public class FloatStylingCache {
+
+    /** The client that applies loaded styling. All methods are called on the main thread. */
+    public interface StylingClient {
+
+        /** Called when the colors file changed and was parsed. */
+        void onColorsLoaded(@NonNull Properties colors);
+
+        /** Called when the font file changed and the typeface was loaded. */
+        void onTypefaceLoaded(@NonNull Typeface typeface);
+
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    /** The key of the colors file last requested to be loaded. Only accessed on main thread. */
+    private FileKey mColorsKey;
+    /** The key of the font file last requested to be loaded. Only accessed on main thread. */
+    private FileKey mFontKey;
+
+    @Nullable private Typeface mTypeface;
+
+    private long mHitCount;
+    private long mMissCount;
+    private volatile long mLastLoadTimeMillis;
+    private volatile long mTotalLoadTimeMillis;
+
+    private static final String LOG_TAG = "FloatStylingCache";
+
+    /**
+     * Load the colors and font files if they changed since the last call. Must be called on the
+     * main thread.
+     *
+     * @return Returns {@code true} if both files were unchanged and nothing needs to be loaded,
+     * otherwise {@code false} if a background load was started.
+     */
+    public boolean load(@NonNull File colorsFile, @NonNull File fontFile, @NonNull StylingClient client) {
+        final FileKey colorsKey = FileKey.of(colorsFile);
+        final FileKey fontKey = FileKey.of(fontFile);
+
+        final boolean colorsChanged = !colorsKey.equals(mColorsKey);
+        final boolean fontChanged = !fontKey.equals(mFontKey);
+        if (!colorsChanged && !fontChanged) {
+            mHitCount++;
+            return true;
+        }
+
+        mMissCount++;
+        mColorsKey = colorsKey;
+        mFontKey = fontKey;
+
+        mExecutor.execute(() -> {
+            long startTime = SystemClock.uptimeMillis();
+
+            Properties colors = null;
+            if (colorsChanged) {
+                colors = new Properties();
+                if (colorsFile.isFile()) {
+                    try (InputStream in = new FileInputStream(colorsFile)) {
+                        colors.load(in);
+                    } catch (Exception e) {
+                        Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load colors file", e);
+                    }
+                }
+            }
+
+            Typeface typeface = null;
+            if (fontChanged) {
+                try {
+                    typeface = fontKey.exists && fontKey.length > 0 ? Typeface.createFromFile(fontFile) : Typeface.MONOSPACE;
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load font file", e);
+                    typeface = Typeface.MONOSPACE;
+                }
+            }
+
+            mLastLoadTimeMillis = SystemClock.uptimeMillis() - startTime;
+            mTotalLoadTimeMillis += mLastLoadTimeMillis;
+
+            final Properties loadedColors = colors;
+            final Typeface loadedTypeface = typeface;
+            mMainThreadHandler.post(() -> {
+                if (loadedColors != null)
+                    client.onColorsLoaded(loadedColors);
+                if (loadedTypeface != null) {
+                    mTypeface = loadedTypeface;
+                    client.onTypefaceLoaded(loadedTypeface);
+                }
+            });
+        });
+
+        return false;
+    }
+
+    /**
+     * Stop the background thread and drop the loads not delivered yet, like when the float window
+     * is closed. The cache must not be used afterwards.
+     */
+    public void release() {
+        mExecutor.shutdownNow();
+        mMainThreadHandler.removeCallbacksAndMessages(null);
+    }
+
+    /** Get the last loaded typeface, or {@code null} if not loaded yet. */
+    @Nullable
+    public Typeface getTypeface() {
+        return mTypeface;
+    }
+
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    public long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Get the time taken by the last background load in milliseconds. */
+    public long getLastLoadTimeMillis() {
+        return mLastLoadTimeMillis;
+    }
+
+    /** Get the total time taken by all background loads in milliseconds. */
+    public long getTotalLoadTimeMillis() {
+        return mTotalLoadTimeMillis;
+    }
+
+
+
+    /** The cache key of a file. */
+    private static class FileKey {
+
+        final String path;
+        final boolean exists;
+        final long length;
+        final long lastModified;
+
+        private FileKey(String path, boolean exists, long length, long lastModified) {
+            this.path = path;
+            this.exists = exists;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        static FileKey of(@NonNull File file) {
+            boolean exists = file.isFile();
+            return new FileKey(file.getAbsolutePath(), exists, exists ? file.length() : 0, exists ? file.lastModified() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileKey)) return false;
+            FileKey other = (FileKey) o;
+            return exists == other.exists && length == other.length &&
+                lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, exists, length, lastModified);
+        }
+
+    }
+
+}
@@ -0,0 +1,465 @@
+package com.termux.window;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.WcWidth;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A search index over the transcript rows of a {@link TerminalEmulator}, maintained incrementally.
+ *
+ * Transcript rows do not change once they have scrolled off the screen, so each row is only copied
+ * once on the main thread, right after it scrolled, and then indexed on a worker thread. Rows are
+ * identified by an absolute row number that does not change as more rows scroll, which is the
+ * external row number plus the number of rows scrolled since the index was built. Rows are stored
+ * in a ring sized to the transcript, together with a bitmask of the case folded chars they contain,
+ * so that most rows can be skipped without comparing chars. The ring is a copy of the text of the
+ * transcript, so the index takes about as much memory as the transcript text itself while it exists,
+ * which is why it is only created when search is first used, unless the archive is enabled, see
+ * {@link FloatSearchController}.
+ *
+ * The index is rebuilt from the whole transcript only when it is first used, and when the emulator
+ * changes, is resized or its transcript is cleared.
+ *
+ * If an archive is enabled, rows dropping out of the transcript are moved to a
+ * {@link FloatColdTranscript} search archive of compressed blocks, so that deeper history than the
+ * emulator keeps can still be searched. The archive does not extend the transcript. Archived rows
+ * can not be scrolled to, since the emulator no longer has them, so the text of archived matches is
+ * returned instead.
+ *
+ * The emulator scroll counter is used to find the rows that scrolled, so {@link #update(TerminalEmulator)}
+ * must be called before it is cleared by {@link com.termux.view.TerminalView#onScreenUpdated()}
+ * followed by {@link #onScrollCounterCleared()}.
+ */
+public class FloatTranscriptIndex {
+
+    /** The max number of matches returned for a search. */
+    public static final int MAX_MATCHES = 1000;
+
+    /** The result of a search. Matches are ordered from the bottom of the screen to the oldest row. */
+    public static class SearchResult {
+
+        public final String query;
+        /** The absolute row numbers of the matches in the transcript and screen. */
+        public final long[] rows;
+        /** The first columns of the matches in the transcript and screen. */
+        public final int[] columns;
+        /** The widths in columns of the matches in the transcript and screen, which differ from the
+         * query length for wide and combining chars. */
+        public final int[] widths;
+        /** The number of matches in the transcript and screen. */
+        public final int count;
+        /** The row texts of the matches in the archive, which are older than all other matches. */
+        public final String[] archivedTexts;
+        /** The number of matches in the archive. */
+        public final int archivedCount;
+        public final long searchNanos;
+
+        SearchResult(String query, long[] rows, int[] columns, int[] widths, int count, String[] archivedTexts,
+                     int archivedCount, long searchNanos) {
+            this.query = query;
+            this.rows = rows;
+            this.columns = columns;
+            this.widths = widths;
+            this.count = count;
+            this.archivedTexts = archivedTexts;
+            this.archivedCount = archivedCount;
+            this.searchNanos = searchNanos;
+        }
+
+        /** Get the total number of matches, including the archived ones. */
+        public int getTotalCount() {
+            return count + archivedCount;
+        }
+
+    }
+
+    /** The client notified of search results on the main thread. */
+    public interface SearchClient {
+
+        void onSearchFinished(@NonNull SearchResult result);
+
+    }
+
+    /** The max number of rows in the ring, which is the max number of transcript rows of the emulator. */
+    private final int mCapacity;
+
+    /** The single thread executor shared by the indexes of all sessions. */
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /* The state only accessed on the main thread. */
+
+    private TerminalEmulator mEmulator;
+    private int mColumns;
+    private int mRows;
+    /** The number of rows scrolled since the index was built, including {@link #mConsumedScrollCount}. */
+    private long mScrolledTotal;
+    /** The part of the current emulator scroll counter already added to {@link #mScrolledTotal}. */
+    private int mConsumedScrollCount;
+    /** The active transcript rows at the last update, which never decreases unless the transcript was cleared. */
+    private int mLastActiveTranscriptRows;
+    /** The generation of the index, incremented on every rebuild so that stale searches are ignored. */
+    private int mGeneration;
+
+    private long mRowsIndexed;
+    private long mRebuildCount;
+    private long mLastSearchNanos;
+
+    /* The state only accessed on the worker thread. */
+
+    /** The archive of the rows that dropped out of the transcript, or {@code null} if disabled. */
+    private final FloatColdTranscript mColdTranscript;
+
+    private String[] mRowTexts = new String[0];
+    private long[] mRowMasks = new long[0];
+    /** The absolute row number of the oldest row in the ring. */
+    private long mFirstRow;
+    /** The index in the ring arrays of the oldest row. */
+    private int mRingStart;
+    /** The number of rows in the ring. */
+    private int mRowCount;
+
+    private static final String LOG_TAG = "FloatTranscriptIndex";
+
+    /**
+     * @param transcriptRows The {@code terminal-transcript-rows} the emulators are created with.
+     * @param archiveRows The max number of rows to archive after they dropped out of the
+     *                    transcript, or {@code 0} to disable the archive.
+     * @param executor The single thread executor to index and search on.
+     */
+    public FloatTranscriptIndex(int transcriptRows, int archiveRows, @NonNull ExecutorService executor) {
+        mCapacity = Math.max(transcriptRows, 1);
+        mColdTranscript = archiveRows > 0 ? new FloatColdTranscript(archiveRows) : null;
+        mExecutor = executor;
+    }
+
+    /**
+     * Update the index with the rows scrolled into the transcript of {@code emulator} since the
+     * last call, or rebuild it if required. Must be called on the main thread.
+     */
+    public void update(@NonNull TerminalEmulator emulator) {
+        TerminalBuffer screen = emulator.getScreen();
+        int activeTranscriptRows = screen.getActiveTranscriptRows();
+
+        if (emulator != mEmulator || emulator.mColumns != mColumns || emulator.mRows != mRows) {
+            rebuild(emulator, false);
+            return;
+        } else if (activeTranscriptRows < mLastActiveTranscriptRows) {
+            rebuild(emulator, true);
+            return;
+        }
+
+        int scrolled = emulator.getScrollCounter() - mConsumedScrollCount;
+        if (scrolled <= 0) return;
+
+        int newRows = Math.min(scrolled, activeTranscriptRows);
+        String[] rowTexts = new String[newRows];
+        for (int i = 0; i < newRows; i++)
+            rowTexts[i] = getRowText(emulator, i - newRows);
+
+        mConsumedScrollCount += scrolled;
+        mScrolledTotal += scrolled;
+        mLastActiveTranscriptRows = activeTranscriptRows;
+        mRowsIndexed += newRows;
+
+        final long firstRow = mScrolledTotal - newRows;
+        mExecutor.execute(() -> appendRows(firstRow, rowTexts));
+    }
+
+    /** Should be called on the main thread right after the emulator scroll counter was cleared. */
+    public void onScrollCounterCleared() {
+        mConsumedScrollCount = 0;
+    }
+
+    private void rebuild(@NonNull TerminalEmulator emulator, boolean transcriptCleared) {
+        mEmulator = emulator;
+        mColumns = emulator.mColumns;
+        mRows = emulator.mRows;
+        mScrolledTotal = 0;
+        mConsumedScrollCount = emulator.getScrollCounter();
+        mGeneration++;
+        mRebuildCount++;
+
+        int activeTranscriptRows = emulator.getScreen().getActiveTranscriptRows();
+        mLastActiveTranscriptRows = activeTranscriptRows;
+        mRowsIndexed += activeTranscriptRows;
+
+        String[] rowTexts = new String[activeTranscriptRows];
+        for (int i = 0; i < activeTranscriptRows; i++)
+            rowTexts[i] = getRowText(emulator, i - activeTranscriptRows);
+
+        final long firstRow = -activeTranscriptRows;
+        mExecutor.execute(() -> {
+            // The rows still in the transcript are indexed again and must not be archived
+            if (mRowCount > 0) clearRows();
+            if (transcriptCleared && mColdTranscript != null) mColdTranscript.clear();
+            appendRows(firstRow, rowTexts);
+        });
+    }
+
+    /**
+     * Search the transcript and screen rows of {@code emulator} for {@code query}, ignoring case.
+     * The index is updated first. The result is delivered to {@code client} on the main thread.
+     */
+    public void search(@NonNull TerminalEmulator emulator, @NonNull String query, @NonNull SearchClient client) {
+        update(emulator);
+
+        // The screen rows may still change, so they are searched from a copy taken now
+        String[] screenRowTexts = new String[emulator.mRows];
+        for (int i = 0; i < screenRowTexts.length; i++)
+            screenRowTexts[i] = getRowText(emulator, i);
+
+        final int generation = mGeneration;
+        final long screenFirstRow = mScrolledTotal;
+        final long oldestRow = mScrolledTotal - mLastActiveTranscriptRows;
+        mExecutor.execute(() -> {
+            SearchResult result = searchRows(query, screenRowTexts, screenFirstRow, oldestRow);
+            mHandler.post(() -> {
+                if (generation != mGeneration) return;
+                mLastSearchNanos = result.searchNanos;
+                client.onSearchFinished(result);
+            });
+        });
+    }
+
+    /**
+     * Get the external row number of the absolute row number {@code row}, or
+     * {@link Integer#MIN_VALUE} if the row is no longer in the transcript.
+     */
+    public int getExternalRow(@NonNull TerminalEmulator emulator, long row) {
+        if (emulator != mEmulator) return Integer.MIN_VALUE;
+        long pending = emulator.getScrollCounter() - mConsumedScrollCount;
+        long externalRow = row - mScrolledTotal - pending;
+        if (externalRow < -emulator.getScreen().getActiveTranscriptRows() || externalRow >= emulator.mRows)
+            return Integer.MIN_VALUE;
+        return (int) externalRow;
+    }
+
+    /**
+     * Drop the archived rows, like under memory pressure.
+     *
+     * @return Returns {@code true} if the archive is enabled.
+     */
+    public boolean clearArchive() {
+        if (mColdTranscript == null) return false;
+        mExecutor.execute(mColdTranscript::clear);
+        return true;
+    }
+
+    /** Release the archive, like when the session is removed. */
+    public void release() {
+        if (mColdTranscript != null)
+            mExecutor.execute(mColdTranscript::release);
+    }
+
+    private static String getRowText(@NonNull TerminalEmulator emulator, int externalRow) {
+        return emulator.getScreen().getSelectedText(0, externalRow, emulator.mColumns, externalRow);
+    }
+
+    /**
+     * Get the bit of the char bitmask for {@code c}. Chars are case folded the way
+     * {@link String#regionMatches(boolean, int, String, int, int)} compares them, so that chars
+     * that match ignoring case have the same bit.
+     */
+    private static long getCharMask(char c) {
+        return 1L << (foldCase(c) & 63);
+    }
+
+    /** Get the bitmask of the case folded chars of {@code text}. */
+    static long getTextMask(@NonNull String text) {
+        long mask = 0;
+        for (int i = 0; i < text.length(); i++)
+            mask |= getCharMask(text.charAt(i));
+        return mask;
+    }
+
+
+
+    /** Append rows to the ring, dropping the oldest rows if it is full. Called on the worker. */
+    void appendRows(long firstRow, String[] rowTexts) {
+        if (mRowTexts.length != mCapacity) {
+            mRowTexts = new String[mCapacity];
+            mRowMasks = new long[mCapacity];
+            mRowCount = 0;
+        }
+
+        // Rows are contiguous, unless more rows scrolled at once than the transcript holds, in
+        // which case all rows in the ring dropped out of the transcript
+        if (mRowCount > 0 && firstRow != mFirstRow + mRowCount) {
+            if (mColdTranscript != null) {
+                for (int i = 0; i < mRowCount; i++)
+                    mColdTranscript.addRow(mRowTexts[getRingIndex(i)], mRowMasks[getRingIndex(i)]);
+            }
+            clearRows();
+        }
+        if (mRowCount == 0) {
+            mFirstRow = firstRow;
+            mRingStart = 0;
+        }
+
+        for (String rowText : rowTexts) {
+            if (mRowCount == mCapacity) {
+                if (mColdTranscript != null)
+                    mColdTranscript.addRow(mRowTexts[mRingStart], mRowMasks[mRingStart]);
+                mRowTexts[mRingStart] = null;
+                mRingStart = (mRingStart + 1) % mCapacity;
+                mRowCount--;
+                mFirstRow++;
+            }
+            int index = getRingIndex(mRowCount);
+            mRowTexts[index] = rowText;
+            mRowMasks[index] = getTextMask(rowText);
+            mRowCount++;
+        }
+    }
+
+    /** Remove all rows from the ring. Called on the worker. */
+    private void clearRows() {
+        for (int i = 0; i < mRowCount; i++)
+            mRowTexts[getRingIndex(i)] = null;
+        mRowCount = 0;
+        mRingStart = 0;
+    }
+
+    private int getRingIndex(int offset) {
+        return (mRingStart + offset) % mRowTexts.length;
+    }
+
+    /** Search the screen rows and then the ring from the newest to the oldest row. Called on the worker. */
+    SearchResult searchRows(String query, String[] screenRowTexts, long screenFirstRow, long oldestRow) {
+        long startTime = System.nanoTime();
+        long[] rows = new long[MAX_MATCHES];
+        int[] columns = new int[MAX_MATCHES];
+        int[] widths = new int[MAX_MATCHES];
+        int count = 0;
+        String[] archivedTexts = null;
+        int archivedCount = 0;
+
+        if (!query.isEmpty()) {
+            long queryMask = getTextMask(query);
+
+            for (int i = screenRowTexts.length - 1; i >= 0 && count < MAX_MATCHES; i--)
+                count = searchRow(screenRowTexts[i], screenFirstRow + i, query, rows, columns, widths, count);
+
+            for (int i = mRowCount - 1; i >= 0 && count < MAX_MATCHES; i--) {
+                long row = mFirstRow + i;
+                if (row >= screenFirstRow) continue;
+                if (row < oldestRow) break;
+
+                int index = getRingIndex(i);
+                if ((mRowMasks[index] & queryMask) != queryMask) continue;
+                count = searchRow(mRowTexts[index], row, query, rows, columns, widths, count);
+            }
+
+            if (mColdTranscript != null && count < MAX_MATCHES) {
+                archivedTexts = new String[MAX_MATCHES - count];
+                archivedCount = mColdTranscript.search(query, queryMask, archivedTexts, 0);
+            }
+        }
+
+        long searchNanos = System.nanoTime() - startTime;
+        Logger.logVerbose(LOG_TAG, "Found " + count + " matches and " + archivedCount + " archived matches in " + (searchNanos / 1000) + "us");
+        return new SearchResult(query, rows, columns, widths, count, archivedTexts, archivedCount, searchNanos);
+    }
+
+    /** Add the matches in a row, from the last to the first, ignoring case. */
+    private static int searchRow(String rowText, long row, String query, long[] rows, int[] columns, int[] widths, int count) {
+        int start = lastIndexOfIgnoreCase(rowText, query, Integer.MAX_VALUE);
+        while (start >= 0 && count < MAX_MATCHES) {
+            int column = getColumn(rowText, 0, start);
+            rows[count] = row;
+            columns[count] = column;
+            widths[count] = getColumn(rowText, start, start + query.length());
+            count++;
+            start = start == 0 ? -1 : lastIndexOfIgnoreCase(rowText, query, start - 1);
+        }
+        return count;
+    }
+
+    /**
+     * Get the column of the char at {@code charIndex} in the text of a row, which is the sum of the
+     * {@link WcWidth} of the code points before it, since wide chars take two columns and combining
+     * chars none.
+     */
+    static int getColumn(@NonNull String rowText, int charIndex) {
+        return getColumn(rowText, 0, charIndex);
+    }
+
+    /** Get the number of columns taken by the chars from {@code startIndex} to {@code endIndex} of a row. */
+    private static int getColumn(@NonNull String rowText, int startIndex, int endIndex) {
+        int column = 0;
+        for (int i = startIndex; i < endIndex; ) {
+            char c = rowText.charAt(i);
+            // Printable ASCII chars take one column, which is the common case
+            if (c >= 0x20 && c < 0x7F) {
+                column++;
+                i++;
+                continue;
+            }
+            int codePoint = rowText.codePointAt(i);
+            column += Math.max(0, WcWidth.width(codePoint));
+            i += Character.charCount(codePoint);
+        }
+        return column;
+    }
+
+    /**
+     * Get the char index of the last match of {@code query} in {@code text} that starts at or
+     * before {@code fromIndex}, ignoring case, or {@code -1} if there is none. Unlike lower casing
+     * both strings, this keeps the indexes of {@code text}, even for chars whose lower case has a
+     * different length.
+     */
+    static int lastIndexOfIgnoreCase(@NonNull String text, @NonNull String query, int fromIndex) {
+        int queryLength = query.length();
+        if (queryLength == 0) return Math.min(fromIndex, text.length());
+
+        // Only compare the whole query where the first char matches, which is checked without
+        // calling regionMatches() for the usual ASCII chars
+        char first = query.charAt(0);
+        char firstFolded = foldCase(first);
+        for (int i = Math.min(fromIndex, text.length() - queryLength); i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c != first && foldCase(c) != firstFolded) continue;
+            if (text.regionMatches(true, i, query, 0, queryLength))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Fold the case of {@code c} the way {@link String#regionMatches(boolean, int, String, int, int)}
+     * compares chars, so chars that match ignoring case are folded to the same char.
+     */
+    private static char foldCase(char c) {
+        if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+
+
+    public long getRowsIndexed() {
+        return mRowsIndexed;
+    }
+
+    public long getRebuildCount() {
+        return mRebuildCount;
+    }
+
+    public long getLastSearchNanos() {
+        return mLastSearchNanos;
+    }
+
+    /** Get the archive of the rows that dropped out of the transcript, or {@code null} if disabled. */
+    public FloatColdTranscript getColdTranscript() {
+        return mColdTranscript;
+    }
+
+}
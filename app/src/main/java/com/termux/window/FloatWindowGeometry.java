@@ -0,0 +1,179 @@
+package com.termux.window;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import com.termux.shared.termux.settings.preferences.TermuxFloatAppSharedPreferences;
+import com.termux.shared.termux.settings.preferences.TermuxPreferenceConstants.TERMUX_FLOAT_APP;
+
+/**
+ * In-memory store for the float window position and size.
+ *
+ * The geometry is updated on every drag and pinch-resize step but only written to its
+ * {@link Store} when {@link #flush()} is called at the end of the gesture, including a cancelled
+ * one, or when the service is destroyed. The {@link TermuxFloatAppSharedPreferences} store writes
+ * all values in a single {@link SharedPreferences.Editor} transaction so that a crash can never
+ * leave a half updated geometry on disk.
+ */
+public class FloatWindowGeometry {
+
+    /** Reads and writes the persisted geometry. */
+    public interface Store {
+
+        int getX();
+
+        int getY();
+
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * Write the geometry.
+         *
+         * @return Returns {@code true} if it was written, otherwise {@code false}.
+         */
+        boolean write(int x, int y, int width, int height);
+
+    }
+
+    @Nullable private final Store mStore;
+
+    private int mX;
+    private int mY;
+    private int mWidth;
+    private int mHeight;
+
+    /** If the in-memory geometry differs from the one last written to the store. */
+    private boolean mDirty;
+
+    private long mUpdateCount;
+    private long mPreferenceWriteCount;
+
+    public FloatWindowGeometry(@Nullable TermuxFloatAppSharedPreferences preferences) {
+        this(preferences != null ? new PreferencesStore(preferences) : null);
+    }
+
+    public FloatWindowGeometry(@Nullable Store store) {
+        mStore = store;
+        if (mStore != null) {
+            mX = mStore.getX();
+            mY = mStore.getY();
+            mWidth = mStore.getWidth();
+            mHeight = mStore.getHeight();
+        }
+    }
+
+    /** Set the window position. This does not write to preferences. */
+    public void setPosition(int x, int y) {
+        if (x == mX && y == mY) return;
+        mX = x;
+        mY = y;
+        mDirty = true;
+        mUpdateCount++;
+    }
+
+    /** Set the window size. This does not write to preferences. */
+    public void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) return;
+        mWidth = width;
+        mHeight = height;
+        mDirty = true;
+        mUpdateCount++;
+    }
+
+    /**
+     * Write the current geometry to the store if it changed since the last flush.
+     *
+     * @return Returns {@code true} if it was written, otherwise {@code false}.
+     */
+    public boolean flush() {
+        if (!mDirty || mStore == null) return false;
+        if (!mStore.write(mX, mY, mWidth, mHeight)) return false;
+
+        mDirty = false;
+        mPreferenceWriteCount++;
+        return true;
+    }
+
+
+
+    /** The {@link Store} that reads and writes the geometry in {@link TermuxFloatAppSharedPreferences}. */
+    private static class PreferencesStore implements Store {
+
+        private final TermuxFloatAppSharedPreferences mPreferences;
+
+        PreferencesStore(TermuxFloatAppSharedPreferences preferences) {
+            mPreferences = preferences;
+        }
+
+        @Override
+        public int getX() {
+            return mPreferences.getWindowX();
+        }
+
+        @Override
+        public int getY() {
+            return mPreferences.getWindowY();
+        }
+
+        @Override
+        public int getWidth() {
+            return mPreferences.getWindowWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mPreferences.getWindowHeight();
+        }
+
+        @Override
+        public boolean write(int x, int y, int width, int height) {
+            SharedPreferences sharedPreferences = mPreferences.getSharedPreferences();
+            if (sharedPreferences == null) return false;
+
+            sharedPreferences.edit()
+                .putInt(TERMUX_FLOAT_APP.KEY_WINDOW_X, x)
+                .putInt(TERMUX_FLOAT_APP.KEY_WINDOW_Y, y)
+                .putInt(TERMUX_FLOAT_APP.KEY_WINDOW_WIDTH, width)
+                .putInt(TERMUX_FLOAT_APP.KEY_WINDOW_HEIGHT, height)
+                .apply();
+            return true;
+        }
+
+    }
+
+
+
+    public int getX() {
+        return mX;
+    }
+
+    public int getY() {
+        return mY;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean isDirty() {
+        return mDirty;
+    }
+
+    /** Get the number of in-memory geometry updates. */
+    public long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /** Get the number of times the geometry was written to the store. */
+    public long getPreferenceWriteCount() {
+        return mPreferenceWriteCount;
+    }
+
+}
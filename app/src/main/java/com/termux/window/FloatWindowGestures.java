@@ -0,0 +1,326 @@
+package com.termux.window;
+
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+/**
+ * Handles the drag, pinch-resize, tap, focus and bubble gestures of the float window on the
+ * {@link WindowManager.LayoutParams} of {@link TermuxFloatView}, which delegates its touch events
+ * and focus changes here.
+ *
+ * Window relayouts go through the {@link FloatWindowLayoutUpdater}, the position and size through
+ * the {@link FloatWindowGeometry} and soft keyboard requests through the {@link GestureTarget}, so
+ * that each of them can be counted per gesture.
+ */
+public class FloatWindowGestures {
+
+    /** The window the gestures are done on, which is {@link TermuxFloatView} outside of tests. */
+    public interface GestureTarget {
+
+        /** Set the alpha of the window. */
+        void setWindowAlpha(float alpha);
+
+        /** Should be called when the window starts or stops moving, like to show the resize background. */
+        void onLongPressModeChanged(boolean isInLongPressState);
+
+        /** Should be called when the window gains or loses focus, like to update the refresh policy. */
+        void onFocusChanged(boolean hasFocus);
+
+        /** Restore the window from the bubble, which calls {@link #onRestore()}. */
+        void displayAsFloatingWindow();
+
+        /** Post showing the soft keyboard for the terminal view. */
+        void showTouchKeyboard();
+
+        /** Post hiding the soft keyboard of the terminal view. */
+        void hideTouchKeyboard();
+
+        void toggleSoftKeyboard();
+
+    }
+
+    /** The min width and height the window can be pinch-resized to. */
+    static final int MIN_SIZE = 50;
+
+    private final GestureTarget mTarget;
+    private final WindowManager.LayoutParams mLayoutParams;
+    private final FloatWindowLayoutUpdater mLayoutUpdater;
+    @Nullable private FloatWindowGeometry mGeometry;
+
+    private int mDisplayWidth;
+    private int mDisplayHeight;
+
+    private boolean mHasFocus = true;
+    private boolean mIsInLongPressState;
+    private boolean mIsMinimized;
+
+    private int mInitialX;
+    private int mInitialY;
+    private float mInitialTouchX;
+    private float mInitialTouchY;
+
+    // preserve original layout values so we can restore to normal window from our bubble
+    private int mOriginalLayoutWidth;
+    private int mOriginalLayoutHeight;
+    private boolean mDidCaptureOriginalValues;
+
+    /** The depth of the gestures in progress, since restoring from the bubble is nested in a tap. */
+    private int mGestureDepth;
+    private long mSoftKeyboardRequestCount;
+    private long mGestureCount;
+    private long mGestureStartPreferenceWriteCount;
+    private long mGestureStartSoftKeyboardRequestCount;
+    private long mLastGesturePreferenceWriteCount;
+    private long mLastGestureSoftKeyboardRequestCount;
+
+    private static final String LOG_TAG = "FloatWindowGestures";
+
+    public FloatWindowGestures(@NonNull GestureTarget target, @NonNull WindowManager.LayoutParams layoutParams,
+                               @NonNull FloatWindowLayoutUpdater layoutUpdater) {
+        mTarget = target;
+        mLayoutParams = layoutParams;
+        mLayoutUpdater = layoutUpdater;
+    }
+
+    static int computeLayoutFlags(boolean withFocus) {
+        if (withFocus) {
+            return 0;
+        } else {
+            return WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL | WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+        }
+    }
+
+    /** Set the {@link FloatWindowGeometry} the position and size are stored in. */
+    public void setGeometry(@Nullable FloatWindowGeometry geometry) {
+        mGeometry = geometry;
+    }
+
+    /** Set the display size the window is kept within while dragged. */
+    public void setDisplaySize(int displayWidth, int displayHeight) {
+        mDisplayWidth = displayWidth;
+        mDisplayHeight = displayHeight;
+    }
+
+    /**
+     * Start moving the window, like on long press on the terminal view or bubble.
+     *
+     * @param windowX The x position of the window on screen.
+     * @param windowY The y position of the window on screen.
+     * @param touchX The raw x position of the touch.
+     * @param touchY The raw y position of the touch.
+     */
+    public void onLongPress(int windowX, int windowY, float touchX, float touchY) {
+        onGestureStart();
+        updateLongPressMode(true);
+        mInitialX = windowX;
+        mInitialY = windowY;
+        mInitialTouchX = touchX;
+        mInitialTouchY = touchY;
+    }
+
+    /** Should be called on {@code ACTION_MOVE} while in long-press state and not scaling. */
+    public void onDrag(float touchX, float touchY) {
+        // Only the latest sample of the batched historical samples is used, since the window is
+        // relaid out at most once per frame anyways
+        mLayoutParams.x = Math.min(mDisplayWidth - mLayoutParams.width, Math.max(0, mInitialX + (int) (touchX - mInitialTouchX)));
+        mLayoutParams.y = Math.min(mDisplayHeight - mLayoutParams.height, Math.max(0, mInitialY + (int) (touchY - mInitialTouchY)));
+        mLayoutUpdater.requestUpdate();
+        if (mGeometry != null)
+            mGeometry.setPosition(mLayoutParams.x, mLayoutParams.y);
+    }
+
+    /** Should be called on each scale step of a pinch-resize with the change of the spans. */
+    public void onScale(int widthChange, int heightChange) {
+        mLayoutParams.width = Math.max(MIN_SIZE, mLayoutParams.width + widthChange);
+        mLayoutParams.height = Math.max(MIN_SIZE, mLayoutParams.height + heightChange);
+        mLayoutUpdater.requestUpdate();
+        if (mGeometry != null)
+            mGeometry.setSize(mLayoutParams.width, mLayoutParams.height);
+    }
+
+    /** Should be called when a pinch-resize ends. */
+    public void onScaleEnd() {
+        if (mGeometry != null)
+            mGeometry.flush();
+    }
+
+    /** Should be called on {@code ACTION_UP} or {@code ACTION_CANCEL} while in long-press state. */
+    public void onLongPressEnd() {
+        // A cancelled gesture still moved the window, so its geometry is kept as well
+        updateLongPressMode(false);
+        mLayoutUpdater.onGestureEnd();
+        if (mGeometry != null)
+            mGeometry.flush();
+        onGestureEnd();
+    }
+
+    private void updateLongPressMode(boolean newValue) {
+        mIsInLongPressState = newValue;
+        if (newValue)
+            mLayoutUpdater.onGestureStart();
+        mTarget.onLongPressModeChanged(newValue);
+        mTarget.setWindowAlpha(newValue ? TermuxFloatView.ALPHA_MOVING : (mHasFocus ? TermuxFloatView.ALPHA_FOCUS : TermuxFloatView.ALPHA_NOT_FOCUS));
+    }
+
+    /** Should be called on {@code ACTION_DOWN} outside of the window, which loses focus. */
+    public void onTouchDownOutside() {
+        onGestureStart();
+        changeFocus(false);
+        onGestureEnd();
+    }
+
+    /** Should be called on {@code ACTION_UP} inside of the window, which gains focus and shows the soft keyboard. */
+    public void onTapInside() {
+        onGestureStart();
+        boolean hadFocus = mHasFocus;
+        // Already requests the soft keyboard if the window had focus
+        changeFocus(true);
+        if (!hadFocus)
+            showTouchKeyboard();
+        onGestureEnd();
+    }
+
+    /**
+     * Visually indicate focus and show the soft input as needed. The window is restored from the
+     * bubble if it gains focus while minimized.
+     */
+    public void changeFocus(boolean newFocus) {
+        boolean restore = newFocus && mIsMinimized;
+        if (newFocus == mHasFocus) {
+            if (restore) mTarget.displayAsFloatingWindow();
+            if (newFocus) showTouchKeyboard();
+            return;
+        }
+        setFocus(newFocus);
+        // Restoring relays out the window with the new flags as well
+        if (restore)
+            mTarget.displayAsFloatingWindow();
+        else
+            mLayoutUpdater.updateNow();
+    }
+
+    private void setFocus(boolean newFocus) {
+        mHasFocus = newFocus;
+        mLayoutParams.flags = computeLayoutFlags(mHasFocus);
+        mTarget.setWindowAlpha(newFocus ? TermuxFloatView.ALPHA_FOCUS : TermuxFloatView.ALPHA_NOT_FOCUS);
+        mTarget.onFocusChanged(newFocus);
+    }
+
+    /**
+     * Should be called when the window is minimized to a bubble of {@code bubbleSize}, after the
+     * views of the bubble are shown. The window loses focus and is relaid out once.
+     */
+    public void onMinimize(int bubbleSize) {
+        onGestureStart();
+        if (!mDidCaptureOriginalValues) {
+            mOriginalLayoutWidth = mLayoutParams.width;
+            mOriginalLayoutHeight = mLayoutParams.height;
+            mDidCaptureOriginalValues = true;
+        }
+        mLayoutParams.width = bubbleSize;
+        mLayoutParams.height = bubbleSize;
+
+        hideTouchKeyboard();
+        if (mHasFocus)
+            setFocus(false);
+
+        mLayoutUpdater.updateNow();
+        mIsMinimized = true;
+        onGestureEnd();
+    }
+
+    /**
+     * Should be called when the window is restored from the bubble, after the views of the window
+     * are shown. The window is relaid out once with its size from before it was minimized.
+     */
+    public void onRestore() {
+        onGestureStart();
+        mLayoutParams.width = mOriginalLayoutWidth;
+        mLayoutParams.height = mOriginalLayoutHeight;
+        mLayoutUpdater.updateNow();
+        mIsMinimized = false;
+
+        // clear so we can capture proper values on next minimize
+        mDidCaptureOriginalValues = false;
+        onGestureEnd();
+    }
+
+    public void showTouchKeyboard() {
+        mSoftKeyboardRequestCount++;
+        mTarget.showTouchKeyboard();
+    }
+
+    public void hideTouchKeyboard() {
+        mSoftKeyboardRequestCount++;
+        mTarget.hideTouchKeyboard();
+    }
+
+    public void toggleSoftKeyboard() {
+        mSoftKeyboardRequestCount++;
+        mTarget.toggleSoftKeyboard();
+    }
+
+    /** Should be called when the soft keyboard is requested for another view of the window, like the search input. */
+    public void onSoftKeyboardRequested() {
+        mSoftKeyboardRequestCount++;
+    }
+
+    private void onGestureStart() {
+        if (mGestureDepth++ > 0) return;
+        mGestureStartPreferenceWriteCount = getPreferenceWriteCount();
+        mGestureStartSoftKeyboardRequestCount = mSoftKeyboardRequestCount;
+    }
+
+    private void onGestureEnd() {
+        if (mGestureDepth == 0 || --mGestureDepth > 0) return;
+        mGestureCount++;
+        mLastGesturePreferenceWriteCount = getPreferenceWriteCount() - mGestureStartPreferenceWriteCount;
+        mLastGestureSoftKeyboardRequestCount = mSoftKeyboardRequestCount - mGestureStartSoftKeyboardRequestCount;
+        if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
+            Logger.logVerbose(LOG_TAG, "Gesture preference writes: " + mLastGesturePreferenceWriteCount +
+                ", soft keyboard requests: " + mLastGestureSoftKeyboardRequestCount);
+    }
+
+    private long getPreferenceWriteCount() {
+        return mGeometry != null ? mGeometry.getPreferenceWriteCount() : 0;
+    }
+
+
+
+    public boolean hasFocus() {
+        return mHasFocus;
+    }
+
+    public boolean isInLongPressState() {
+        return mIsInLongPressState;
+    }
+
+    public boolean isMinimized() {
+        return mIsMinimized;
+    }
+
+    /** Get the total number of soft keyboard show, hide and toggle requests. */
+    public long getSoftKeyboardRequestCount() {
+        return mSoftKeyboardRequestCount;
+    }
+
+    /** Get the number of finished drag, pinch-resize, tap and bubble gestures. */
+    public long getGestureCount() {
+        return mGestureCount;
+    }
+
+    /** Get the number of preference writes in the last finished gesture. */
+    public long getLastGesturePreferenceWriteCount() {
+        return mLastGesturePreferenceWriteCount;
+    }
+
+    /** Get the number of soft keyboard requests in the last finished gesture. */
+    public long getLastGestureSoftKeyboardRequestCount() {
+        return mLastGestureSoftKeyboardRequestCount;
+    }
+
+}
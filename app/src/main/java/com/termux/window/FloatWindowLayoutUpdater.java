@@ -0,0 +1,138 @@
+package com.termux.window;
+
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+/**
+ * Applies changes of the float window {@link WindowManager.LayoutParams} with
+ * {@link WindowManager#updateViewLayout}, which is a binder call to the window manager.
+ *
+ * During drag and pinch-resize gestures, updates requested with {@link #requestUpdate()} are
+ * batched so that the window is relaid out at most once per vsync with the latest layout params.
+ * The frames are posted with the {@link FloatFrameScheduler}, which is {@link Choreographer}
+ * outside of tests.
+ */
+public class FloatWindowLayoutUpdater implements Choreographer.FrameCallback {
+
+    /** The window that is relaid out, which is {@link TermuxFloatView} outside of tests. */
+    public interface WindowTarget {
+
+        /**
+         * Relayout the window with its current layout params if it is added to the window manager.
+         *
+         * @return Returns {@code true} if the window was relaid out.
+         */
+        boolean relayoutWindow();
+
+    }
+
+    private final WindowTarget mTarget;
+    private final FloatFrameScheduler mFrameScheduler;
+
+    /** If a frame callback is currently posted. */
+    private boolean mFrameScheduled;
+
+    private long mRequestCount;
+    private long mRelayoutCount;
+
+    private boolean mInGesture;
+    private long mGestureRequestCount;
+    private long mGestureRelayoutCount;
+    private long mLastGestureRelayoutCount;
+
+    private static final String LOG_TAG = "FloatWindowLayoutUpdater";
+
+    public FloatWindowLayoutUpdater(@NonNull WindowTarget target) {
+        this(target, FloatFrameScheduler.forChoreographer());
+    }
+
+    public FloatWindowLayoutUpdater(@NonNull WindowTarget target, @NonNull FloatFrameScheduler frameScheduler) {
+        mTarget = target;
+        mFrameScheduler = frameScheduler;
+    }
+
+    /** Request the window to be relaid out on the next frame. Must be called on the main thread. */
+    public void requestUpdate() {
+        mRequestCount++;
+        if (mInGesture) mGestureRequestCount++;
+        if (mFrameScheduled) return;
+
+        mFrameScheduled = true;
+        mFrameScheduler.postFrameCallback(this);
+    }
+
+    /** Relayout the window now, dropping any pending batched update. */
+    public void updateNow() {
+        if (mFrameScheduled) {
+            mFrameScheduler.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+        relayout();
+    }
+
+    /** Flush any pending batched update now. */
+    public void flush() {
+        if (mFrameScheduled)
+            updateNow();
+    }
+
+    /** Cancel any pending batched update, like when the window is removed. */
+    public void cancel() {
+        if (mFrameScheduled) {
+            mFrameScheduler.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        relayout();
+    }
+
+    private void relayout() {
+        if (!mTarget.relayoutWindow()) return;
+
+        mRelayoutCount++;
+        if (mInGesture) mGestureRelayoutCount++;
+    }
+
+    /** Should be called when a drag or pinch-resize gesture starts. */
+    public void onGestureStart() {
+        mInGesture = true;
+        mGestureRequestCount = 0;
+        mGestureRelayoutCount = 0;
+    }
+
+    /** Should be called when a drag or pinch-resize gesture ends. Pending updates are flushed. */
+    public void onGestureEnd() {
+        flush();
+        if (!mInGesture) return;
+        mInGesture = false;
+        mLastGestureRelayoutCount = mGestureRelayoutCount;
+        if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
+            Logger.logVerbose(LOG_TAG, "Window relayouts in gesture: " + mGestureRelayoutCount + " for " + mGestureRequestCount + " update requests");
+    }
+
+
+
+    /** Get the total number of update requests. */
+    public long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /** Get the total number of {@link WindowManager#updateViewLayout} binder calls. */
+    public long getRelayoutCount() {
+        return mRelayoutCount;
+    }
+
+    /** Get the number of {@link WindowManager#updateViewLayout} binder calls in the last finished gesture. */
+    public long getLastGestureRelayoutCount() {
+        return mLastGestureRelayoutCount;
+    }
+
+}
@@ -1,18 +1,20 @@
 package com.termux.window;
 
-import android.graphics.Outline;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewOutlineProvider;
-import android.view.WindowManager;
 
 import com.termux.shared.view.ViewUtils;
+import com.termux.terminal.TerminalEmulator;
 import com.termux.view.TerminalView;
 
 /**
  * Handles displaying our TermuxFloatView as a collapsed bubble and restoring back
  * to its original display.
+ *
+ * While minimized, the {@link TerminalView} is hidden so that it does not render the emulator at
+ * all, and the {@link FloatBubbleView} shows a cheap activity indicator instead.
  */
 public class FloatingBubbleManager {
     private static final int DEFAULT_BUBBLE_SIZE_DP = 56;
@@ -20,19 +22,31 @@ public class FloatingBubbleManager {
     private TermuxFloatView mTermuxFloatView;
     private final int BUBBLE_SIZE_PX;
 
-    private boolean mIsMinimized;
-
-    // preserve original layout values so we can restore to normal window
-    // from our bubble
-    private int mOriginalLayoutWidth;
-    private int mOriginalLayoutHeight;
+    // preserve original background so we can restore to normal window from our bubble, the
+    // original layout values are preserved by FloatWindowGestures
     private boolean mDidCaptureOriginalValues;
-    private Drawable mOriginalTerminalViewBackground;
     private Drawable mOriginalFloatViewBackground;
 
+    private FloatBubbleView mBubbleView;
+    private FloatBubbleRenderer mBubbleRenderer;
+
     public FloatingBubbleManager(TermuxFloatView termuxFloatView) {
         mTermuxFloatView = termuxFloatView;
         BUBBLE_SIZE_PX = (int) ViewUtils.dpToPx(mTermuxFloatView.getContext(), DEFAULT_BUBBLE_SIZE_DP);
+        mBubbleView = mTermuxFloatView.findViewById(R.id.bubble_view);
+        mBubbleView.setTermuxFloatView(mTermuxFloatView);
+        mBubbleRenderer = new FloatBubbleRenderer(new FloatBubbleRenderer.RendererClient() {
+            @Override
+            public TerminalEmulator getEmulator() {
+                return mTermuxFloatView != null ? getTerminalView().mEmulator : null;
+            }
+
+            @Override
+            public void onThumbnailRendered(Bitmap thumbnail) {
+                if (isMinimized() && mBubbleView != null)
+                    mBubbleView.setThumbnail(thumbnail);
+            }
+        });
     }
 
     public void toggleBubble() {
@@ -51,49 +65,35 @@ public class FloatingBubbleManager {
     }
 
     public void displayAsFloatingBubble() {
-        captureOriginalLayoutValues();
-
-        WindowManager.LayoutParams layoutParams = getLayoutParams();
+        captureOriginalValues();
 
-        layoutParams.width = BUBBLE_SIZE_PX;
-        layoutParams.height = BUBBLE_SIZE_PX;
-
-        TerminalView terminalView = getTerminalView();
-        final int strokeWidth = (int) terminalView.getResources().getDimension(R.dimen.bubble_outline_stroke_width);
-        terminalView.setOutlineProvider(new ViewOutlineProvider() {
-            @SuppressWarnings("SuspiciousNameCombination")
-            @Override
-            public void getOutline(View view, Outline outline) {
-                // shrink TerminalView clipping a bit so it doesn't cut off our bubble outline
-                outline.setOval(strokeWidth, strokeWidth, view.getWidth() - strokeWidth, view.getHeight() - strokeWidth);
-            }
-        });
-        terminalView.setClipToOutline(true);
+        // Stop rendering the terminal until restored, this also prevents the emulator from being
+        // resized to the bubble size
+        getTerminalView().setVisibility(View.GONE);
+        mTermuxFloatView.getTermuxFloatSessionClient().resetBubbleActivity();
+        mBubbleView.clearActivity();
+        mBubbleView.setVisibility(View.VISIBLE);
+        mBubbleRenderer.requestRender();
 
         TermuxFloatView termuxFloatView = getTermuxFloatView();
+        if (termuxFloatView.mSearchController != null)
+            termuxFloatView.mSearchController.closeSearch();
         termuxFloatView.setBackgroundResource(R.drawable.round_button_with_outline);
         termuxFloatView.setClipToOutline(true);
-        termuxFloatView.hideTouchKeyboard();
-        termuxFloatView.changeFocus(false);
 
         ViewGroup windowControls = termuxFloatView.findViewById(R.id.window_controls);
         windowControls.setVisibility(View.GONE);
 
-        getWindowManager().updateViewLayout(termuxFloatView, layoutParams);
-        mIsMinimized = true;
+        // Hides the soft keyboard, loses focus and relays out the window once with the bubble size
+        termuxFloatView.getWindowGestures().onMinimize(BUBBLE_SIZE_PX);
     }
 
     public void displayAsFloatingWindow() {
-        WindowManager.LayoutParams layoutParams = getLayoutParams();
-
-        // restore back to previous values
-        layoutParams.width = mOriginalLayoutWidth;
-        layoutParams.height = mOriginalLayoutHeight;
-
+        mBubbleRenderer.cancel();
+        mBubbleView.setThumbnail(null);
+        mBubbleView.setVisibility(View.GONE);
         TerminalView terminalView = getTerminalView();
-        terminalView.setBackground(mOriginalTerminalViewBackground);
-        terminalView.setOutlineProvider(null);
-        terminalView.setClipToOutline(false);
+        terminalView.setVisibility(View.VISIBLE);
 
         TermuxFloatView termuxFloatView = getTermuxFloatView();
         termuxFloatView.setBackground(mOriginalFloatViewBackground);
@@ -102,24 +102,50 @@ public class FloatingBubbleManager {
         ViewGroup windowControls = termuxFloatView.findViewById(R.id.window_controls);
         windowControls.setVisibility(View.VISIBLE);
 
-        getWindowManager().updateViewLayout(termuxFloatView, layoutParams);
-        mIsMinimized = false;
+        // Relays out the window once with the size from before it was minimized
+        termuxFloatView.getWindowGestures().onRestore();
+
+        // Catch up with the output received while minimized
+        termuxFloatView.onBeforeScrollCounterCleared();
+        terminalView.onScreenUpdated();
 
         // clear so we can capture proper values on next minimize
         mDidCaptureOriginalValues = false;
     }
 
     public boolean isMinimized() {
-        return mIsMinimized;
+        return mTermuxFloatView != null && mTermuxFloatView.getWindowGestures().isMinimized();
     }
 
-    private void captureOriginalLayoutValues() {
-        if (!mDidCaptureOriginalValues) {
-            WindowManager.LayoutParams layoutParams = getLayoutParams();
-            mOriginalLayoutWidth = layoutParams.width;
-            mOriginalLayoutHeight = layoutParams.height;
+    /**
+     * Update the activity indicator of the bubble with the counters of {@link TermuxFloatSessionClient}.
+     * This is a no-op if not minimized. New output also requests a throttled thumbnail render.
+     */
+    public void updateBubbleActivity(int unreadLines, boolean bellFlag, boolean exitFlag, boolean pulse) {
+        if (!isMinimized()) return;
+        mBubbleView.setActivity(unreadLines, bellFlag, exitFlag, pulse);
+        if (pulse)
+            mBubbleRenderer.requestRender();
+    }
+
+    /**
+     * Release the thumbnail bitmap, like under memory pressure. If minimized, a new thumbnail is
+     * rendered on the next output.
+     *
+     * @return Returns {@code true} if a thumbnail was allocated and has been released.
+     */
+    public boolean releaseThumbnail() {
+        if (mBubbleView != null)
+            mBubbleView.setThumbnail(null);
+        return mBubbleRenderer != null && mBubbleRenderer.release();
+    }
 
-            mOriginalTerminalViewBackground = getTerminalView().getBackground();
+    public FloatBubbleRenderer getBubbleRenderer() {
+        return mBubbleRenderer;
+    }
+
+    private void captureOriginalValues() {
+        if (!mDidCaptureOriginalValues) {
             mOriginalFloatViewBackground = getTermuxFloatView().getBackground();
             mDidCaptureOriginalValues = true;
         }
@@ -128,7 +154,12 @@ public class FloatingBubbleManager {
     public void cleanup() {
         mTermuxFloatView = null;
         mOriginalFloatViewBackground = null;
-        mOriginalTerminalViewBackground = null;
+        if (mBubbleView != null)
+            mBubbleView.setTermuxFloatView(null);
+        mBubbleView = null;
+        if (mBubbleRenderer != null)
+            mBubbleRenderer.release();
+        mBubbleRenderer = null;
     }
 
     private TermuxFloatView getTermuxFloatView() {
@@ -138,12 +169,4 @@ public class FloatingBubbleManager {
     private TerminalView getTerminalView() {
         return mTermuxFloatView.getTerminalView();
     }
-
-    private WindowManager getWindowManager() {
-        return mTermuxFloatView.mWindowManager;
-    }
-
-    private WindowManager.LayoutParams getLayoutParams() {
-        return (WindowManager.LayoutParams) mTermuxFloatView.getLayoutParams();
-    }
 }
@@ -27,6 +27,13 @@ public class TermuxFloatApplication extends Application {
         setLogConfig(context, true);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The float window resources are released by TermuxFloatService
+        Logger.logVerbose(LOG_TAG, "onTrimMemory: " + level);
+    }
+
     public static void setLogConfig(Context context, boolean commitToFile) {
         Logger.setDefaultLogTag(TermuxConstants.TERMUX_FLOAT_APP_NAME.replaceAll("[: ]", ""));
 
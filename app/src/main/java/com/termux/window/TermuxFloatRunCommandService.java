@@ -0,0 +1,98 @@
+package com.termux.window;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.IntentUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.notification.NotificationUtils;
+import com.termux.shared.termux.TermuxConstants;
+
+/**
+ * The only entry point of the float window exported to other apps, which is guarded by the
+ * {@code RUN_COMMAND} permission in the manifest. It only accepts the
+ * {@link TermuxFloatService#ACTION_RUN_COMMAND} action and forwards it to the not exported
+ * {@link TermuxFloatService}, so other apps can not stop, show or hide the float window.
+ *
+ * Like the {@code RunCommandService} of the {@code Termux} app, the service is in the foreground
+ * while it forwards the intent, since callers may start it with
+ * {@link android.content.Context#startForegroundService(Intent)}.
+ */
+public class TermuxFloatRunCommandService extends Service {
+
+    private static final int NOTIFICATION_ID = TermuxConstants.TERMUX_FLOAT_APP_NOTIFICATION_ID + 1;
+
+    private static final String LOG_TAG = "TermuxFloatRunCommandService";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        runStartForeground();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Logger.logDebug(LOG_TAG, "onStartCommand");
+
+        // Run again in case service is already started and onCreate() is not called
+        runStartForeground();
+
+        if (intent == null || !TermuxFloatService.ACTION_RUN_COMMAND.equals(intent.getAction())) {
+            Logger.logError(LOG_TAG, "Invalid action: \"" + (intent != null ? intent.getAction() : null) + "\"");
+        } else {
+            Logger.logVerboseExtended(LOG_TAG, "Received intent:\n" + IntentUtils.getIntentString(intent));
+
+            // The float service always starts its foreground notification when a command is started
+            Intent floatServiceIntent = new Intent(intent).setClass(this, TermuxFloatService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                startForegroundService(floatServiceIntent);
+            else
+                startService(floatServiceIntent);
+        }
+
+        runStopForeground();
+        stopSelf(startId);
+        return Service.START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+
+
+    /** Make service run in foreground mode. */
+    private void runStartForeground() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            NotificationUtils.setupNotificationChannel(this, TermuxConstants.TERMUX_FLOAT_APP_NOTIFICATION_CHANNEL_ID,
+                TermuxConstants.TERMUX_FLOAT_APP_NOTIFICATION_CHANNEL_NAME, NotificationManager.IMPORTANCE_LOW);
+        startForeground(NOTIFICATION_ID, buildNotification());
+    }
+
+    /** Make service leave foreground mode. */
+    private void runStopForeground() {
+        stopForeground(true);
+    }
+
+    @Nullable
+    private Notification buildNotification() {
+        Notification.Builder builder = NotificationUtils.geNotificationBuilder(this,
+            TermuxConstants.TERMUX_FLOAT_APP_NOTIFICATION_CHANNEL_ID, Notification.PRIORITY_LOW,
+            TermuxConstants.TERMUX_FLOAT_APP_NAME, getString(R.string.notification_message_run_command), null,
+            null, null, NotificationUtils.NOTIFICATION_MODE_SILENT);
+        if (builder == null) return null;
+
+        builder.setShowWhen(false);
+        builder.setSmallIcon(R.mipmap.ic_service_notification);
+        builder.setColor(0xFF000000);
+        return builder.build();
+    }
+
+}
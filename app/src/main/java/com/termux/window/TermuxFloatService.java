@@ -10,26 +10,79 @@ import android.content.Intent;
 import android.content.res.Resources;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
+import androidx.core.content.IntentCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.notification.NotificationUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.RUN_COMMAND_SERVICE;
 import com.termux.shared.termux.TermuxConstants.TERMUX_FLOAT_APP.TERMUX_FLOAT_SERVICE;
+import com.termux.shared.termux.file.TermuxFileUtils;
+import com.termux.shared.termux.plugins.TermuxPluginUtils;
+import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
 import com.termux.terminal.TerminalSession;
+import com.termux.window.settings.properties.TermuxFloatPropertyConstants;
 
 public class TermuxFloatService extends Service {
 
+    /**
+     * Intent action to run a command in a new session tab of the float window, which other apps
+     * send to the exported {@link TermuxFloatRunCommandService} that forwards it here. Like for the
+     * {@code RUN_COMMAND} intent of the {@code Termux} app, the caller must have been granted the
+     * {@code RUN_COMMAND} permission and the {@code allow-external-apps} property must be enabled in
+     * the {@code termux.properties} of the {@code Termux} app. The command is passed with the {@link RUN_COMMAND_SERVICE#EXTRA_COMMAND_PATH}, {@link RUN_COMMAND_SERVICE#EXTRA_ARGUMENTS}
+     * and {@link RUN_COMMAND_SERVICE#EXTRA_WORKDIR} extras of the {@code RUN_COMMAND} intent of the
+     * {@code Termux} app. If a {@link RUN_COMMAND_SERVICE#EXTRA_PENDING_INTENT} is passed, the exit code
+     * and trailing output are sent to it by {@link FloatCommandResult} when the command finishes.
+     */
+    public static final String ACTION_RUN_COMMAND = TermuxConstants.TERMUX_FLOAT_PACKAGE_NAME + ".run_command";
+
     private TermuxFloatView mFloatingWindow;
 
-    private TermuxSession mSession;
+    /** The session tabs of the float window. */
+    private final List<TermuxFloatSessionTab> mSessionTabs = new ArrayList<>();
+
+    /** The index of the tab in {@link #mSessionTabs} currently attached to the terminal view. */
+    private int mCurrentSessionIndex = -1;
+
+    /** The id to assign to the next {@link ExecutionCommand} of a session. */
+    private int mNextExecutionCommandId = 0;
+
+    /** The shell environment prepared by {@link FloatStartupPipeline}. */
+    private TermuxShellEnvironment mShellEnvironment;
+
+    /** The timings of the phases of the last float window cold start. */
+    private final FloatStartupTimings mStartupTimings = new FloatStartupTimings();
+
+    /** Copies text to the clipboard off the main thread, created on first copy. */
+    private FloatClipboardCopier mClipboardCopier;
+
+    /** Snapshots the current session to restore its screen after a restart, created once the properties are loaded. */
+    private FloatSessionSnapshot mSessionSnapshot;
+
+    /** Records what the float window shows if enabled by the {@code session-recording} property, or {@code null}. */
+    private FloatSessionRecorder mSessionRecorder;
+
+    /** Releases caches and render resources under memory pressure. */
+    private final FloatMemoryTrimmer mMemoryTrimmer = new FloatMemoryTrimmer(this);
 
     private boolean mVisibleWindow = true;
 
@@ -42,9 +95,15 @@ public class TermuxFloatService extends Service {
 
     @Override
     public void onCreate() {
+        // The cold start is measured from here, initializeFloatView() is only called once per service instance
+        mStartupTimings.start();
+        long startTime = SystemClock.uptimeMillis();
+
         runStartForeground();
         TermuxFloatApplication.setLogConfig(this, false);
         Logger.logVerbose(LOG_TAG, "onCreate");
+
+        mStartupTimings.record(FloatStartupTimings.PHASE_SERVICE_CREATE, startTime);
     }
 
     @Override
@@ -54,6 +113,8 @@ public class TermuxFloatService extends Service {
         // Run again in case service is already started and onCreate() is not called
         runStartForeground();
 
+        if (mFloatingWindow == null)
+            mStartupTimings.mark(FloatStartupTimings.MILESTONE_START_COMMAND);
         if (mFloatingWindow == null && !initializeFloatView())
             return Service.START_NOT_STICKY;
 
@@ -74,6 +135,9 @@ public class TermuxFloatService extends Service {
                 case TERMUX_FLOAT_SERVICE.ACTION_HIDE:
                     setVisible(false);
                     break;
+                case ACTION_RUN_COMMAND:
+                    actionRunCommand(intent);
+                    break;
                 default:
                     Logger.logError(LOG_TAG, "Invalid action: \"" + action + "\"");
                     break;
@@ -92,11 +156,58 @@ public class TermuxFloatService extends Service {
         super.onDestroy();
         Logger.logVerbose(LOG_TAG, "onDestroy");
 
+        // The last snapshot is taken from the emulator of the window, so it must still be open
+        if (mSessionSnapshot != null)
+            mSessionSnapshot.stop();
+
         if (mFloatingWindow != null)
             mFloatingWindow.closeFloatingWindow();
+        mFloatingWindow = null;
+
+        if (mClipboardCopier != null)
+            mClipboardCopier.shutdown();
+
+        if (mSessionRecorder != null)
+            mSessionRecorder.stop();
 
         runStopForeground();
     }
+
+    /**
+     * Print the diagnostics collected by {@link FloatDiagnostics} for
+     * {@code dumpsys activity service com.termux.window/.TermuxFloatService}, as JSON if the
+     * {@code --json} argument is passed.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        boolean json = args != null && Arrays.asList(args).contains("--json");
+
+        JSONObject diagnostics = FloatDiagnostics.collectOnMainThread(this);
+        if (diagnostics == null) {
+            writer.println("Timed out waiting for the main thread to collect the diagnostics");
+            return;
+        }
+
+        if (json) {
+            writer.println(diagnostics.toString());
+        } else {
+            writer.println(TermuxConstants.TERMUX_FLOAT_APP_NAME + " diagnostics:");
+            writer.print(FloatDiagnostics.format(diagnostics));
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mMemoryTrimmer.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mMemoryTrimmer.onLowMemory();
+    }
     /** Request to stop service. */
     public void requestStopService() {
         Logger.logDebug(LOG_TAG, "Requesting to stop service");
@@ -106,11 +217,77 @@ public class TermuxFloatService extends Service {
 
     /** Process action to stop service. */
     private void actionStopService() {
-        if (mSession != null)
-            mSession.killIfExecuting(this, false);
+        // The user exited, so the next start should be a fresh one
+        if (mSessionSnapshot != null)
+            mSessionSnapshot.discard();
+        for (TermuxFloatSessionTab sessionTab : mSessionTabs) {
+            sendCommandResult(sessionTab);
+            TermuxSession termuxSession = sessionTab.getTermuxSession();
+            if (termuxSession != null)
+                termuxSession.killIfExecuting(this, false);
+        }
         requestStopService();
     }
 
+    /** Process action to run a command in a new session tab. */
+    private void actionRunCommand(Intent intent) {
+        PendingIntent resultPendingIntent = IntentCompat.getParcelableExtra(intent, RUN_COMMAND_SERVICE.EXTRA_PENDING_INTENT, PendingIntent.class);
+
+        // The policy is read from the Termux app properties, which are reloaded in case they were changed since
+        TermuxAppSharedProperties appProperties = TermuxAppSharedProperties.getProperties();
+        if (appProperties == null)
+            TermuxAppSharedProperties.init(this);
+        else
+            appProperties.loadTermuxPropertiesFromDisk();
+        String errmsg = TermuxPluginUtils.checkIfAllowExternalAppsPolicyIsViolated(this, ACTION_RUN_COMMAND);
+        if (errmsg != null) {
+            Logger.logError(LOG_TAG, errmsg);
+            if (resultPendingIntent != null)
+                FloatCommandResult.sendError(this, resultPendingIntent, errmsg);
+            return;
+        }
+
+        String executable = intent.getStringExtra(RUN_COMMAND_SERVICE.EXTRA_COMMAND_PATH);
+        if (executable == null || executable.isEmpty()) {
+            Logger.logError(LOG_TAG, "No executable passed with the run command intent");
+            if (resultPendingIntent != null)
+                FloatCommandResult.sendError(this, resultPendingIntent, getString(R.string.error_run_command_no_executable));
+            return;
+        }
+        executable = TermuxFileUtils.getCanonicalPath(executable, null, true);
+
+        String workingDirectory = intent.getStringExtra(RUN_COMMAND_SERVICE.EXTRA_WORKDIR);
+        if (workingDirectory == null || workingDirectory.isEmpty())
+            workingDirectory = mFloatingWindow.getProperties().getDefaultWorkingDirectory();
+        else
+            workingDirectory = TermuxFileUtils.getCanonicalPath(workingDirectory, null, true);
+
+        ExecutionCommand executionCommand = new ExecutionCommand(mNextExecutionCommandId++, executable,
+            intent.getStringArrayExtra(RUN_COMMAND_SERVICE.EXTRA_ARGUMENTS), null, workingDirectory,
+            ExecutionCommand.Runner.TERMINAL_SESSION.getName(), false);
+
+        if (!mVisibleWindow)
+            setVisible(true);
+
+        int index = addSessionTab(executionCommand);
+        mSessionTabs.get(index).setResultPendingIntent(resultPendingIntent);
+        if (!switchToSession(index)) {
+            Logger.logError(LOG_TAG, "Failed to run command \"" + executable + "\"");
+            mSessionTabs.get(index).setResultPendingIntent(null);
+            removeSessionTab(index);
+            if (resultPendingIntent != null)
+                FloatCommandResult.sendError(this, resultPendingIntent, getString(R.string.error_run_command_failed, executable));
+        }
+    }
+
+    /** Send the result of the command of {@code sessionTab} if it was run with a result {@link PendingIntent}. */
+    private void sendCommandResult(TermuxFloatSessionTab sessionTab) {
+        PendingIntent resultPendingIntent = sessionTab.getResultPendingIntent();
+        if (resultPendingIntent == null) return;
+        sessionTab.setResultPendingIntent(null);
+        FloatCommandResult.send(this, resultPendingIntent, sessionTab.getTerminalSession());
+    }
+
     /** Make service run in foreground mode. */
     private void runStartForeground() {
         setupNotificationChannel();
@@ -168,25 +345,31 @@ public class TermuxFloatService extends Service {
 
 
 
+    /**
+     * Initialize the float window in stages. The properties and shell environment are prepared in
+     * parallel in the background by {@link FloatStartupPipeline} while the window is inflated and
+     * shown without a session. The session is created and attached once they are ready.
+     */
     @SuppressLint("InflateParams")
     private boolean initializeFloatView() {
+        final FloatStartupPipeline startupPipeline = new FloatStartupPipeline(this, mStartupTimings);
+
         boolean floatWindowWasNull = false;
         if (mFloatingWindow == null) {
+            long startTime = SystemClock.uptimeMillis();
             mFloatingWindow = (TermuxFloatView) ((LayoutInflater)
                     getSystemService(Context.LAYOUT_INFLATER_SERVICE)).inflate(R.layout.activity_main, null);
+            mStartupTimings.record(FloatStartupTimings.PHASE_INFLATE, startTime);
             floatWindowWasNull = true;
         }
 
-        mFloatingWindow.initFloatView(this);
-
-        mSession = createTermuxSession(
-                new ExecutionCommand(0, null, null, null, mFloatingWindow.getProperties().getDefaultWorkingDirectory(), ExecutionCommand.Runner.TERMINAL_SESSION.getName(), false), null);
-        if (mSession == null)
-            return false;
-        mFloatingWindow.getTerminalView().attachSession(mSession.getTerminalSession());
+        mFloatingWindow.initFloatView(this, startupPipeline.getPropertiesFuture(), mStartupTimings);
 
         try {
+            long startTime = SystemClock.uptimeMillis();
             mFloatingWindow.launchFloatingWindow();
+            mStartupTimings.record(FloatStartupTimings.PHASE_LAUNCH_FLOATING_WINDOW, startTime);
+            mStartupTimings.mark(FloatStartupTimings.MILESTONE_WINDOW_SHOWN);
         } catch (Exception e) {
             Logger.logStackTrace(LOG_TAG, e);
             // Settings.canDrawOverlays() does not work (always returns false, perhaps due to sharedUserId?).
@@ -199,9 +382,48 @@ public class TermuxFloatService extends Service {
         if (floatWindowWasNull)
             Logger.showToast(this, getString(R.string.initial_instruction_toast), true);
 
+        startupPipeline.whenReady(() -> onStartupPipelineReady(startupPipeline));
+
         return true;
     }
 
+    /** Create and attach the first session once the background startup stages have finished. */
+    private void onStartupPipelineReady(FloatStartupPipeline startupPipeline) {
+        // Service may have been stopped in the meantime
+        if (mFloatingWindow == null || mFloatingWindow.getTermuxFloatSessionClient() == null) return;
+
+        mShellEnvironment = startupPipeline.getShellEnvironment();
+
+        if (mSessionSnapshot == null) {
+            mSessionSnapshot = new FloatSessionSnapshot(this, mFloatingWindow.getProperties().getSessionSnapshotInterval(),
+                mFloatingWindow.getProperties().getTerminalTranscriptRows(), () ->
+                mFloatingWindow != null && mFloatingWindow.getTerminalView() != null ? mFloatingWindow.getTerminalView().mEmulator : null);
+            mSessionSnapshot.start();
+        }
+
+        String sessionRecording = mFloatingWindow.getProperties().getSessionRecording();
+        if (mSessionRecorder == null && !TermuxFloatPropertyConstants.VALUE_SESSION_RECORDING_OFF.equals(sessionRecording))
+            mSessionRecorder = new FloatSessionRecorder(new File(TermuxConstants.TERMUX_DATA_HOME_DIR_PATH, "float-recordings"),
+                TermuxFloatPropertyConstants.VALUE_SESSION_RECORDING_GZIP.equals(sessionRecording));
+
+        long startTime = SystemClock.uptimeMillis();
+        if (mSessionTabs.isEmpty()) {
+            // The restored rows are fed to the emulator of the first session once it is created
+            if (mSessionSnapshot.isEnabled())
+                mSessionSnapshot.setRestoredState(startupPipeline.getRestoredSnapshot());
+            addSessionTab(null);
+        }
+        if (!switchToSession(0)) {
+            Logger.logError(LOG_TAG, "Failed to create the initial session");
+            requestStopService();
+            return;
+        }
+        mStartupTimings.record(FloatStartupTimings.PHASE_SESSION_CREATE, startTime);
+        mStartupTimings.mark(FloatStartupTimings.MILESTONE_SESSION_ATTACHED);
+
+        Logger.logDebug(LOG_TAG, "Startup timings: " + mStartupTimings);
+    }
+
     private void setVisible(boolean newVisibility) {
         mVisibleWindow = newVisibility;
         mFloatingWindow.setVisibility(newVisibility ? View.VISIBLE : View.GONE);
@@ -228,7 +450,8 @@ public class TermuxFloatService extends Service {
         executionCommand.shellName = sessionName;
         executionCommand.terminalTranscriptRows = mFloatingWindow.getProperties().getTerminalTranscriptRows();
         TermuxSession newTermuxSession = TermuxSession.execute(this, executionCommand,
-                mFloatingWindow.getTermuxFloatSessionClient(), null, new TermuxShellEnvironment(),
+                mFloatingWindow.getTermuxFloatSessionClient(), null,
+                mShellEnvironment != null ? mShellEnvironment : new TermuxShellEnvironment(),
                 null, executionCommand.isPluginExecutionCommand);
         if (newTermuxSession == null) {
             Logger.logError(LOG_TAG, "Failed to execute new TermuxSession command for:\n" + executionCommand.getCommandIdAndLabelLogString());
@@ -241,12 +464,150 @@ public class TermuxFloatService extends Service {
         return newTermuxSession;
     }
 
+    /**
+     * Add a new session tab. The session is not spawned until the tab is switched to with
+     * {@link #switchToSession(int)}.
+     *
+     * @param executionCommand The {@link ExecutionCommand} for the session, or {@code null} for the
+     *                         default shell.
+     * @return Returns the index of the new tab.
+     */
+    public int addSessionTab(@Nullable ExecutionCommand executionCommand) {
+        mSessionTabs.add(new TermuxFloatSessionTab(executionCommand));
+        if (mFloatingWindow != null)
+            mFloatingWindow.updateSessionTabs();
+        return mSessionTabs.size() - 1;
+    }
+
+    /**
+     * Attach the session of the tab at {@code index} to the terminal view, spawning it first if
+     * this is the first switch to the tab.
+     *
+     * @return Returns {@code true} if the session was switched to, otherwise {@code false}.
+     */
+    public boolean switchToSession(int index) {
+        if (index < 0 || index >= mSessionTabs.size()) return false;
+
+        TermuxFloatSessionTab sessionTab = mSessionTabs.get(index);
+        if (!sessionTab.isSpawned()) {
+            ExecutionCommand executionCommand = sessionTab.getExecutionCommand();
+            if (executionCommand == null)
+                executionCommand = new ExecutionCommand(mNextExecutionCommandId++, null, null, null,
+                    mFloatingWindow.getProperties().getDefaultWorkingDirectory(), ExecutionCommand.Runner.TERMINAL_SESSION.getName(), false);
+
+            TermuxSession termuxSession = createTermuxSession(executionCommand, null);
+            if (termuxSession == null)
+                return false;
+            sessionTab.setTermuxSession(termuxSession);
+        }
+
+        mCurrentSessionIndex = index;
+        mFloatingWindow.getTerminalView().attachSession(sessionTab.getTerminalSession());
+        mFloatingWindow.updateSessionTabs();
+        return true;
+    }
+
+    /** Kill the session of the tab at {@code index} if its running and remove the tab. */
+    public void removeSessionTab(int index) {
+        if (index < 0 || index >= mSessionTabs.size()) return;
+
+        TermuxFloatSessionTab sessionTab = mSessionTabs.remove(index);
+        // Sent before the session is killed, so that the caller knows if the command finished
+        sendCommandResult(sessionTab);
+        TermuxSession termuxSession = sessionTab.getTermuxSession();
+        if (termuxSession != null)
+            termuxSession.killIfExecuting(this, false);
+        if (sessionTab.getTranscriptIndex() != null)
+            sessionTab.getTranscriptIndex().release();
+
+        if (mSessionTabs.isEmpty()) {
+            mCurrentSessionIndex = -1;
+            // The last shell exited, so there is nothing left worth restoring
+            if (mSessionSnapshot != null)
+                mSessionSnapshot.discard();
+            requestStopService();
+            return;
+        }
+
+        if (index < mCurrentSessionIndex) {
+            mCurrentSessionIndex--;
+        } else if (index == mCurrentSessionIndex) {
+            mCurrentSessionIndex = -1;
+            if (switchToSession(Math.min(index, mSessionTabs.size() - 1)))
+                return;
+            Logger.logError(LOG_TAG, "Failed to switch to a session after removing session tab " + index);
+        }
+
+        mFloatingWindow.updateSessionTabs();
+    }
+
+    /** Should be called when the {@link TerminalSession} of a session tab has finished. */
+    public void onSessionFinished(TerminalSession finishedSession) {
+        int index = getIndexOfSession(finishedSession);
+        if (index >= 0)
+            removeSessionTab(index);
+    }
+
+    public int getIndexOfSession(TerminalSession terminalSession) {
+        if (terminalSession == null) return -1;
+        for (int i = 0; i < mSessionTabs.size(); i++) {
+            if (mSessionTabs.get(i).getTerminalSession() == terminalSession)
+                return i;
+        }
+        return -1;
+    }
+
+    public FloatStartupTimings getStartupTimings() {
+        return mStartupTimings;
+    }
+
+    @Nullable
+    public FloatSessionSnapshot getSessionSnapshot() {
+        return mSessionSnapshot;
+    }
+
+    @Nullable
+    public FloatSessionRecorder getSessionRecorder() {
+        return mSessionRecorder;
+    }
+
+    public FloatMemoryTrimmer getMemoryTrimmer() {
+        return mMemoryTrimmer;
+    }
+
+    @Nullable
+    public TermuxFloatView getFloatingWindow() {
+        return mFloatingWindow;
+    }
+
+    /** Get the {@link FloatClipboardCopier} if text was copied already, without creating it. */
+    @Nullable
+    public FloatClipboardCopier getClipboardCopierIfCreated() {
+        return mClipboardCopier;
+    }
+
+    public FloatClipboardCopier getClipboardCopier() {
+        if (mClipboardCopier == null)
+            mClipboardCopier = new FloatClipboardCopier(this);
+        return mClipboardCopier;
+    }
+
+    public List<TermuxFloatSessionTab> getSessionTabs() {
+        return mSessionTabs;
+    }
+
+    public int getCurrentSessionIndex() {
+        return mCurrentSessionIndex;
+    }
+
     public TermuxSession getTermuxSession() {
-        return mSession;
+        if (mCurrentSessionIndex < 0 || mCurrentSessionIndex >= mSessionTabs.size()) return null;
+        return mSessionTabs.get(mCurrentSessionIndex).getTermuxSession();
     }
 
     public TerminalSession getCurrentSession() {
-        return mSession != null ? mSession.getTerminalSession() : null;
+        TermuxSession termuxSession = getTermuxSession();
+        return termuxSession != null ? termuxSession.getTerminalSession() : null;
     }
 
 }
@@ -4,22 +4,17 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Typeface;
-import android.media.AudioAttributes;
-import android.media.SoundPool;
-import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
 
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
-import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.terminal.TermuxTerminalSessionClientBase;
-import com.termux.shared.termux.terminal.io.BellHandler;
 import com.termux.terminal.TerminalColors;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TextStyle;
+import com.termux.window.settings.properties.TermuxFloatAppSharedProperties;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.util.Properties;
 
 public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
@@ -27,15 +22,86 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
     private final TermuxFloatService mService;
     private final TermuxFloatView mView;
 
-    private SoundPool mBellSoundPool;
+    /** Coalesces {@link #onTextChanged(TerminalSession)} notifications into one redraw per frame. */
+    private final FloatRedrawScheduler mRedrawScheduler;
+
+    /** The number of text change notifications of the current session received while minimized. */
+    private long mBubbleOutputUpdates;
+    /** If a bell was received while minimized. */
+    private boolean mBubbleBell;
+    /** If a session exited while minimized. */
+    private boolean mBubbleSessionExit;
+
+    /** If the input to echo latency is tracked, which is only done while the performance HUD is shown. */
+    private boolean mInputLatencyTracking;
+    /** The time the first input not echoed yet was sent, or 0 if none. */
+    private long mInputTimeNanos;
+    /** The last input to echo latency, or -1 if none was measured yet. */
+    private long mLastInputEchoLatencyNanos = -1;
+
+    /** Cache of the parsed colors and loaded typeface for {@link #checkForFontAndColors()}. */
+    private final FloatStylingCache mStylingCache = new FloatStylingCache();
+
+    private final FloatStylingCache.StylingClient mStylingClient = new FloatStylingCache.StylingClient() {
+        @Override
+        public void onColorsLoaded(@NonNull Properties colors) {
+            try {
+                TerminalColors.COLOR_SCHEME.updateWith(colors);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to update color scheme", e);
+                return;
+            }
+
+            for (TermuxFloatSessionTab sessionTab : mService.getSessionTabs()) {
+                TerminalSession session = sessionTab.getTerminalSession();
+                if (session != null && session.getEmulator() != null) {
+                    session.getEmulator().mColors.reset();
+                }
+            }
+
+            updateBackgroundColor();
+        }
+
+        @Override
+        public void onTypefaceLoaded(@NonNull Typeface typeface) {
+            if (mView.getTerminalView() != null)
+                mView.getTerminalView().setTypeface(typeface);
+        }
+    };
+
+    /** Pastes large clipboard contents in chunks off the main thread. */
+    private final FloatPasteEngine mPasteEngine;
 
-    private int mBellSoundId;
+    /** Collapses bells into the {@code bell-min-interval} and loads the bell sound in the background. */
+    private final FloatBellScheduler mBellScheduler;
 
     private static final String LOG_TAG = "TermuxFloatSessionClient";
 
     public TermuxFloatSessionClient(TermuxFloatService service, TermuxFloatView view) {
+        this(service, view, FloatFrameScheduler.forChoreographer());
+    }
+
+    TermuxFloatSessionClient(TermuxFloatService service, TermuxFloatView view, FloatFrameScheduler frameScheduler) {
         mService = service;
         mView = view;
+        mRedrawScheduler = new FloatRedrawScheduler(view::redrawTerminal, frameScheduler, FloatRedrawScheduler.DEFAULT_FRAME_BUDGET_NANOS);
+        mBellScheduler = new FloatBellScheduler(service);
+        mPasteEngine = new FloatPasteEngine(service, new FloatPasteEngine.PasteClient() {
+            @Override
+            public void onPasteProgress(long pastedChars, long totalChars) {
+                mView.showPasteProgress((int) (pastedChars * 100 / totalChars));
+            }
+
+            @Override
+            public void onPasteFinished(boolean cancelled) {
+                mView.hidePasteProgress();
+            }
+
+            @Override
+            public void onPasteRefused() {
+                Logger.showToast(mService, mService.getString(R.string.paste_refused), true);
+            }
+        });
     }
 
     /**
@@ -45,7 +111,8 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
         // Just initialize the mBellSoundPool and load the sound, otherwise bell might not run
         // the first time bell key is pressed and play() is called, since sound may not be loaded
         // quickly enough before the call to play(). https://stackoverflow.com/questions/35435625
-        loadBellSoundPool();
+        // The sound is loaded in the background so that attaching the window is not delayed
+        mBellScheduler.loadBellSoundPool();
     }
 
     /**
@@ -56,7 +123,19 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
         // java.util.concurrent.TimeoutException: android.media.SoundPool.finalize() timed out after 10 seconds
         // Bell is not played in background anyways
         // Related: https://stackoverflow.com/a/28708351/14686958
-        releaseBellSoundPool();
+        mBellScheduler.releaseBellSoundPool();
+        mBellScheduler.cancel();
+
+        mRedrawScheduler.cancel();
+        mPasteEngine.cancel();
+    }
+
+    /**
+     * Should be called when TermuxFloatView.closeFloatingWindow() is called
+     */
+    public void release() {
+        mStylingCache.release();
+        mPasteEngine.release();
     }
 
     /**
@@ -72,18 +151,38 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
     public void onTextChanged(TerminalSession changedSession) {
         if (!mView.isVisible()) return;
 
-        mView.getTerminalView().onScreenUpdated();
+        // Sessions of background tabs are not attached to the view, so skip all redraw work for them
+        if (changedSession != mService.getCurrentSession()) return;
+
+        if (mInputTimeNanos != 0) {
+            mLastInputEchoLatencyNanos = System.nanoTime() - mInputTimeNanos;
+            mInputTimeNanos = 0;
+        }
+
+        // The terminal view is not rendered while minimized, so only feed the bubble activity indicator
+        if (mView.isMinimized()) {
+            mBubbleOutputUpdates++;
+            updateBubbleActivity(true);
+            return;
+        }
+
+        mRedrawScheduler.requestRedraw();
     }
 
     @Override
     public void onSessionFinished(TerminalSession finishedSession) {
-        mService.requestStopService();
+        if (mView.isMinimized()) {
+            mBubbleSessionExit = true;
+            updateBubbleActivity(false);
+        }
+
+        mService.onSessionFinished(finishedSession);
     }
 
     @Override
     public void onCopyTextToClipboard(TerminalSession pastingSession, String text) {
-        ClipboardManager clipboard = (ClipboardManager) mService.getSystemService(Context.CLIPBOARD_SERVICE);
-        clipboard.setPrimaryClip(new ClipData(null, new String[]{"text/plain"}, new ClipData.Item(text)));
+        if (text == null) return;
+        mService.getClipboardCopier().copy(text, mView.getProperties().getClipboardMaxInlineChars());
     }
 
     @Override
@@ -92,30 +191,27 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
 
         ClipboardManager clipboard = (ClipboardManager) mService.getSystemService(Context.CLIPBOARD_SERVICE);
         ClipData clipData = clipboard.getPrimaryClip();
-        if (clipData != null) {
-            CharSequence paste = clipData.getItemAt(0).coerceToText(mService);
-            if (!TextUtils.isEmpty(paste)) mView.getTerminalView().mEmulator.paste(paste.toString());
-        }
+        if (clipData != null && session != null)
+            mPasteEngine.paste(session, clipData);
     }
 
     @Override
     public void onBell(TerminalSession session) {
         if (!mView.isVisible()) return;
 
-        int bellBehaviour = mView.getProperties().getBellBehaviour();
-        if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_VIBRATE) {
-            BellHandler.getInstance(mService).doBell();
-        } else if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_BEEP) {
-            loadBellSoundPool();
-            if (mBellSoundPool != null)
-                mBellSoundPool.play(mBellSoundId, 1.f, 1.f, 1, 0, 1.f);
-        } else if (bellBehaviour == TermuxPropertyConstants.IVALUE_BELL_BEHAVIOUR_IGNORE) {
-            // Ignore the bell character.
+        if (mView.isMinimized()) {
+            mBubbleBell = true;
+            updateBubbleActivity(false);
         }
+
+        TermuxFloatAppSharedProperties properties = mView.getProperties();
+        mBellScheduler.onBell(properties.getBellBehaviour(), properties.getBellMinInterval());
     }
 
     @Override
     public void onColorsChanged(TerminalSession changedSession) {
+        if (changedSession != mService.getCurrentSession()) return;
+
         updateBackgroundColor();
     }
 
@@ -126,57 +222,88 @@ public class TermuxFloatSessionClient extends TermuxTerminalSessionClientBase {
     }
 
 
-    /** Load mBellSoundPool */
-    private synchronized void loadBellSoundPool() {
-        if (mBellSoundPool == null) {
-            mBellSoundPool = new SoundPool.Builder().setMaxStreams(1).setAudioAttributes(
-                    new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                            .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION).build()).build();
+    /**
+     * Release the bell sound pool. It is loaded again on the next bell.
+     *
+     * @return Returns {@code true} if it was loaded and has been released.
+     */
+    public boolean releaseBellSoundPool() {
+        return mBellScheduler.releaseBellSoundPool();
+    }
 
-            try {
-                mBellSoundId = mBellSoundPool.load(mService, com.termux.shared.R.raw.bell, 1);
-            } catch (Exception e){
-                // Catch java.lang.RuntimeException: Unable to resume activity {com.termux/com.termux.app.TermuxActivity}: android.content.res.Resources$NotFoundException: File res/raw/bell.ogg from drawable resource ID
-                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load bell sound pool", e);
-            }
-        }
+
+
+    /**
+     * Apply the colors and font files. The files are only parsed and loaded if they changed since
+     * the last call, in which case they are loaded in the background by {@link #mStylingCache}.
+     */
+    public void checkForFontAndColors() {
+        boolean unchanged = mStylingCache.load(TermuxConstants.TERMUX_COLOR_PROPERTIES_FILE,
+            TermuxConstants.TERMUX_FONT_FILE, mStylingClient);
+
+        // The current session may have changed even if the files did not
+        if (unchanged)
+            updateBackgroundColor();
     }
 
-    /** Release mBellSoundPool resources */
-    private synchronized void releaseBellSoundPool() {
-        if (mBellSoundPool != null) {
-            mBellSoundPool.release();
-            mBellSoundPool = null;
+    /** Reset the bubble activity counters, like when the window is minimized. */
+    public void resetBubbleActivity() {
+        mBubbleOutputUpdates = 0;
+        mBubbleBell = false;
+        mBubbleSessionExit = false;
+
+        // The scroll counter is cleared by TerminalView.onScreenUpdated(), which is not called
+        // while minimized, so it counts the output lines received since then
+        TerminalSession session = mService.getCurrentSession();
+        if (session != null && session.getEmulator() != null) {
+            mView.onBeforeScrollCounterCleared();
+            session.getEmulator().clearScrollCounter();
         }
     }
 
+    private void updateBubbleActivity(boolean pulse) {
+        FloatingBubbleManager floatingBubbleManager = mView.getFloatingBubbleManager();
+        if (floatingBubbleManager == null) return;
 
+        TerminalSession session = mService.getCurrentSession();
+        int unreadLines = (session != null && session.getEmulator() != null) ? session.getEmulator().getScrollCounter() : 0;
+        floatingBubbleManager.updateBubbleActivity(unreadLines, mBubbleBell, mBubbleSessionExit, pulse);
+    }
 
-    public void checkForFontAndColors() {
-        try {
-            File colorsFile = TermuxConstants.TERMUX_COLOR_PROPERTIES_FILE;
-            File fontFile = TermuxConstants.TERMUX_FONT_FILE;
-
-            final Properties props = new Properties();
-            if (colorsFile.isFile()) {
-                try (InputStream in = new FileInputStream(colorsFile)) {
-                    props.load(in);
-                }
-            }
+    public long getBubbleOutputUpdates() {
+        return mBubbleOutputUpdates;
+    }
 
-            TerminalColors.COLOR_SCHEME.updateWith(props);
-            TerminalSession session = mService.getCurrentSession();
-            if (session != null && session.getEmulator() != null) {
-                session.getEmulator().mColors.reset();
-            }
+    public FloatStylingCache getStylingCache() {
+        return mStylingCache;
+    }
 
-            updateBackgroundColor();
+    /** Should be called when input is sent to the current session, to measure the input to echo latency. */
+    public void onInputSent() {
+        if (mInputLatencyTracking && mInputTimeNanos == 0)
+            mInputTimeNanos = System.nanoTime();
+    }
 
-            final Typeface newTypeface = (fontFile.exists() && fontFile.length() > 0) ? Typeface.createFromFile(fontFile) : Typeface.MONOSPACE;
-            mView.getTerminalView().setTypeface(newTypeface);
-        } catch (Exception e) {
-            Logger.logStackTraceWithMessage(LOG_TAG, "Error in checkForFontAndColors()", e);
-        }
+    public void setInputLatencyTracking(boolean inputLatencyTracking) {
+        mInputLatencyTracking = inputLatencyTracking;
+        mInputTimeNanos = 0;
+    }
+
+    /** Get the last input to echo latency, or -1 if none was measured while tracking it. */
+    public long getLastInputEchoLatencyNanos() {
+        return mLastInputEchoLatencyNanos;
+    }
+
+    public FloatRedrawScheduler getRedrawScheduler() {
+        return mRedrawScheduler;
+    }
+
+    public FloatBellScheduler getBellScheduler() {
+        return mBellScheduler;
+    }
+
+    public FloatPasteEngine getPasteEngine() {
+        return mPasteEngine;
     }
 
     public void updateBackgroundColor() {
@@ -0,0 +1,81 @@
+package com.termux.window;
+
+import android.app.PendingIntent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
+import com.termux.terminal.TerminalSession;
+
+/**
+ * A tab of the float window session tab strip.
+ *
+ * The {@link TermuxSession} of a tab is only spawned by {@link TermuxFloatService} the first time
+ * the tab is switched to, so tabs that are opened but never used do not cost a shell process.
+ */
+public class TermuxFloatSessionTab {
+
+    /** The {@link ExecutionCommand} to spawn the session with, or {@code null} for the default shell. */
+    @Nullable private final ExecutionCommand mExecutionCommand;
+
+    /** The spawned {@link TermuxSession}, or {@code null} if not spawned yet. */
+    @Nullable private TermuxSession mTermuxSession;
+
+    /**
+     * The {@link PendingIntent} to send the result of the command to once it finishes, or {@code null}
+     * if none or it was already sent.
+     */
+    @Nullable private PendingIntent mResultPendingIntent;
+
+    /** The search index of the session transcript, or {@code null} if not created yet. */
+    @Nullable private FloatTranscriptIndex mTranscriptIndex;
+
+    public TermuxFloatSessionTab(@Nullable ExecutionCommand executionCommand) {
+        mExecutionCommand = executionCommand;
+    }
+
+    @Nullable
+    public ExecutionCommand getExecutionCommand() {
+        return mExecutionCommand;
+    }
+
+    @Nullable
+    public TermuxSession getTermuxSession() {
+        return mTermuxSession;
+    }
+
+    public void setTermuxSession(@NonNull TermuxSession termuxSession) {
+        mTermuxSession = termuxSession;
+    }
+
+    /** Check if the {@link TermuxSession} of the tab has been spawned. */
+    public boolean isSpawned() {
+        return mTermuxSession != null;
+    }
+
+    @Nullable
+    public PendingIntent getResultPendingIntent() {
+        return mResultPendingIntent;
+    }
+
+    public void setResultPendingIntent(@Nullable PendingIntent resultPendingIntent) {
+        mResultPendingIntent = resultPendingIntent;
+    }
+
+    @Nullable
+    public FloatTranscriptIndex getTranscriptIndex() {
+        return mTranscriptIndex;
+    }
+
+    public void setTranscriptIndex(@Nullable FloatTranscriptIndex transcriptIndex) {
+        mTranscriptIndex = transcriptIndex;
+    }
+
+    @Nullable
+    public TerminalSession getTerminalSession() {
+        return mTermuxSession != null ? mTermuxSession.getTerminalSession() : null;
+    }
+
+}
@@ -6,16 +6,24 @@ import android.content.Intent;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.Gravity;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ScaleGestureDetector.OnScaleGestureListener;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.annotation.Nullable;
 
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
@@ -25,21 +33,29 @@ import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 import com.termux.view.TerminalView;
 import com.termux.view.TerminalViewClient;
+import com.termux.window.settings.FloatSettingsWatcher;
 import com.termux.window.settings.properties.TermuxFloatAppSharedProperties;
 
+import java.util.concurrent.Future;
+
 public class TermuxFloatView extends LinearLayout {
 
     public static final float ALPHA_FOCUS = 0.9f;
     public static final float ALPHA_NOT_FOCUS = 0.7f;
     public static final float ALPHA_MOVING = 0.5f;
-
-    private int DISPLAY_WIDTH, DISPLAY_HEIGHT;
+    /** The alpha of the session tabs whose session has not been spawned yet. */
+    private static final float ALPHA_SESSION_TAB_NOT_SPAWNED = 0.5f;
 
     final WindowManager.LayoutParams layoutParams = new WindowManager.LayoutParams();
     WindowManager mWindowManager;
 
+    private TermuxFloatService mService;
+
     private TerminalView mTerminalView;
     ViewGroup mWindowControls;
+    ViewGroup mSessionTabs;
+    TextView mPasteProgress;
+    FloatSearchController mSearchController;
     FloatingBubbleManager mFloatingBubbleManager;
 
     /**
@@ -59,28 +75,103 @@ public class TermuxFloatView extends LinearLayout {
      */
     private TermuxFloatAppSharedPreferences mPreferences;
 
+    /**
+     * The window position and size, written to {@link #mPreferences} only at the end of gestures.
+     */
+    private FloatWindowGeometry mGeometry;
+
+    /**
+     * Watcher for changes to the properties, colors and font files to apply them without restarting.
+     */
+    private FloatSettingsWatcher mSettingsWatcher;
+
     /**
      * Termux app shared properties manager, loaded from termux.properties
      */
     private TermuxFloatAppSharedProperties mProperties;
 
-    private boolean withFocus = true;
-    int initialX;
-    int initialY;
-    float initialTouchX;
-    float initialTouchY;
-
-    boolean isInLongPressState;
+    /**
+     * The {@link Future} for {@link #mProperties} if they are still being loaded in the background.
+     */
+    private Future<TermuxFloatAppSharedProperties> mPropertiesFuture;
 
     final int[] location = new int[2];
 
     final int[] windowControlsLocation = new int[2];
 
+    final int[] searchBarLocation = new int[2];
+
+    /** If {@link #location} and {@link #windowControlsLocation} are valid for hit testing touch events. */
+    private boolean mHitTestCacheValid;
+
+    /** Batches window relayouts during gestures to at most one per frame. */
+    final FloatWindowLayoutUpdater mWindowLayoutUpdater = new FloatWindowLayoutUpdater(this::relayoutWindow);
+
+    /** Handles the drag, pinch-resize, tap, focus and bubble gestures on {@link #layoutParams}. */
+    final FloatWindowGestures mWindowGestures = new FloatWindowGestures(new FloatWindowGestures.GestureTarget() {
+        @Override
+        public void setWindowAlpha(float alpha) {
+            setAlpha(alpha);
+        }
+
+        @Override
+        public void onLongPressModeChanged(boolean isInLongPressState) {
+            mFloatingBubbleManager.updateLongPressBackgroundResource(isInLongPressState);
+            if (isInLongPressState && !mFloatingBubbleManager.isMinimized())
+                Logger.showToast(getContext(), getContext().getString(R.string.after_long_press), false);
+        }
+
+        @Override
+        public void onFocusChanged(boolean hasFocus) {
+            updateRefreshPolicy();
+        }
+
+        @Override
+        public void displayAsFloatingWindow() {
+            mFloatingBubbleManager.displayAsFloatingWindow();
+        }
+
+        @Override
+        public void showTouchKeyboard() {
+            mTerminalView.post(() -> KeyboardUtils.showSoftKeyboard(getContext(), mTerminalView));
+        }
+
+        @Override
+        public void hideTouchKeyboard() {
+            mTerminalView.post(() -> KeyboardUtils.hideSoftKeyboard(getContext(), mTerminalView));
+        }
+
+        @Override
+        public void toggleSoftKeyboard() {
+            KeyboardUtils.toggleSoftKeyboard(getContext());
+        }
+    }, layoutParams, mWindowLayoutUpdater);
+
+    /** Shows the redraw, output, latency and heap stats in the window controls while toggled on. */
+    private FloatPerformanceHud mPerformanceHud;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** The time the current window draw started at, see {@link #mDrawListener}. */
+    private long mDrawStartNanos;
+
+    /** Posted by {@link #mDrawListener} on every window draw, so kept to not allocate per draw. */
+    private final Runnable mDrawFinishedRunnable = this::onDrawFinished;
+
+    /**
+     * Measures how long the window draw takes on the main thread for the frame budget of
+     * {@link FloatRedrawScheduler}. The draw and the rest of the frame run in a single main thread
+     * message, so the message posted to the front of the queue when the draw starts runs right
+     * after the frame.
+     */
+    private final ViewTreeObserver.OnDrawListener mDrawListener = () -> {
+        mDrawStartNanos = System.nanoTime();
+        mHandler.postAtFrontOfQueue(mDrawFinishedRunnable);
+    };
+
     private static final String LOG_TAG = "TermuxFloatView";
 
     final ScaleGestureDetector mScaleDetector = new ScaleGestureDetector(getContext(), new OnScaleGestureListener() {
-        private static final int MIN_SIZE = 50;
-
         @Override
         public boolean onScaleBegin(ScaleGestureDetector detector) {
             return true;
@@ -90,21 +181,13 @@ public class TermuxFloatView extends LinearLayout {
         public boolean onScale(ScaleGestureDetector detector) {
             int widthChange = (int) (detector.getCurrentSpanX() - detector.getPreviousSpanX());
             int heightChange = (int) (detector.getCurrentSpanY() - detector.getPreviousSpanY());
-            layoutParams.width += widthChange;
-            layoutParams.height += heightChange;
-            layoutParams.width = Math.max(MIN_SIZE, layoutParams.width);
-            layoutParams.height = Math.max(MIN_SIZE, layoutParams.height);
-            mWindowManager.updateViewLayout(TermuxFloatView.this, layoutParams);
-            if (mPreferences != null) {
-                mPreferences.setWindowWidth(layoutParams.width);
-                mPreferences.setWindowHeight(layoutParams.height);
-            }
+            mWindowGestures.onScale(widthChange, heightChange);
             return true;
         }
 
         @Override
         public void onScaleEnd(ScaleGestureDetector detector) {
-            // Do nothing.
+            mWindowGestures.onScaleEnd();
         }
     });
 
@@ -113,27 +196,38 @@ public class TermuxFloatView extends LinearLayout {
         setAlpha(ALPHA_FOCUS);
     }
 
-    private static int computeLayoutFlags(boolean withFocus) {
-        if (withFocus) {
-            return 0;
-        } else {
-            return WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL | WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
-        }
-    }
-
-    public void initFloatView(TermuxFloatService service) {
+    /**
+     * Initialize the float view.
+     *
+     * @param service The {@link TermuxFloatService} the view belongs to.
+     * @param propertiesFuture The {@link Future} for the {@link TermuxFloatAppSharedProperties}
+     *                         being loaded in the background. If {@code null}, they are loaded here.
+     * @param timings The {@link FloatStartupTimings} to record phases in.
+     */
+    public void initFloatView(TermuxFloatService service, @Nullable Future<TermuxFloatAppSharedProperties> propertiesFuture,
+                              FloatStartupTimings timings) {
         Logger.logDebug(LOG_TAG, "initFloatView");
 
+        mService = service;
+
         // Load termux shared properties
-        mProperties = new TermuxFloatAppSharedProperties(getContext());
+        if (propertiesFuture != null)
+            mPropertiesFuture = propertiesFuture;
+        else
+            mProperties = new TermuxFloatAppSharedProperties(getContext());
 
         // Load termux float shared preferences
         // This will also fail if TermuxConstants.TERMUX_FLOAT_PACKAGE_NAME does not equal applicationId
+        long startTime = SystemClock.uptimeMillis();
         mPreferences = TermuxFloatAppSharedPreferences.build(getContext(), true);
+        timings.record(FloatStartupTimings.PHASE_PREFERENCES_BUILD, startTime);
         if (mPreferences == null) {
             return;
         }
 
+        mGeometry = new FloatWindowGeometry(mPreferences);
+        mWindowGestures.setGeometry(mGeometry);
+
         mTermuxFloatSessionClient = new TermuxFloatSessionClient(service, this);
 
         mTerminalView = findViewById(R.id.terminal_view);
@@ -143,17 +237,95 @@ public class TermuxFloatView extends LinearLayout {
 
         mFloatingBubbleManager = new FloatingBubbleManager(this);
         initWindowControls();
+
+        mSettingsWatcher = new FloatSettingsWatcher(new FloatSettingsWatcher.SettingsWatcherClient() {
+            @Override
+            public void onPropertiesFileChanged() {
+                reloadProperties();
+            }
+
+            @Override
+            public void onStylingFileChanged() {
+                reloadViewStyling();
+            }
+        });
+        mSettingsWatcher.startWatching();
     }
 
     private void initWindowControls() {
         mWindowControls = findViewById(R.id.window_controls);
         mWindowControls.setOnClickListener(v -> changeFocus(true));
 
+        OnLayoutChangeListener hitTestCacheInvalidator = (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> invalidateHitTestCache();
+        addOnLayoutChangeListener(hitTestCacheInvalidator);
+        mWindowControls.addOnLayoutChangeListener(hitTestCacheInvalidator);
+        findViewById(R.id.search_bar).addOnLayoutChangeListener(hitTestCacheInvalidator);
+
         Button minimizeButton = findViewById(R.id.minimize_button);
         minimizeButton.setOnClickListener(v -> mFloatingBubbleManager.toggleBubble());
 
         Button exitButton = findViewById(R.id.exit_button);
         exitButton.setOnClickListener(v -> exit());
+
+        mSessionTabs = findViewById(R.id.session_tabs);
+
+        mPerformanceHud = new FloatPerformanceHud(this, findViewById(R.id.performance_hud));
+        // Long clicking the empty part of the window controls also toggles the HUD, like Ctrl+Alt+H
+        mWindowControls.setOnLongClickListener(v -> {
+            togglePerformanceHud();
+            return true;
+        });
+
+        mPasteProgress = findViewById(R.id.paste_progress);
+        mPasteProgress.setOnClickListener(v -> {
+            mTermuxFloatSessionClient.getPasteEngine().cancel();
+            hidePasteProgress();
+        });
+
+        mSearchController = new FloatSearchController(this);
+        Button searchButton = findViewById(R.id.search_button);
+        searchButton.setOnClickListener(v -> mSearchController.toggleSearch());
+
+        // The shell of the new tab is only spawned when the tab is first switched to
+        Button newSessionButton = findViewById(R.id.new_session_button);
+        newSessionButton.setOnClickListener(v -> mService.addSessionTab(null));
+    }
+
+    /**
+     * Sync the session tab strip with the session tabs of {@link TermuxFloatService}. Existing tab
+     * views are reused.
+     */
+    void updateSessionTabs() {
+        if (mSessionTabs == null || mService == null) return;
+
+        int sessionTabsCount = mService.getSessionTabs().size();
+        int currentSessionIndex = mService.getCurrentSessionIndex();
+
+        while (mSessionTabs.getChildCount() > sessionTabsCount)
+            mSessionTabs.removeViewAt(mSessionTabs.getChildCount() - 1);
+
+        LayoutInflater inflater = null;
+        while (mSessionTabs.getChildCount() < sessionTabsCount) {
+            if (inflater == null) inflater = LayoutInflater.from(getContext());
+            TextView sessionTab = (TextView) inflater.inflate(R.layout.session_tab, mSessionTabs, false);
+            sessionTab.setOnClickListener(v -> mService.switchToSession(mSessionTabs.indexOfChild(v)));
+            sessionTab.setOnLongClickListener(v -> {
+                mService.removeSessionTab(mSessionTabs.indexOfChild(v));
+                return true;
+            });
+            mSessionTabs.addView(sessionTab);
+        }
+
+        for (int i = 0; i < sessionTabsCount; i++) {
+            TextView sessionTab = (TextView) mSessionTabs.getChildAt(i);
+            sessionTab.setText(String.valueOf(i + 1));
+            sessionTab.setSelected(i == currentSessionIndex);
+            // Dim the tabs whose session has not been spawned yet
+            sessionTab.setAlpha(mService.getSessionTabs().get(i).isSpawned() ? 1f : ALPHA_SESSION_TAB_NOT_SPAWNED);
+        }
+
+        if (mSearchController != null)
+            mSearchController.onSessionChanged();
     }
 
     @Override
@@ -162,8 +334,9 @@ public class TermuxFloatView extends LinearLayout {
 
         Point displaySize = new Point();
         getDisplay().getSize(displaySize);
-        DISPLAY_WIDTH = displaySize.x;
-        DISPLAY_HEIGHT = displaySize.y;
+        mWindowGestures.setDisplaySize(displaySize.x, displaySize.y);
+
+        getViewTreeObserver().addOnDrawListener(mDrawListener);
 
         if (mTermuxFloatSessionClient != null)
             mTermuxFloatSessionClient.onAttachedToWindow();
@@ -173,6 +346,9 @@ public class TermuxFloatView extends LinearLayout {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
 
+        getViewTreeObserver().removeOnDrawListener(mDrawListener);
+        mHandler.removeCallbacks(mDrawFinishedRunnable);
+
         if (mTermuxFloatSessionClient != null)
             mTermuxFloatSessionClient.onDetachedFromWindow();
     }
@@ -180,7 +356,7 @@ public class TermuxFloatView extends LinearLayout {
     @SuppressLint("RtlHardcoded")
     public void launchFloatingWindow() {
         int widthAndHeight = android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
-        layoutParams.flags = computeLayoutFlags(true);
+        layoutParams.flags = FloatWindowGestures.computeLayoutFlags(true);
         layoutParams.width = widthAndHeight;
         layoutParams.height = widthAndHeight;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -192,11 +368,11 @@ public class TermuxFloatView extends LinearLayout {
 
         layoutParams.gravity = Gravity.TOP | Gravity.LEFT;
 
-        if (mPreferences != null) {
-            layoutParams.x = mPreferences.getWindowX();
-            layoutParams.y = mPreferences.getWindowY();
-            layoutParams.width = mPreferences.getWindowWidth();
-            layoutParams.height = mPreferences.getWindowHeight();
+        if (mGeometry != null) {
+            layoutParams.x = mGeometry.getX();
+            layoutParams.y = mGeometry.getY();
+            layoutParams.width = mGeometry.getWidth();
+            layoutParams.height = mGeometry.getHeight();
         }
 
         mWindowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
@@ -210,9 +386,9 @@ public class TermuxFloatView extends LinearLayout {
      */
     @Override
     public boolean onInterceptTouchEvent(MotionEvent event) {
-        if (isInLongPressState) return true;
+        if (mWindowGestures.isInLongPressState()) return true;
 
-        getLocationOnScreen(location);
+        if (!mHitTestCacheValid) updateHitTestCache();
         int x = location[0];
         int y = location[1];
         float touchX = event.getRawX();
@@ -224,17 +400,23 @@ public class TermuxFloatView extends LinearLayout {
             return false;
         }
 
+        if (didClickInsideSearchBar(touchX, touchY)) {
+            // The soft keyboard must be shown for the search input instead of the terminal view
+            if (event.getAction() == MotionEvent.ACTION_UP && !mWindowGestures.hasFocus()) {
+                changeFocus(true);
+                mSearchController.focusSearchInput();
+            }
+            return false;
+        }
+
         boolean clickedInside = (touchX >= x) && (touchX <= (x + layoutParams.width)) && (touchY >= y) && (touchY <= (y + layoutParams.height));
 
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
-                if (!clickedInside) changeFocus(false);
+                if (!clickedInside) mWindowGestures.onTouchDownOutside();
                 break;
             case MotionEvent.ACTION_UP:
-                if (clickedInside) {
-                    changeFocus(true);
-                    showTouchKeyboard();
-                }
+                if (clickedInside) mWindowGestures.onTapInside();
                 break;
         }
         return false;
@@ -244,7 +426,6 @@ public class TermuxFloatView extends LinearLayout {
         if (mWindowControls.getVisibility() == View.GONE) {
             return false;
         }
-        mWindowControls.getLocationOnScreen(windowControlsLocation);
         int controlsX = windowControlsLocation[0];
         int controlsY = windowControlsLocation[1];
 
@@ -252,21 +433,106 @@ public class TermuxFloatView extends LinearLayout {
                 (touchY >= controlsY && touchY <= controlsY + mWindowControls.getHeight());
     }
 
-    void showTouchKeyboard() {
-        mTerminalView.post(() -> KeyboardUtils.showSoftKeyboard(getContext(), mTerminalView));
+    private boolean didClickInsideSearchBar(float touchX, float touchY) {
+        if (mSearchController == null || !mSearchController.isSearchOpen()) {
+            return false;
+        }
+        View searchBar = mSearchController.getSearchBar();
+        int searchBarX = searchBarLocation[0];
+        int searchBarY = searchBarLocation[1];
+
+        return (touchX >= searchBarX && touchX <= searchBarX + searchBar.getWidth()) &&
+                (touchY >= searchBarY && touchY <= searchBarY + searchBar.getHeight());
+    }
+
+    /** Update the cached screen locations of the window, window controls and search bar. */
+    private void updateHitTestCache() {
+        getLocationOnScreen(location);
+        mWindowControls.getLocationOnScreen(windowControlsLocation);
+        if (mSearchController != null)
+            mSearchController.getSearchBar().getLocationOnScreen(searchBarLocation);
+        mHitTestCacheValid = true;
+    }
+
+    /** Invalidate the cached screen locations, like when the window is moved or relaid out. */
+    void invalidateHitTestCache() {
+        mHitTestCacheValid = false;
+    }
+
+    /**
+     * Should be called right before {@link TerminalView#onScreenUpdated()} or anything else that
+     * clears the scroll counter of the current emulator.
+     */
+    void onBeforeScrollCounterCleared() {
+        if (mTerminalView == null) return;
+        if (mSearchController != null)
+            mSearchController.onBeforeScrollCounterCleared(mTerminalView.mEmulator);
+        TermuxFloatService service = getService();
+        if (service != null && service.getSessionSnapshot() != null)
+            service.getSessionSnapshot().onBeforeScrollCounterCleared(mTerminalView.mEmulator);
+        if (service != null && service.getSessionRecorder() != null)
+            service.getSessionRecorder().onBeforeScrollCounterCleared(mTerminalView.mEmulator);
+    }
+
+    /**
+     * Redraw the terminal view for {@link FloatRedrawScheduler} if the window is visible.
+     *
+     * @return Returns {@code true} if the terminal view was redrawn.
+     */
+    boolean redrawTerminal() {
+        if (!isVisible() || mTerminalView == null) return false;
+        onBeforeScrollCounterCleared();
+        mTerminalView.onScreenUpdated();
+        return true;
+    }
+
+    private void onDrawFinished() {
+        if (mTermuxFloatSessionClient != null)
+            mTermuxFloatSessionClient.getRedrawScheduler().onDrawMeasured(System.nanoTime() - mDrawStartNanos);
+    }
 
+    /** Relayout the window now with the current {@link #layoutParams}. */
+    void updateWindowLayout() {
+        mWindowLayoutUpdater.updateNow();
+    }
+
+    /**
+     * Relayout the window with the current {@link #layoutParams} for {@link FloatWindowLayoutUpdater}
+     * if it is added to the window manager.
+     *
+     * @return Returns {@code true} if the window was relaid out.
+     */
+    private boolean relayoutWindow() {
+        if (mWindowManager == null || getWindowToken() == null) return false;
+
+        mWindowManager.updateViewLayout(this, layoutParams);
+        // The window may have moved, which does not trigger a layout change of its views
+        invalidateHitTestCache();
+        return true;
+    }
+
+    void showTouchKeyboard() {
+        mWindowGestures.showTouchKeyboard();
     }
 
     void hideTouchKeyboard() {
-        mTerminalView.post(() -> KeyboardUtils.hideSoftKeyboard(getContext(), mTerminalView));
+        mWindowGestures.hideTouchKeyboard();
+    }
+
+    /** Show the soft keyboard for {@code view}, which must be a view of the float window. */
+    void showSoftKeyboard(View view) {
+        mWindowGestures.onSoftKeyboardRequested();
+        view.post(() -> KeyboardUtils.showSoftKeyboard(getContext(), view));
     }
 
-    void updateLongPressMode(boolean newValue) {
-        isInLongPressState = newValue;
-        mFloatingBubbleManager.updateLongPressBackgroundResource(isInLongPressState);
-        setAlpha(newValue ? ALPHA_MOVING : (withFocus ? ALPHA_FOCUS : ALPHA_NOT_FOCUS));
-        if (newValue && !mFloatingBubbleManager.isMinimized())
-            Logger.showToast(getContext(), getContext().getString(R.string.after_long_press), false);
+    void toggleSoftKeyboard() {
+        mWindowGestures.toggleSoftKeyboard();
+    }
+
+    /** Start moving the window, like on long press on the terminal view or bubble. */
+    void onWindowLongPress(MotionEvent event) {
+        updateHitTestCache();
+        mWindowGestures.onLongPress(location[0], location[1], event.getRawX(), event.getRawY());
     }
 
     /**
@@ -275,21 +541,16 @@ public class TermuxFloatView extends LinearLayout {
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (isInLongPressState) {
+        if (mWindowGestures.isInLongPressState()) {
             mScaleDetector.onTouchEvent(event);
             if (mScaleDetector.isInProgress()) return true;
             switch (event.getAction()) {
                 case MotionEvent.ACTION_MOVE:
-                    layoutParams.x = Math.min(DISPLAY_WIDTH - layoutParams.width, Math.max(0, initialX + (int) (event.getRawX() - initialTouchX)));
-                    layoutParams.y = Math.min(DISPLAY_HEIGHT - layoutParams.height, Math.max(0, initialY + (int) (event.getRawY() - initialTouchY)));
-                    mWindowManager.updateViewLayout(TermuxFloatView.this, layoutParams);
-                    if (mPreferences != null) {
-                        mPreferences.setWindowX(layoutParams.x);
-                        mPreferences.setWindowY(layoutParams.y);
-                    }
+                    mWindowGestures.onDrag(event.getRawX(), event.getRawY());
                     break;
                 case MotionEvent.ACTION_UP:
-                    updateLongPressMode(false);
+                case MotionEvent.ACTION_CANCEL:
+                    mWindowGestures.onLongPressEnd();
                     break;
             }
             return true;
@@ -301,26 +562,57 @@ public class TermuxFloatView extends LinearLayout {
      * Visually indicate focus and show the soft input as needed.
      */
     void changeFocus(boolean newFocus) {
-        if (newFocus && mFloatingBubbleManager.isMinimized()) {
-            mFloatingBubbleManager.displayAsFloatingWindow();
-        }
-        if (newFocus == withFocus) {
-            if (newFocus) showTouchKeyboard();
-            return;
+        mWindowGestures.changeFocus(newFocus);
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (changedView == this)
+            updateRefreshPolicy();
+    }
+
+    /**
+     * Update the refresh policy of the terminal view redraws. Redraws are done on every frame while
+     * focused, capped to the {@code unfocused-refresh-rate} property while not focused and paused
+     * while the window is gone.
+     */
+    void updateRefreshPolicy() {
+        if (mTermuxFloatSessionClient == null) return;
+
+        FloatRedrawScheduler redrawScheduler = mTermuxFloatSessionClient.getRedrawScheduler();
+        if (getVisibility() != View.VISIBLE) {
+            redrawScheduler.setRefreshPolicy(true, 0);
+        } else if (mWindowGestures.hasFocus()) {
+            redrawScheduler.setRefreshPolicy(false, 0);
+        } else {
+            redrawScheduler.setRefreshPolicy(false, 1_000_000_000L / getProperties().getUnfocusedRefreshRate());
         }
-        withFocus = newFocus;
-        layoutParams.flags = computeLayoutFlags(withFocus);
-        if (getWindowToken() != null)
-            mWindowManager.updateViewLayout(this, layoutParams);
-        setAlpha(newFocus ? ALPHA_FOCUS : ALPHA_NOT_FOCUS);
     }
 
     public void closeFloatingWindow() {
+        mWindowLayoutUpdater.cancel();
+
+        if (mSettingsWatcher != null)
+            mSettingsWatcher.stopWatching();
+
+        if (mGeometry != null)
+            mGeometry.flush();
+
         if (getWindowToken() != null)
             mWindowManager.removeView(this);
 
         mFloatingBubbleManager.cleanup();
         mFloatingBubbleManager = null;
+
+        if (mSearchController != null)
+            mSearchController.release();
+
+        if (mTermuxFloatSessionClient != null)
+            mTermuxFloatSessionClient.release();
+
+        if (mPerformanceHud != null)
+            mPerformanceHud.hide();
     }
 
     private void exit() {
@@ -330,10 +622,42 @@ public class TermuxFloatView extends LinearLayout {
 
 
 
+    /** Toggle the performance HUD in the window controls. */
+    public void togglePerformanceHud() {
+        if (mPerformanceHud != null)
+            mPerformanceHud.toggle();
+    }
+
+    /** Show the progress of a large paste in the window controls, which also allows cancelling it. */
+    public void showPasteProgress(int percent) {
+        if (mPasteProgress == null) return;
+        mPasteProgress.setText(getContext().getString(R.string.paste_progress, percent));
+        mPasteProgress.setVisibility(View.VISIBLE);
+    }
+
+    public void hidePasteProgress() {
+        if (mPasteProgress != null)
+            mPasteProgress.setVisibility(View.GONE);
+    }
+
+
+
     public boolean isVisible() {
         return isAttachedToWindow() && isShown();
     }
 
+    public boolean isMinimized() {
+        return mFloatingBubbleManager != null && mFloatingBubbleManager.isMinimized();
+    }
+
+    public FloatingBubbleManager getFloatingBubbleManager() {
+        return mFloatingBubbleManager;
+    }
+
+    public TermuxFloatService getService() {
+        return mService;
+    }
+
     public TerminalView getTerminalView() {
         return mTerminalView;
     }
@@ -350,14 +674,69 @@ public class TermuxFloatView extends LinearLayout {
         return mPreferences;
     }
 
+    public FloatWindowGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    public FloatWindowLayoutUpdater getWindowLayoutUpdater() {
+        return mWindowLayoutUpdater;
+    }
+
+    public FloatWindowGestures getWindowGestures() {
+        return mWindowGestures;
+    }
+
     public TermuxFloatAppSharedProperties getProperties() {
+        if (mProperties == null && mPropertiesFuture != null) {
+            // Only blocks if the properties are used before the background load has finished
+            try {
+                mProperties = mPropertiesFuture.get();
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load properties in background", e);
+                mProperties = new TermuxFloatAppSharedProperties(getContext());
+            }
+            mPropertiesFuture = null;
+        }
         return mProperties;
     }
 
 
+    /**
+     * Reload the colors and font. Only files that changed since they were last loaded are reloaded.
+     */
     public void reloadViewStyling() {
-        // Leaving here for future support for termux-reload-settings
         if (mTermuxFloatSessionClient != null)
             mTermuxFloatSessionClient.onReload();
     }
+
+    /**
+     * Reload the properties from disk and apply the values that changed to the live window and
+     * sessions. Values that are read on use, like the bell behaviour, apply automatically. The
+     * {@code terminal-transcript-rows} only applies to sessions created afterwards.
+     */
+    public void reloadProperties() {
+        TermuxFloatAppSharedProperties properties = getProperties();
+        if (properties == null) return;
+
+        int oldTerminalCursorStyle = properties.getTerminalCursorStyle();
+
+        properties.loadTermuxPropertiesFromDisk();
+
+        updateRefreshPolicy();
+        if (mTermuxFloatViewClient != null)
+            mTermuxFloatViewClient.invalidateFnKeyMap();
+        if (mSearchController != null)
+            mSearchController.onPropertiesReloaded();
+
+        if (oldTerminalCursorStyle != properties.getTerminalCursorStyle()) {
+            Logger.logDebug(LOG_TAG, "Applying changed terminal cursor style");
+            for (TermuxFloatSessionTab sessionTab : mService.getSessionTabs()) {
+                TerminalSession session = sessionTab.getTerminalSession();
+                if (session != null && session.getEmulator() != null)
+                    session.getEmulator().setCursorStyle();
+            }
+            if (mTerminalView != null)
+                mTerminalView.invalidate();
+        }
+    }
 }
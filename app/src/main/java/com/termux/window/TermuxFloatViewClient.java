@@ -7,10 +7,9 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import com.termux.shared.termux.terminal.TermuxTerminalViewClientBase;
-import com.termux.shared.view.KeyboardUtils;
-import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.window.settings.properties.TermuxFloatAppSharedProperties;
 
 public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
 
@@ -22,6 +21,9 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
      */
     boolean mVirtualControlKeyDown, mVirtualFnKeyDown;
 
+    /** The compiled volume up "Fn" key layer, or {@code null} if it must be compiled on next use. */
+    private FloatFnKeyMap mFnKeyMap;
+
     public TermuxFloatViewClient(TermuxFloatView view, TermuxFloatSessionClient termuxFloatSessionClient) {
         mView = view;
         mTermuxFloatSessionClient = termuxFloatSessionClient;
@@ -45,6 +47,12 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
     public void onEmulatorSet() {
         // This is being called every time float bubble is maximized
         mTermuxFloatSessionClient.checkForFontAndColors();
+
+        // Show the screen of the previous service instance, before the output of the new shell
+        TermuxFloatService service = mView.getService();
+        TerminalEmulator emulator = mView.getTerminalView().mEmulator;
+        if (service != null && service.getSessionSnapshot() != null && emulator != null)
+            service.getSessionSnapshot().restoreInto(emulator);
     }
 
 
@@ -61,12 +69,7 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
 
     @Override
     public boolean onLongPress(MotionEvent event) {
-        mView.updateLongPressMode(true);
-        mView.getLocationOnScreen(mView.location);
-        mView.initialX = mView.location[0];
-        mView.initialY = mView.location[1];
-        mView.initialTouchX = event.getRawX();
-        mView.initialTouchY = event.getRawY();
+        mView.onWindowLongPress(event);
         return true;
     }
 
@@ -104,7 +107,9 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
             } else if (unicodeChar == 'f'/* full screen */) {
                 // TODO: Toggle full screen.
             } else if (unicodeChar == 'k'/* keyboard */) {
-                KeyboardUtils.toggleSoftKeyboard(mView.getContext());
+                mView.toggleSoftKeyboard();
+            } else if (unicodeChar == 'h'/* hud */) {
+                mView.togglePerformanceHud();
             } else if (unicodeChar == '+' || e.getUnicodeChar(KeyEvent.META_SHIFT_ON) == '+') {
                 // We also check for the shifted char here since shift may be required to produce '+',
                 // see https://github.com/termux/termux-api/issues/2
@@ -115,6 +120,10 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
             return true;
         }
 
+        if (cancelPasteOnInput()) return true;
+
+        // The key is sent to the session by the terminal view
+        mTermuxFloatSessionClient.onInputSent();
         return false;
     }
 
@@ -136,104 +145,53 @@ public class TermuxFloatViewClient extends TermuxTerminalViewClientBase {
 
     @Override
     public boolean onCodePoint(int codePoint, boolean ctrlDown, TerminalSession session) {
-        if (mVirtualFnKeyDown) {
-            int resultingKeyCode = -1;
-            int resultingCodePoint = -1;
-            boolean altDown = false;
-            int lowerCase = Character.toLowerCase(codePoint);
-            switch (lowerCase) {
-                // Arrow keys.
-                case 'w':
-                    resultingKeyCode = KeyEvent.KEYCODE_DPAD_UP;
-                    break;
-                case 'a':
-                    resultingKeyCode = KeyEvent.KEYCODE_DPAD_LEFT;
-                    break;
-                case 's':
-                    resultingKeyCode = KeyEvent.KEYCODE_DPAD_DOWN;
-                    break;
-                case 'd':
-                    resultingKeyCode = KeyEvent.KEYCODE_DPAD_RIGHT;
-                    break;
-
-                // Page up and down.
-                case 'p':
-                    resultingKeyCode = KeyEvent.KEYCODE_PAGE_UP;
-                    break;
-                case 'n':
-                    resultingKeyCode = KeyEvent.KEYCODE_PAGE_DOWN;
-                    break;
-
-                // Some special keys:
-                case 't':
-                    resultingKeyCode = KeyEvent.KEYCODE_TAB;
-                    break;
-                case 'i':
-                    resultingKeyCode = KeyEvent.KEYCODE_INSERT;
-                    break;
-                case 'h':
-                    resultingCodePoint = '~';
-                    break;
-
-                // Special characters to input.
-                case 'u':
-                    resultingCodePoint = '_';
-                    break;
-                case 'l':
-                    resultingCodePoint = '|';
-                    break;
-
-                // Function keys.
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                case '7':
-                case '8':
-                case '9':
-                    resultingKeyCode = (codePoint - '1') + KeyEvent.KEYCODE_F1;
-                    break;
-                case '0':
-                    resultingKeyCode = KeyEvent.KEYCODE_F10;
-                    break;
-
-                // Other special keys.
-                case 'e':
-                    resultingCodePoint = /*Escape*/ 27;
-                    break;
-                case '.':
-                    resultingCodePoint = /*^.*/ 28;
-                    break;
+        if (cancelPasteOnInput()) return true;
 
-                case 'b': // alt+b, jumping backward in readline.
-                case 'f': // alf+f, jumping forward in readline.
-                case 'x': // alt+x, common in emacs.
-                    resultingCodePoint = lowerCase;
-                    altDown = true;
+        mTermuxFloatSessionClient.onInputSent();
+        if (mVirtualFnKeyDown) {
+            FloatFnKeyMap.Translation translation = getFnKeyMap().translate(codePoint, session.getEmulator());
+            switch (translation.action) {
+                case FloatFnKeyMap.ACTION_WRITE:
+                    session.write(translation.bytes, 0, translation.bytes.length);
                     break;
-
-                // Volume control.
-                case 'v':
-                    resultingCodePoint = -1;
+                case FloatFnKeyMap.ACTION_VOLUME:
                     AudioManager audio = (AudioManager) mView.getContext().getSystemService(Context.AUDIO_SERVICE);
                     audio.adjustSuggestedStreamVolume(AudioManager.ADJUST_SAME, AudioManager.USE_DEFAULT_STREAM_TYPE, AudioManager.FLAG_SHOW_UI);
                     break;
             }
-
-            if (resultingKeyCode != -1) {
-                TerminalEmulator term = session.getEmulator();
-                session.write(KeyHandler.getCode(resultingKeyCode, 0, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode()));
-            } else if (resultingCodePoint != -1) {
-                session.writeCodePoint(altDown, resultingCodePoint);
-            }
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Cancel the running paste if there is one, in which case the keyboard input must be consumed,
+     * since it would otherwise be written to the session in the middle of the paste. Once the cancel
+     * has been requested, input is written again even if the paste is still blocked on a process
+     * that does not read its input, so that the user can still interrupt it with Ctrl+C.
+     */
+    private boolean cancelPasteOnInput() {
+        FloatPasteEngine pasteEngine = mTermuxFloatSessionClient.getPasteEngine();
+        if (!pasteEngine.isPasting() || pasteEngine.isCancelRequested()) return false;
+        pasteEngine.cancel();
+        return true;
+    }
+
+    /** Get the {@link FloatFnKeyMap}, compiling it from the properties if required. */
+    private FloatFnKeyMap getFnKeyMap() {
+        if (mFnKeyMap == null) {
+            TermuxFloatAppSharedProperties properties = mView.getProperties();
+            mFnKeyMap = new FloatFnKeyMap(properties != null ? properties.getFnKeys() : null);
+        }
+        return mFnKeyMap;
+    }
+
+    /** Should be called when the properties are reloaded so that the {@link FloatFnKeyMap} is recompiled. */
+    public void invalidateFnKeyMap() {
+        mFnKeyMap = null;
+    }
+
     /**
      * Handle dedicated volume buttons as virtual keys if applicable.
      */
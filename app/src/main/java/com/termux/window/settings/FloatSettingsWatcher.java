@@ -0,0 +1,137 @@
+package com.termux.window.settings;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the float properties files, the colors file and the font file for changes, so that they
+ * can be applied to the running float window without restarting the service.
+ *
+ * The parent directories of the files are watched instead of the files themselves, since the files
+ * may not exist yet and editors often replace files by renaming. Bursts of events are debounced
+ * and delivered to the {@link SettingsWatcherClient} on the main thread.
+ */
+public class FloatSettingsWatcher {
+
+    /** The client notified of changed settings files. All methods are called on the main thread. */
+    public interface SettingsWatcherClient {
+
+        /** Called when any of the {@link TermuxConstants#TERMUX_FLOAT_PROPERTIES_FILE_PATHS_LIST} files changed. */
+        void onPropertiesFileChanged();
+
+        /** Called when {@link TermuxConstants#TERMUX_COLOR_PROPERTIES_FILE} or {@link TermuxConstants#TERMUX_FONT_FILE} changed. */
+        void onStylingFileChanged();
+
+    }
+
+    public static final int CHANGED_PROPERTIES = 1;
+    public static final int CHANGED_STYLING = 1 << 1;
+
+    /** The time to wait after the last event of a burst before notifying the client. */
+    private static final long DEBOUNCE_DELAY_MILLIS = 300;
+
+    private static final int WATCH_MASK = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO |
+        FileObserver.MOVED_FROM | FileObserver.CREATE | FileObserver.DELETE;
+
+    private final SettingsWatcherClient mClient;
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    /** Map of the canonical watched file paths to their {@link #CHANGED_PROPERTIES} or {@link #CHANGED_STYLING} flag. */
+    private final Map<String, Integer> mWatchedFiles = new HashMap<>();
+    private final List<FileObserver> mFileObservers = new ArrayList<>();
+
+    /** The changed flags accumulated since the client was last notified. */
+    private final AtomicInteger mPendingChanges = new AtomicInteger();
+
+    private final Runnable mNotifyClientRunnable = this::notifyClient;
+
+    private static final String LOG_TAG = "FloatSettingsWatcher";
+
+    public FloatSettingsWatcher(@NonNull SettingsWatcherClient client) {
+        mClient = client;
+
+        for (String path : TermuxConstants.TERMUX_FLOAT_PROPERTIES_FILE_PATHS_LIST)
+            mWatchedFiles.put(new File(path).getAbsolutePath(), CHANGED_PROPERTIES);
+        mWatchedFiles.put(TermuxConstants.TERMUX_COLOR_PROPERTIES_FILE.getAbsolutePath(), CHANGED_STYLING);
+        mWatchedFiles.put(TermuxConstants.TERMUX_FONT_FILE.getAbsolutePath(), CHANGED_STYLING);
+    }
+
+    /** Start watching. Directories that do not exist yet are not watched. */
+    @SuppressWarnings("deprecation")
+    public synchronized void startWatching() {
+        if (!mFileObservers.isEmpty()) return;
+
+        Set<String> directories = new HashSet<>();
+        for (String path : mWatchedFiles.keySet()) {
+            String parent = new File(path).getParent();
+            if (parent != null) directories.add(parent);
+        }
+
+        for (final String directory : directories) {
+            if (!new File(directory).isDirectory()) {
+                Logger.logVerbose(LOG_TAG, "Not watching non-existent directory \"" + directory + "\"");
+                continue;
+            }
+
+            FileObserver fileObserver = new FileObserver(directory, WATCH_MASK) {
+                @Override
+                public void onEvent(int event, @Nullable String path) {
+                    if (path == null) return;
+                    onFileEvent(directory + "/" + path);
+                }
+            };
+            fileObserver.startWatching();
+            mFileObservers.add(fileObserver);
+        }
+
+        Logger.logDebug(LOG_TAG, "Watching " + mFileObservers.size() + " settings directories");
+    }
+
+    /** Stop watching and drop any pending notification. */
+    public synchronized void stopWatching() {
+        for (FileObserver fileObserver : mFileObservers)
+            fileObserver.stopWatching();
+        mFileObservers.clear();
+
+        mMainThreadHandler.removeCallbacks(mNotifyClientRunnable);
+        mPendingChanges.set(0);
+    }
+
+    private void onFileEvent(@NonNull String path) {
+        Integer changed = mWatchedFiles.get(path);
+        if (changed == null) return;
+
+        mPendingChanges.getAndUpdate(pending -> pending | changed);
+        mMainThreadHandler.removeCallbacks(mNotifyClientRunnable);
+        mMainThreadHandler.postDelayed(mNotifyClientRunnable, DEBOUNCE_DELAY_MILLIS);
+    }
+
+    private void notifyClient() {
+        int changed = mPendingChanges.getAndSet(0);
+
+        Logger.logDebug(LOG_TAG, "Settings files changed: properties=" + ((changed & CHANGED_PROPERTIES) != 0) +
+            ", styling=" + ((changed & CHANGED_STYLING) != 0));
+
+        if ((changed & CHANGED_PROPERTIES) != 0)
+            mClient.onPropertiesFileChanged();
+        if ((changed & CHANGED_STYLING) != 0)
+            mClient.onStylingFileChanged();
+    }
+
+}
@@ -4,10 +4,12 @@ import android.content.Context;
 
 import androidx.annotation.NonNull;
 
+import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
-import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.settings.properties.TermuxSharedProperties;
 
+import java.util.Locale;
+
 public class TermuxFloatAppSharedProperties extends TermuxSharedProperties {
 
     private static final String LOG_TAG = "TermuxFloatAppSharedProperties";
@@ -15,8 +17,92 @@ public class TermuxFloatAppSharedProperties extends TermuxSharedProperties {
     public TermuxFloatAppSharedProperties(@NonNull Context context) {
         super(context, TermuxConstants.TERMUX_FLOAT_APP_NAME,
                 TermuxConstants.TERMUX_FLOAT_PROPERTIES_FILE_PATHS_LIST,
-                TermuxPropertyConstants.TERMUX_APP_PROPERTIES_LIST,
+                TermuxFloatPropertyConstants.TERMUX_FLOAT_APP_PROPERTIES_LIST,
                 new SharedPropertiesParserClient());
     }
 
+
+
+    public int getUnfocusedRefreshRate() {
+        return getIntPropertyValue(TermuxFloatPropertyConstants.KEY_UNFOCUSED_REFRESH_RATE,
+            TermuxFloatPropertyConstants.DEFAULT_IVALUE_UNFOCUSED_REFRESH_RATE,
+            TermuxFloatPropertyConstants.IVALUE_UNFOCUSED_REFRESH_RATE_MIN,
+            TermuxFloatPropertyConstants.IVALUE_UNFOCUSED_REFRESH_RATE_MAX);
+    }
+
+    public int getBellMinInterval() {
+        return getIntPropertyValue(TermuxFloatPropertyConstants.KEY_BELL_MIN_INTERVAL,
+            TermuxFloatPropertyConstants.DEFAULT_IVALUE_BELL_MIN_INTERVAL,
+            TermuxFloatPropertyConstants.IVALUE_BELL_MIN_INTERVAL_MIN,
+            TermuxFloatPropertyConstants.IVALUE_BELL_MIN_INTERVAL_MAX);
+    }
+
+    public int getClipboardMaxInlineChars() {
+        return getIntPropertyValue(TermuxFloatPropertyConstants.KEY_CLIPBOARD_MAX_INLINE_CHARS,
+            TermuxFloatPropertyConstants.DEFAULT_IVALUE_CLIPBOARD_MAX_INLINE_CHARS,
+            TermuxFloatPropertyConstants.IVALUE_CLIPBOARD_MAX_INLINE_CHARS_MIN,
+            TermuxFloatPropertyConstants.IVALUE_CLIPBOARD_MAX_INLINE_CHARS_MAX);
+    }
+
+    public int getSessionSnapshotInterval() {
+        return getIntPropertyValue(TermuxFloatPropertyConstants.KEY_SESSION_SNAPSHOT_INTERVAL,
+            TermuxFloatPropertyConstants.DEFAULT_IVALUE_SESSION_SNAPSHOT_INTERVAL,
+            TermuxFloatPropertyConstants.IVALUE_SESSION_SNAPSHOT_INTERVAL_MIN,
+            TermuxFloatPropertyConstants.IVALUE_SESSION_SNAPSHOT_INTERVAL_MAX);
+    }
+
+    public int getTranscriptArchiveRows() {
+        return getIntPropertyValue(TermuxFloatPropertyConstants.KEY_TRANSCRIPT_ARCHIVE_ROWS,
+            TermuxFloatPropertyConstants.DEFAULT_IVALUE_TRANSCRIPT_ARCHIVE_ROWS,
+            TermuxFloatPropertyConstants.IVALUE_TRANSCRIPT_ARCHIVE_ROWS_MIN,
+            TermuxFloatPropertyConstants.IVALUE_TRANSCRIPT_ARCHIVE_ROWS_MAX);
+    }
+
+    /** Get the user mappings of the volume up "Fn" key layer, or {@code null} if not set. */
+    public String getFnKeys() {
+        Object value = getInternalPropertyValue(TermuxFloatPropertyConstants.KEY_FN_KEYS, true);
+        return value == null ? null : value.toString();
+    }
+
+    /** Get the {@code session-recording} mode, one of the {@code VALUE_SESSION_RECORDING_*} values. */
+    @NonNull
+    public String getSessionRecording() {
+        Object value = getInternalPropertyValue(TermuxFloatPropertyConstants.KEY_SESSION_RECORDING, true);
+        String mode = value == null ? "" : value.toString().trim().toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case TermuxFloatPropertyConstants.VALUE_SESSION_RECORDING_ON:
+            case TermuxFloatPropertyConstants.VALUE_SESSION_RECORDING_GZIP:
+                return mode;
+            default:
+                return TermuxFloatPropertyConstants.DEFAULT_VALUE_SESSION_RECORDING;
+        }
+    }
+
+
+
+    /**
+     * Get the int value for a float only property. These are not handled by the shared parser
+     * client, so the internal value is the raw string value.
+     *
+     * @param key The property key.
+     * @param def The default value if the property is not set or invalid.
+     * @param min The min allowed value.
+     * @param max The max allowed value.
+     * @return Returns the property value if in range, otherwise {@code def}.
+     */
+    protected int getIntPropertyValue(String key, int def, int min, int max) {
+        Object value = getInternalPropertyValue(key, true);
+        if (value == null) return def;
+        if (value instanceof Integer) return (Integer) value;
+
+        try {
+            int intValue = Integer.parseInt(value.toString().trim());
+            if (intValue >= min && intValue <= max) return intValue;
+            Logger.logWarn(LOG_TAG, "The \"" + key + "\" value \"" + intValue + "\" is not within the range " + min + "-" + max + ", using default " + def);
+        } catch (NumberFormatException e) {
+            Logger.logWarn(LOG_TAG, "The \"" + key + "\" value \"" + value + "\" is not a valid integer, using default " + def);
+        }
+        return def;
+    }
+
 }
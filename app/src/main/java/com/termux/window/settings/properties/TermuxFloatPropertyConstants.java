@@ -0,0 +1,97 @@
+package com.termux.window.settings.properties;
+
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Constants for the properties only supported by the Termux:Float app, in addition to the
+ * {@link TermuxPropertyConstants#TERMUX_APP_PROPERTIES_LIST} it shares with the Termux app.
+ */
+public final class TermuxFloatPropertyConstants {
+
+    /** Defines the key for the max redraw rate in frames per second while the float window is not focused */
+    public static final String KEY_UNFOCUSED_REFRESH_RATE = "unfocused-refresh-rate"; // Default: "unfocused-refresh-rate"
+
+    public static final int IVALUE_UNFOCUSED_REFRESH_RATE_MIN = 1;
+    public static final int IVALUE_UNFOCUSED_REFRESH_RATE_MAX = 60;
+    public static final int DEFAULT_IVALUE_UNFOCUSED_REFRESH_RATE = 10;
+
+
+
+    /** Defines the key for the interval in seconds between two snapshots of the current session, or 0 to disable them */
+    public static final String KEY_SESSION_SNAPSHOT_INTERVAL = "session-snapshot-interval"; // Default: "session-snapshot-interval"
+
+    public static final int IVALUE_SESSION_SNAPSHOT_INTERVAL_MIN = 0;
+    public static final int IVALUE_SESSION_SNAPSHOT_INTERVAL_MAX = 3600;
+    public static final int DEFAULT_IVALUE_SESSION_SNAPSHOT_INTERVAL = 0;
+
+
+
+    /** Defines the key for the min interval in milliseconds between two bells, bells received within it are collapsed */
+    public static final String KEY_BELL_MIN_INTERVAL = "bell-min-interval"; // Default: "bell-min-interval"
+
+    public static final int IVALUE_BELL_MIN_INTERVAL_MIN = 0;
+    public static final int IVALUE_BELL_MIN_INTERVAL_MAX = 10000;
+    public static final int DEFAULT_IVALUE_BELL_MIN_INTERVAL = 200;
+
+
+
+    /** Defines the key for the max number of chars of a copy put on the clipboard directly, larger copies are put on it as a content uri */
+    public static final String KEY_CLIPBOARD_MAX_INLINE_CHARS = "clipboard-max-inline-chars"; // Default: "clipboard-max-inline-chars"
+
+    public static final int IVALUE_CLIPBOARD_MAX_INLINE_CHARS_MIN = 1024;
+    public static final int IVALUE_CLIPBOARD_MAX_INLINE_CHARS_MAX = 256 * 1024;
+    public static final int DEFAULT_IVALUE_CLIPBOARD_MAX_INLINE_CHARS = 100 * 1024;
+
+
+
+    /** Defines the key for the max number of rows kept compressed for search after they dropped out of the transcript */
+    public static final String KEY_TRANSCRIPT_ARCHIVE_ROWS = "transcript-archive-rows"; // Default: "transcript-archive-rows"
+
+    public static final int IVALUE_TRANSCRIPT_ARCHIVE_ROWS_MIN = 0;
+    public static final int IVALUE_TRANSCRIPT_ARCHIVE_ROWS_MAX = 1_000_000;
+    public static final int DEFAULT_IVALUE_TRANSCRIPT_ARCHIVE_ROWS = 0;
+
+
+
+    /** Defines the key for if what the float window shows should be recorded in asciicast files */
+    public static final String KEY_SESSION_RECORDING = "session-recording"; // Default: "session-recording"
+
+    public static final String VALUE_SESSION_RECORDING_OFF = "off";
+    public static final String VALUE_SESSION_RECORDING_ON = "on";
+    public static final String VALUE_SESSION_RECORDING_GZIP = "gzip";
+    public static final String DEFAULT_VALUE_SESSION_RECORDING = VALUE_SESSION_RECORDING_OFF;
+
+
+
+    /** Defines the key for the user mappings of the volume up "Fn" key layer, which override the default ones */
+    public static final String KEY_FN_KEYS = "fn-keys"; // Default: "fn-keys"
+
+
+
+    /** Defines the set for keys loaded by termux-float, including the ones shared with termux */
+    public static final Set<String> TERMUX_FLOAT_APP_PROPERTIES_LIST;
+    static {
+        Set<String> propertiesList = new HashSet<>(TermuxPropertyConstants.TERMUX_APP_PROPERTIES_LIST);
+        propertiesList.addAll(Arrays.asList(
+            /* int */
+            KEY_UNFOCUSED_REFRESH_RATE,
+            KEY_CLIPBOARD_MAX_INLINE_CHARS,
+            KEY_BELL_MIN_INTERVAL,
+            KEY_TRANSCRIPT_ARCHIVE_ROWS,
+            KEY_SESSION_SNAPSHOT_INTERVAL,
+
+            /* String */
+            KEY_SESSION_RECORDING,
+            KEY_FN_KEYS
+        ));
+        TERMUX_FLOAT_APP_PROPERTIES_LIST = Collections.unmodifiableSet(propertiesList);
+    }
+
+    private TermuxFloatPropertyConstants() {}
+
+}
@@ -0,0 +1,46 @@
+package com.termux.window;
+
+/** Stores the geometry of {@link FloatWindowGeometry} in memory and counts the writes. */
+class CountingGeometryStore implements FloatWindowGeometry.Store {
+
+    int x, y, width, height;
+    int writes;
+
+    CountingGeometryStore(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean write(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        writes++;
+        return true;
+    }
+
+}
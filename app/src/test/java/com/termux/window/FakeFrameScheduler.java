@@ -0,0 +1,50 @@
+package com.termux.window;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Keeps the posted frame callbacks until a frame is run by the test. */
+class FakeFrameScheduler implements FloatFrameScheduler {
+
+    static final long FRAME_NANOS = 16_000_000L;
+
+    final List<Choreographer.FrameCallback> callbacks = new ArrayList<>();
+    final List<Long> delaysMillis = new ArrayList<>();
+    long frameTimeNanos;
+
+    /** The callbacks of the frame being run, kept so that running a frame does not allocate. */
+    private final List<Choreographer.FrameCallback> frameCallbacks = new ArrayList<>();
+
+    @Override
+    public void postFrameCallback(Choreographer.FrameCallback callback) {
+        callbacks.add(callback);
+        delaysMillis.add(0L);
+    }
+
+    @Override
+    public void postFrameCallbackDelayed(Choreographer.FrameCallback callback, long delayMillis) {
+        callbacks.add(callback);
+        delaysMillis.add(delayMillis);
+    }
+
+    @Override
+    public void removeFrameCallback(Choreographer.FrameCallback callback) {
+        while (callbacks.remove(callback))
+            delaysMillis.remove(delaysMillis.size() - 1);
+    }
+
+    /** Run the callbacks posted for the next frame, ignoring their delays. */
+    void runFrame() {
+        frameTimeNanos += FRAME_NANOS;
+        for (int i = 0; i < callbacks.size(); i++)
+            frameCallbacks.add(callbacks.get(i));
+        callbacks.clear();
+        delaysMillis.clear();
+        for (int i = 0; i < frameCallbacks.size(); i++)
+            frameCallbacks.get(i).doFrame(frameTimeNanos);
+        frameCallbacks.clear();
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.termux.window;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FloatColdTranscriptTest {
+
+    private static void addRow(FloatColdTranscript coldTranscript, String rowText) {
+        coldTranscript.addRow(rowText, FloatTranscriptIndex.getTextMask(rowText));
+    }
+
+    /** Get the heap used after collecting garbage, which is only a measurement on a quiet JVM. */
+    private static long getUsedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String[] search(FloatColdTranscript coldTranscript, String query) {
+        String[] matchTexts = new String[FloatTranscriptIndex.MAX_MATCHES];
+        int count = coldTranscript.search(query, FloatTranscriptIndex.getTextMask(query), matchTexts, 0);
+        String[] matches = new String[count];
+        System.arraycopy(matchTexts, 0, matches, 0, count);
+        return matches;
+    }
+
+    @Test
+    public void keepsTheCaseOfArchivedRows() {
+        FloatColdTranscript coldTranscript = new FloatColdTranscript(10_000);
+        for (int i = 0; i < FloatColdTranscript.BLOCK_ROWS; i++)
+            addRow(coldTranscript, "row " + i);
+        addRow(coldTranscript, "Error: Build FAILED");
+        addRow(coldTranscript, "pending row");
+
+        // One compressed block and two pending rows
+        assertEquals(FloatColdTranscript.BLOCK_ROWS + 2, coldTranscript.getRowCount());
+        assertArrayEquals(new String[]{"Error: Build FAILED"}, search(coldTranscript, "build failed"));
+        assertArrayEquals(new String[]{"row 50"}, search(coldTranscript, "ROW 50"));
+        assertEquals(1, coldTranscript.getBlocksDecompressed());
+    }
+
+    @Test
+    public void skipsBlocksThatCannotMatch() {
+        FloatColdTranscript coldTranscript = new FloatColdTranscript(10_000);
+        for (int i = 0; i < FloatColdTranscript.BLOCK_ROWS; i++)
+            addRow(coldTranscript, "aaaa");
+
+        assertEquals(0, search(coldTranscript, "z").length);
+        assertEquals(0, coldTranscript.getBlocksDecompressed());
+    }
+
+    @Test
+    public void byteCountersFollowEvictionAndClear() {
+        int blockRows = FloatColdTranscript.BLOCK_ROWS;
+        FloatColdTranscript coldTranscript = new FloatColdTranscript(blockRows * 2);
+        for (int i = 0; i < blockRows * 2; i++)
+            addRow(coldTranscript, "line " + i);
+        long uncompressedBytes = coldTranscript.getUncompressedBytes();
+        long compressedBytes = coldTranscript.getCompressedBytes();
+        assertTrue(uncompressedBytes > 0);
+        assertTrue(compressedBytes > 0);
+
+        // Each block holds as many bytes, so evicting the oldest block keeps the sizes about equal
+        for (int i = 0; i < blockRows; i++)
+            addRow(coldTranscript, "line " + (10_000 + i));
+        assertEquals(blockRows * 2, coldTranscript.getRowCount());
+        assertTrue(coldTranscript.getUncompressedBytes() < uncompressedBytes * 3 / 2);
+        assertTrue(coldTranscript.getCompressedBytes() < compressedBytes * 3 / 2);
+        assertEquals(0, search(coldTranscript, "line 0").length);
+
+        coldTranscript.clear();
+        assertEquals(0, coldTranscript.getRowCount());
+        assertEquals(0, coldTranscript.getUncompressedBytes());
+        assertEquals(0, coldTranscript.getCompressedBytes());
+    }
+
+    @Test
+    public void matchesIgnoringCaseKeepTheColumnsOfTheRow() {
+        // The lower case of U+0130 is two chars long, which must not shift the later columns
+        String rowText = "\u0130stanbul make Make MAKE";
+        assertEquals(19, FloatTranscriptIndex.lastIndexOfIgnoreCase(rowText, "make", Integer.MAX_VALUE));
+        assertEquals(14, FloatTranscriptIndex.lastIndexOfIgnoreCase(rowText, "make", 18));
+        assertEquals(9, FloatTranscriptIndex.lastIndexOfIgnoreCase(rowText, "make", 13));
+        assertEquals(-1, FloatTranscriptIndex.lastIndexOfIgnoreCase(rowText, "make", 8));
+        assertEquals(-1, FloatTranscriptIndex.lastIndexOfIgnoreCase("ma", "make", Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void archiveTakesLessHeapThanTheRows() {
+        final int rowCount = 100_000;
+        String[] rowTexts = {
+            "src/main/java/com/example/Parser.java:118: warning: [unchecked] unchecked call to add(E)",
+            "[INFO] Compiling 412 source files to /home/user/project/build/classes",
+            "        tokens.add(token);",
+            "BUILD SUCCESSFUL in 12s",
+        };
+
+        long heapBefore = getUsedHeapBytes();
+        String[] rows = new String[rowCount];
+        for (int i = 0; i < rowCount; i++)
+            rows[i] = rowTexts[i % rowTexts.length] + " #" + i;
+        long rowsHeap = getUsedHeapBytes() - heapBefore;
+        assertEquals(rowCount, rows.length);
+        rows = null;
+
+        heapBefore = getUsedHeapBytes();
+        FloatColdTranscript coldTranscript = new FloatColdTranscript(rowCount);
+        for (int i = 0; i < rowCount; i++)
+            addRow(coldTranscript, rowTexts[i % rowTexts.length] + " #" + i);
+        long archiveHeap = getUsedHeapBytes() - heapBefore;
+        System.out.println("FloatColdTranscript: " + rowCount + " rows take " + rowsHeap +
+            " heap bytes as strings and " + archiveHeap + " heap bytes archived");
+
+        assertTrue(archiveHeap < rowsHeap / 4);
+        assertEquals(rowCount, coldTranscript.getRowCount());
+        coldTranscript.release();
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.termux.window;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FloatCommandResultTest {
+
+    @Test
+    public void stripsProcessCompletedTrailer() {
+        assertEquals("$ echo hi\nhi", FloatCommandResult.stripProcessCompletedTrailer("$ echo hi\nhi\n[Process completed - press Enter]\n\n"));
+        assertEquals("failed", FloatCommandResult.stripProcessCompletedTrailer("failed\n[Process completed (code 1) - press Enter]"));
+        assertEquals("killed", FloatCommandResult.stripProcessCompletedTrailer("killed\n[Process completed (signal 9) - press Enter]  \n"));
+    }
+
+    @Test
+    public void keepsOutputWithoutTrailer() {
+        assertEquals("[Process completed - press Enter] is printed once the process exits",
+            FloatCommandResult.stripProcessCompletedTrailer("[Process completed - press Enter] is printed once the process exits\n"));
+        assertEquals("", FloatCommandResult.stripProcessCompletedTrailer("\n\n"));
+    }
+
+}
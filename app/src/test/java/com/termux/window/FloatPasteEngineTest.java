@@ -0,0 +1,41 @@
+package com.termux.window;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FloatPasteEngineTest {
+
+    @Test
+    public void sanitizeRemovesEscapesAndConvertsLineEndings() {
+        assertEquals("a\rb\rc", FloatPasteEngine.sanitize("a\r\nb\nc"));
+        // A pasted end marker must not end the bracketed paste
+        assertEquals("[201~rm -rf x\r", FloatPasteEngine.sanitize("\033[201~rm -rf x\n"));
+        assertEquals("ab", FloatPasteEngine.sanitize("a\u009Bb"));
+    }
+
+    @Test
+    public void chunksDoNotSplitLineEndingsOrSurrogatePairs() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < FloatPasteEngine.CHUNK_CHARS - 1; i++) text.append('x');
+        text.append("\r\n");
+        assertEquals(FloatPasteEngine.CHUNK_CHARS + 1, FloatPasteEngine.getChunkEnd(text, 0));
+
+        text.setLength(FloatPasteEngine.CHUNK_CHARS - 1);
+        text.append("\uD83D\uDE00y");
+        assertEquals(FloatPasteEngine.CHUNK_CHARS - 1, FloatPasteEngine.getChunkEnd(text, 0));
+
+        assertEquals(3, FloatPasteEngine.getChunkEnd("abc", 0));
+    }
+
+    @Test
+    public void findsLineEndingsThatWouldRunCommands() {
+        assertTrue(FloatPasteEngine.hasLineEnding("echo a\nrm -rf x"));
+        assertTrue(FloatPasteEngine.hasLineEnding("echo a\r"));
+        assertFalse(FloatPasteEngine.hasLineEnding("echo a; echo b"));
+        assertFalse(FloatPasteEngine.hasLineEnding(""));
+    }
+
+}
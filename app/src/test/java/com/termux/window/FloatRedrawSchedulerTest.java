@@ -0,0 +1,116 @@
+package com.termux.window;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FloatRedrawSchedulerTest {
+
+    private static final long BUDGET_NANOS = 8_000_000L;
+
+    private FakeFrameScheduler mFrameScheduler;
+    private int mRedraws;
+    private FloatRedrawScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mFrameScheduler = new FakeFrameScheduler();
+        mRedraws = 0;
+        mScheduler = new FloatRedrawScheduler(() -> {
+            mRedraws++;
+            return true;
+        }, mFrameScheduler, BUDGET_NANOS);
+    }
+
+    @Test
+    public void coalescesNotificationsIntoOneRedrawPerFrame() {
+        for (int i = 0; i < 100; i++)
+            mScheduler.requestRedraw();
+        assertEquals(1, mFrameScheduler.callbacks.size());
+
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+        assertEquals(100, mScheduler.getNotificationsReceived());
+        assertEquals(1, mScheduler.getFramesDrawn());
+
+        // Nothing is drawn without a new notification
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+
+        mScheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        assertEquals(2, mRedraws);
+    }
+
+    @Test
+    public void throttlesToTheMinRedrawInterval() {
+        long intervalNanos = 100_000_000L;
+        mScheduler.setRefreshPolicy(false, intervalNanos);
+        // The policy change forces a catch-up redraw
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+
+        mScheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+        assertEquals(1, mScheduler.getFramesThrottled());
+        assertEquals(1, mFrameScheduler.callbacks.size());
+        assertEquals((intervalNanos - FakeFrameScheduler.FRAME_NANOS) / 1_000_000L, (long) mFrameScheduler.delaysMillis.get(0));
+
+        // Redrawn once the interval has passed, with all requests meanwhile collapsed, so only
+        // once more in the 10 frames after the 2 frames above
+        for (int i = 0; i < 10; i++) {
+            mScheduler.requestRedraw();
+            mFrameScheduler.runFrame();
+        }
+        assertEquals(2, mRedraws);
+    }
+
+    @Test
+    public void pausedRedrawsCatchUpWhenResumed() {
+        mScheduler.setRefreshPolicy(true, 0);
+        mScheduler.requestRedraw();
+        assertTrue(mFrameScheduler.callbacks.isEmpty());
+        assertTrue(mScheduler.isPaused());
+
+        mScheduler.setRefreshPolicy(false, 0);
+        assertFalse(mScheduler.isPaused());
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+    }
+
+    @Test
+    public void defersTheNextRedrawAfterADrawOverBudget() {
+        mScheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        mScheduler.onDrawMeasured(BUDGET_NANOS * 2);
+        assertEquals(1, mScheduler.getDrawsOverBudget());
+
+        mScheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        assertEquals(1, mRedraws);
+        assertEquals(1, mScheduler.getFramesDeferred());
+
+        mFrameScheduler.runFrame();
+        assertEquals(2, mRedraws);
+
+        // A draw within the budget does not defer the next redraw
+        mScheduler.onDrawMeasured(BUDGET_NANOS / 2);
+        mScheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        assertEquals(3, mRedraws);
+        assertEquals(1, mScheduler.getFramesDeferred());
+    }
+
+    @Test
+    public void noRedrawIsCountedWhenTheTargetCannotDraw() {
+        FloatRedrawScheduler scheduler = new FloatRedrawScheduler(() -> false, mFrameScheduler, BUDGET_NANOS);
+        scheduler.requestRedraw();
+        mFrameScheduler.runFrame();
+        assertEquals(0, scheduler.getFramesDrawn());
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.termux.window;
+
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FloatTranscriptIndexTest {
+
+    private static final int TRANSCRIPT_ROWS = 100;
+
+    /** Half of a 60 Hz frame, so that a search result is ready in the frame after the query changed. */
+    private static final long MAX_SEARCH_NANOS = 8_000_000L;
+
+    private ExecutorService mExecutor;
+    private FloatTranscriptIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor();
+        mIndex = new FloatTranscriptIndex(TRANSCRIPT_ROWS, 0, mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void matchesAreInColumnsOfWideChars() {
+        // Each of the 2 CJK chars takes 2 columns
+        mIndex.appendRows(-1, new String[]{"\u65E5\u672C error Error"});
+        FloatTranscriptIndex.SearchResult result = mIndex.searchRows("ERROR", new String[0], 0, -TRANSCRIPT_ROWS);
+
+        assertEquals(2, result.count);
+        assertEquals(-1, result.rows[0]);
+        assertEquals(11, result.columns[0]);
+        assertEquals(5, result.widths[0]);
+        assertEquals(5, result.columns[1]);
+        assertEquals(5, result.widths[1]);
+    }
+
+    @Test
+    public void matchWidthsAreInColumns() {
+        String[] screenRowTexts = {
+            // A CJK query is twice as wide as its length
+            "ab \u65E5\u672C\u8A9E",
+            // A combining accent takes no column, and a char outside the BMP takes two chars
+            "cafe\u0301 \uD83D\uDE00 x",
+        };
+
+        FloatTranscriptIndex.SearchResult result = mIndex.searchRows("\u672C\u8A9E", screenRowTexts, 0, 0);
+        assertEquals(1, result.count);
+        assertEquals(5, result.columns[0]);
+        assertEquals(4, result.widths[0]);
+
+        result = mIndex.searchRows("e\u0301", screenRowTexts, 0, 0);
+        assertEquals(1, result.count);
+        assertEquals(3, result.columns[0]);
+        assertEquals(1, result.widths[0]);
+
+        result = mIndex.searchRows("x", screenRowTexts, 0, 0);
+        assertEquals(1, result.count);
+        assertEquals(1, result.rows[0]);
+        assertEquals(8, result.columns[0]);
+        assertEquals(1, result.widths[0]);
+    }
+
+    @Test
+    public void searchOfTheDefaultTranscriptTakesLessThanHalfAFrame() {
+        int transcriptRows = TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_ROWS;
+        FloatTranscriptIndex index = new FloatTranscriptIndex(transcriptRows, 0, mExecutor);
+        String[] rowTexts = new String[transcriptRows];
+        for (int i = 0; i < transcriptRows; i++)
+            rowTexts[i] = String.format("%-120s", "src/main/java/com/example/Parser" + i + ".java:118: warning: [unchecked] unchecked call to add(E)");
+        index.appendRows(-transcriptRows, rowTexts);
+        String[] screenRowTexts = new String[40];
+        for (int i = 0; i < screenRowTexts.length; i++)
+            screenRowTexts[i] = String.format("%-120s", "$ make -j8 " + i);
+
+        // A query whose chars are in every row, with a single match, is the worst case of the char bitmasks
+        String[] queries = {"Parser1999.java", "unchecked call", "no such row", "e"};
+        for (String query : queries) {
+            // Warm up the search until it is compiled before it is timed
+            for (int i = 0; i < 200; i++)
+                index.searchRows(query, screenRowTexts, 0, -transcriptRows);
+
+            long minSearchNanos = Long.MAX_VALUE;
+            for (int i = 0; i < 20; i++)
+                minSearchNanos = Math.min(minSearchNanos, index.searchRows(query, screenRowTexts, 0, -transcriptRows).searchNanos);
+            assertTrue("Searching \"" + query + "\" took " + minSearchNanos + "ns", minSearchNanos < MAX_SEARCH_NANOS);
+        }
+
+        assertEquals(1, index.searchRows("Parser1999.java", screenRowTexts, 0, -transcriptRows).count);
+    }
+
+}
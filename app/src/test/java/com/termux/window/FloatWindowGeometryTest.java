@@ -0,0 +1,89 @@
+package com.termux.window;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FloatWindowGeometryTest {
+
+    private CountingGeometryStore mStore;
+    private FloatWindowGeometry mGeometry;
+
+    @Before
+    public void setUp() {
+        mStore = new CountingGeometryStore(10, 20, 300, 200);
+        mGeometry = new FloatWindowGeometry(mStore);
+    }
+
+    @Test
+    public void readsTheStoredGeometry() {
+        assertEquals(10, mGeometry.getX());
+        assertEquals(20, mGeometry.getY());
+        assertEquals(300, mGeometry.getWidth());
+        assertEquals(200, mGeometry.getHeight());
+        assertFalse(mGeometry.isDirty());
+    }
+
+    @Test
+    public void dragWritesOnceAtTheEnd() {
+        for (int i = 1; i <= 120; i++)
+            mGeometry.setPosition(10 + i, 20 + i);
+        assertEquals(0, mStore.writes);
+        assertEquals(120, mGeometry.getUpdateCount());
+
+        assertTrue(mGeometry.flush());
+        assertEquals(1, mStore.writes);
+        assertEquals(1, mGeometry.getPreferenceWriteCount());
+        assertEquals(130, mStore.x);
+        assertEquals(140, mStore.y);
+    }
+
+    @Test
+    public void pinchWritesOnceAtTheEnd() {
+        for (int i = 1; i <= 60; i++)
+            mGeometry.setSize(300 + i, 200 + i);
+        assertTrue(mGeometry.flush());
+        assertEquals(1, mStore.writes);
+        assertEquals(360, mStore.width);
+        assertEquals(260, mStore.height);
+    }
+
+    @Test
+    public void unchangedGeometryIsNotWritten() {
+        mGeometry.setPosition(10, 20);
+        mGeometry.setSize(300, 200);
+        assertEquals(0, mGeometry.getUpdateCount());
+        assertFalse(mGeometry.flush());
+
+        mGeometry.setPosition(11, 20);
+        assertTrue(mGeometry.flush());
+        // The scale end and the following up or cancel event both flush, but only the first one writes
+        assertFalse(mGeometry.flush());
+        assertEquals(1, mStore.writes);
+    }
+
+    @Test
+    public void failedWriteIsRetriedByTheNextFlush() {
+        FloatWindowGeometry geometry = new FloatWindowGeometry(new CountingGeometryStore(10, 20, 300, 200) {
+            boolean fail = true;
+
+            @Override
+            public boolean write(int x, int y, int width, int height) {
+                if (fail) {
+                    fail = false;
+                    return false;
+                }
+                return super.write(x, y, width, height);
+            }
+        });
+        geometry.setPosition(1, 2);
+        assertFalse(geometry.flush());
+        assertTrue(geometry.isDirty());
+        assertTrue(geometry.flush());
+        assertEquals(1, geometry.getPreferenceWriteCount());
+    }
+
+}
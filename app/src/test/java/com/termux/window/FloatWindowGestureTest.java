@@ -0,0 +1,366 @@
+package com.termux.window;
+
+import android.view.WindowManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs scripted drags, pinches, taps, focus changes and bubble toggles through
+ * {@link FloatWindowGestures}, which {@link TermuxFloatView} and {@link FloatingBubbleManager}
+ * delegate their touch events and focus changes to, and checks their side effects against budgets.
+ */
+public class FloatWindowGestureTest {
+
+    /** The max number of window relayouts per frame of a gesture. */
+    private static final int RELAYOUTS_PER_FRAME_BUDGET = 1;
+    /** The max number of window relayouts for a tap, focus change or bubble toggle. */
+    private static final int RELAYOUTS_PER_TAP_BUDGET = 1;
+    /** The max number of preference writes per drag or pinch-resize gesture. */
+    private static final int PREFERENCE_WRITES_PER_GESTURE_BUDGET = 1;
+    /** The max number of soft keyboard requests per drag or pinch-resize gesture. */
+    private static final int SOFT_KEYBOARD_REQUESTS_PER_MOVE_BUDGET = 0;
+    /** The max number of soft keyboard requests per tap, focus change or bubble toggle. */
+    private static final int SOFT_KEYBOARD_REQUESTS_PER_TAP_BUDGET = 1;
+    /** The max number of bytes allocated by a drag gesture, all of its state is preallocated. */
+    private static final long ALLOCATED_BYTES_PER_GESTURE_BUDGET = 0;
+
+    /** The number of touch events delivered per frame, like with a high touch sampling rate. */
+    private static final int MOVES_PER_FRAME = 4;
+    private static final int FRAMES_PER_GESTURE = 30;
+
+    private static final int DISPLAY_WIDTH = 1080;
+    private static final int DISPLAY_HEIGHT = 1920;
+    private static final int BUBBLE_SIZE = 56;
+
+    /** Counts the calls of {@link FloatWindowGestures} to the window. */
+    private class CountingTarget implements FloatWindowGestures.GestureTarget {
+
+        float alpha;
+        boolean isInLongPressState;
+        int focusChanges;
+        int keyboardShows;
+        int keyboardHides;
+        int keyboardToggles;
+
+        @Override
+        public void setWindowAlpha(float alpha) {
+            this.alpha = alpha;
+        }
+
+        @Override
+        public void onLongPressModeChanged(boolean isInLongPressState) {
+            this.isInLongPressState = isInLongPressState;
+        }
+
+        @Override
+        public void onFocusChanged(boolean hasFocus) {
+            focusChanges++;
+        }
+
+        @Override
+        public void displayAsFloatingWindow() {
+            // Like FloatingBubbleManager after showing the views of the window
+            mGestures.onRestore();
+        }
+
+        @Override
+        public void showTouchKeyboard() {
+            keyboardShows++;
+        }
+
+        @Override
+        public void hideTouchKeyboard() {
+            keyboardHides++;
+        }
+
+        @Override
+        public void toggleSoftKeyboard() {
+            keyboardToggles++;
+        }
+
+        int getKeyboardRequests() {
+            return keyboardShows + keyboardHides + keyboardToggles;
+        }
+
+    }
+
+    private FakeFrameScheduler mFrameScheduler;
+    private CountingGeometryStore mStore;
+    private CountingTarget mTarget;
+    private WindowManager.LayoutParams mLayoutParams;
+    private FloatWindowLayoutUpdater mLayoutUpdater;
+    private FloatWindowGestures mGestures;
+    /** The number of {@link WindowManager#updateViewLayout} calls. */
+    private int mRelayouts;
+    private int mRelayoutsInFrame;
+    private int mMaxRelayoutsInFrame;
+
+    private float mTouchX;
+    private float mTouchY;
+    /** Moves the touch by one pixel right and two down, kept so that the drag script does not allocate. */
+    private final Runnable mDragMove = () -> {
+        mTouchX++;
+        mTouchY += 2;
+        mGestures.onDrag(mTouchX, mTouchY);
+    };
+
+    @Before
+    public void setUp() {
+        mFrameScheduler = new FakeFrameScheduler();
+        mStore = new CountingGeometryStore(0, 0, 300, 200);
+        mTarget = new CountingTarget();
+        mRelayouts = 0;
+        mLayoutUpdater = new FloatWindowLayoutUpdater(() -> {
+            mRelayouts++;
+            mRelayoutsInFrame++;
+            return true;
+        }, mFrameScheduler);
+
+        FloatWindowGeometry geometry = new FloatWindowGeometry(mStore);
+        mLayoutParams = new WindowManager.LayoutParams();
+        // Like TermuxFloatView.launchFloatingWindow()
+        mLayoutParams.flags = FloatWindowGestures.computeLayoutFlags(true);
+        mLayoutParams.x = geometry.getX();
+        mLayoutParams.y = geometry.getY();
+        mLayoutParams.width = geometry.getWidth();
+        mLayoutParams.height = geometry.getHeight();
+
+        mGestures = new FloatWindowGestures(mTarget, mLayoutParams, mLayoutUpdater);
+        mGestures.setGeometry(geometry);
+        mGestures.setDisplaySize(DISPLAY_WIDTH, DISPLAY_HEIGHT);
+    }
+
+    /** Deliver the touch events of one frame, then run the frame. */
+    private void runFrame(Runnable onTouchEvent) {
+        mRelayoutsInFrame = 0;
+        for (int i = 0; i < MOVES_PER_FRAME; i++)
+            onTouchEvent.run();
+        mFrameScheduler.runFrame();
+        mMaxRelayoutsInFrame = Math.max(mMaxRelayoutsInFrame, mRelayoutsInFrame);
+    }
+
+    /** Drag the window by one pixel right and two down per touch event, starting at {@code touchX} and {@code touchY}. */
+    private void drag(float touchX, float touchY) {
+        mTouchX = touchX;
+        mTouchY = touchY;
+        mGestures.onLongPress(mLayoutParams.x, mLayoutParams.y, mTouchX, mTouchY);
+        for (int frame = 0; frame < FRAMES_PER_GESTURE; frame++)
+            runFrame(mDragMove);
+        // The last move is delivered right before the finger is lifted, within the same frame
+        mTouchX++;
+        mGestures.onDrag(mTouchX, mTouchY);
+        mGestures.onLongPressEnd();
+    }
+
+    @Test
+    public void dragStaysWithinBudgets() {
+        drag(500, 500);
+
+        assertEquals(RELAYOUTS_PER_FRAME_BUDGET, mMaxRelayoutsInFrame);
+        // One relayout per frame, plus the one flushed at the end of the gesture
+        assertEquals(FRAMES_PER_GESTURE + 1, mLayoutUpdater.getLastGestureRelayoutCount());
+        assertEquals(FRAMES_PER_GESTURE * MOVES_PER_FRAME + 1, mLayoutUpdater.getRequestCount());
+        assertEquals(PREFERENCE_WRITES_PER_GESTURE_BUDGET, mGestures.getLastGesturePreferenceWriteCount());
+        assertEquals(PREFERENCE_WRITES_PER_GESTURE_BUDGET, mStore.writes);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_MOVE_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(0, mTarget.getKeyboardRequests());
+        assertEquals(FRAMES_PER_GESTURE * MOVES_PER_FRAME + 1, mStore.x);
+        assertEquals(FRAMES_PER_GESTURE * MOVES_PER_FRAME * 2, mStore.y);
+        assertFalse(mGestures.isInLongPressState());
+        assertFalse(mTarget.isInLongPressState);
+        assertEquals(TermuxFloatView.ALPHA_FOCUS, mTarget.alpha, 0);
+    }
+
+    @Test
+    public void dragIsKeptWithinTheDisplay() {
+        mGestures.onLongPress(mLayoutParams.x, mLayoutParams.y, 0, 0);
+        mGestures.onDrag(-100, 5000);
+        mGestures.onLongPressEnd();
+
+        assertEquals(0, mLayoutParams.x);
+        assertEquals(DISPLAY_HEIGHT - mLayoutParams.height, mLayoutParams.y);
+        assertEquals(DISPLAY_HEIGHT - mLayoutParams.height, mStore.y);
+    }
+
+    @Test
+    public void pinchResizeStaysWithinBudgets() {
+        int width = mLayoutParams.width;
+        int height = mLayoutParams.height;
+        mGestures.onLongPress(mLayoutParams.x, mLayoutParams.y, 500, 500);
+        for (int frame = 0; frame < FRAMES_PER_GESTURE; frame++)
+            runFrame(() -> mGestures.onScale(3, 1));
+        mGestures.onScaleEnd();
+        mGestures.onLongPressEnd();
+
+        assertEquals(RELAYOUTS_PER_FRAME_BUDGET, mMaxRelayoutsInFrame);
+        assertEquals(FRAMES_PER_GESTURE, mLayoutUpdater.getLastGestureRelayoutCount());
+        assertEquals(PREFERENCE_WRITES_PER_GESTURE_BUDGET, mGestures.getLastGesturePreferenceWriteCount());
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_MOVE_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(width + FRAMES_PER_GESTURE * MOVES_PER_FRAME * 3, mStore.width);
+        assertEquals(height + FRAMES_PER_GESTURE * MOVES_PER_FRAME, mStore.height);
+    }
+
+    @Test
+    public void pinchResizeKeepsTheMinSize() {
+        mGestures.onLongPress(mLayoutParams.x, mLayoutParams.y, 500, 500);
+        mGestures.onScale(-1000, -1000);
+        mGestures.onScaleEnd();
+        mGestures.onLongPressEnd();
+
+        assertEquals(FloatWindowGestures.MIN_SIZE, mStore.width);
+        assertEquals(FloatWindowGestures.MIN_SIZE, mStore.height);
+    }
+
+    @Test
+    public void cancelledDragStaysWithinBudgets() {
+        mGestures.onLongPress(mLayoutParams.x, mLayoutParams.y, 0, 0);
+        runFrame(() -> mGestures.onDrag(5, 0));
+        mGestures.onDrag(42, 24);
+        // ACTION_CANCEL is handled like ACTION_UP
+        mGestures.onLongPressEnd();
+
+        assertEquals(2, mLayoutUpdater.getLastGestureRelayoutCount());
+        assertEquals(PREFERENCE_WRITES_PER_GESTURE_BUDGET, mStore.writes);
+        assertEquals(42, mStore.x);
+        assertEquals(24, mStore.y);
+    }
+
+    @Test
+    public void focusChangesStayWithinBudgets() {
+        mGestures.onTouchDownOutside();
+
+        assertFalse(mGestures.hasFocus());
+        assertEquals(FloatWindowGestures.computeLayoutFlags(false), mLayoutParams.flags);
+        assertEquals(TermuxFloatView.ALPHA_NOT_FOCUS, mTarget.alpha, 0);
+        assertEquals(RELAYOUTS_PER_TAP_BUDGET, mRelayouts);
+        assertEquals(0, mGestures.getLastGestureSoftKeyboardRequestCount());
+
+        // Touches outside of the window while not focused are not delivered to it, but check
+        // that they do not relayout the window again anyways
+        mGestures.onTouchDownOutside();
+        assertEquals(RELAYOUTS_PER_TAP_BUDGET, mRelayouts);
+
+        mRelayouts = 0;
+        mGestures.onTapInside();
+
+        assertTrue(mGestures.hasFocus());
+        assertEquals(FloatWindowGestures.computeLayoutFlags(true), mLayoutParams.flags);
+        assertEquals(TermuxFloatView.ALPHA_FOCUS, mTarget.alpha, 0);
+        assertEquals(RELAYOUTS_PER_TAP_BUDGET, mRelayouts);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_TAP_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(1, mTarget.keyboardShows);
+        assertEquals(2, mTarget.focusChanges);
+        assertEquals(0, mStore.writes);
+    }
+
+    @Test
+    public void tapWhileFocusedOnlyShowsTheSoftKeyboard() {
+        mGestures.onTapInside();
+
+        assertEquals(0, mRelayouts);
+        assertEquals(0, mTarget.focusChanges);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_TAP_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(1, mTarget.keyboardShows);
+    }
+
+    @Test
+    public void bubbleTogglesStayWithinBudgets() {
+        int width = mLayoutParams.width;
+        int height = mLayoutParams.height;
+        mGestures.onMinimize(BUBBLE_SIZE);
+
+        assertTrue(mGestures.isMinimized());
+        assertFalse(mGestures.hasFocus());
+        assertEquals(BUBBLE_SIZE, mLayoutParams.width);
+        assertEquals(BUBBLE_SIZE, mLayoutParams.height);
+        assertEquals(FloatWindowGestures.computeLayoutFlags(false), mLayoutParams.flags);
+        assertEquals(RELAYOUTS_PER_TAP_BUDGET, mRelayouts);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_TAP_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(1, mTarget.keyboardHides);
+
+        // Tapping the bubble restores the window, gains focus and shows the soft keyboard
+        mRelayouts = 0;
+        long gestureCount = mGestures.getGestureCount();
+        mGestures.onTapInside();
+
+        assertFalse(mGestures.isMinimized());
+        assertTrue(mGestures.hasFocus());
+        assertEquals(width, mLayoutParams.width);
+        assertEquals(height, mLayoutParams.height);
+        assertEquals(FloatWindowGestures.computeLayoutFlags(true), mLayoutParams.flags);
+        assertEquals(RELAYOUTS_PER_TAP_BUDGET, mRelayouts);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_TAP_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        assertEquals(1, mTarget.keyboardShows);
+        // Restoring is part of the tap
+        assertEquals(gestureCount + 1, mGestures.getGestureCount());
+        assertEquals(0, mStore.writes);
+    }
+
+    @Test
+    public void bubbleKeepsItsSizeWhileDragged() {
+        int width = mLayoutParams.width;
+        mGestures.onMinimize(BUBBLE_SIZE);
+        drag(10, 10);
+
+        assertEquals(PREFERENCE_WRITES_PER_GESTURE_BUDGET, mStore.writes);
+        assertEquals(SOFT_KEYBOARD_REQUESTS_PER_MOVE_BUDGET, mGestures.getLastGestureSoftKeyboardRequestCount());
+        // The size of the window is stored, not the size of the bubble
+        assertEquals(width, mStore.width);
+        assertTrue(mGestures.isMinimized());
+        assertEquals(TermuxFloatView.ALPHA_NOT_FOCUS, mTarget.alpha, 0);
+
+        mGestures.changeFocus(true);
+        assertEquals(width, mLayoutParams.width);
+    }
+
+    @Test
+    public void softKeyboardRequestsAreCounted() {
+        mGestures.toggleSoftKeyboard();
+        mGestures.showTouchKeyboard();
+        mGestures.onSoftKeyboardRequested();
+
+        assertEquals(3, mGestures.getSoftKeyboardRequestCount());
+        assertEquals(1, mTarget.keyboardToggles);
+        assertEquals(1, mTarget.keyboardShows);
+    }
+
+    @Test
+    public void dragStaysWithinAllocationBudget() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up, also so that the lists of the frame scheduler have grown to their final size
+        for (int i = 0; i < 200; i++)
+            drag(500, 500);
+
+        long minAllocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            drag(500, 500);
+            minAllocatedBytes = Math.min(minAllocatedBytes, threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes);
+        }
+
+        assertTrue("Allocated " + minAllocatedBytes + " bytes per drag", minAllocatedBytes <= ALLOCATED_BYTES_PER_GESTURE_BUDGET);
+    }
+
+    @Test
+    public void noRelayoutIsCountedWhenTheWindowIsNotAdded() {
+        FloatWindowLayoutUpdater layoutUpdater = new FloatWindowLayoutUpdater(() -> false, mFrameScheduler);
+        layoutUpdater.onGestureStart();
+        layoutUpdater.requestUpdate();
+        mFrameScheduler.runFrame();
+        layoutUpdater.onGestureEnd();
+
+        assertEquals(1, layoutUpdater.getRequestCount());
+        assertEquals(0, layoutUpdater.getRelayoutCount());
+        assertEquals(0, layoutUpdater.getLastGestureRelayoutCount());
+    }
+
+}